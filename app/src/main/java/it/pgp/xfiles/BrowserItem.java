@@ -3,6 +3,7 @@ package it.pgp.xfiles;
 import android.widget.Checkable;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.Map;
 
@@ -13,26 +14,47 @@ import it.pgp.xfiles.roothelperclient.resps.ls_resp;
  */
 
 public class BrowserItem implements Serializable, Checkable, Comparable<BrowserItem> {
-    public Boolean isDirectory;
-    public Boolean isLink;
+    private static final long serialVersionUID = 1L;
+
+    // hot fields for sorting are primitives, Date and extension are built lazily on first access
+    public boolean isDirectory;
+    public boolean isLink;
     public String filename;
-    public Long size;
-    public Date date;
+    public long size;
+    public long dateMillis; // modification time, milliseconds since epoch
     private boolean checked = false;
 
-    public BrowserItem(String filename, long size, Date date, Boolean isDirectory, Boolean isLink) {
+    private transient Date date;
+    private transient String fileExt;
+
+    public BrowserItem(String filename, long size, long dateMillis, boolean isDirectory, boolean isLink) {
         this.filename = filename;
         this.size = size;
-        this.date = date;
+        this.dateMillis = dateMillis;
         this.isDirectory = isDirectory;
         this.isLink = isLink;
     }
 
+    public BrowserItem(String filename, long size, Date date, boolean isDirectory, boolean isLink) {
+        this(filename, size, date==null?0L:date.getTime(), isDirectory, isLink);
+        this.date = date;
+    }
+
+    // copy with unchecked state, for listings served from cache (items must not be shared between adapters)
+    public BrowserItem(BrowserItem other) {
+        this.filename = other.filename;
+        this.size = other.size;
+        this.dateMillis = other.dateMillis;
+        this.isDirectory = other.isDirectory;
+        this.isLink = other.isLink;
+        this.fileExt = other.fileExt;
+    }
+
     // build from roothelper ls response
     public BrowserItem(ls_resp resp) {
-        filename = new String(resp.filename); // new String(resp.filename,"UTF-8")
+        filename = new String(resp.filename, StandardCharsets.UTF_8);
         size = resp.size;
-        date = new Date(resp.date*1000);
+        dateMillis = resp.date*1000;
         isDirectory = resp.permissions[0]=='d' || resp.permissions[0]=='L'; // new String(resp.permissions, "UTF-8").charAt(0) == 'd')
         isLink = resp.permissions[0]=='l' || resp.permissions[0]=='L';
     }
@@ -45,23 +67,30 @@ public class BrowserItem implements Serializable, Checkable, Comparable<BrowserI
         if (nodeProperties == null) {
             this.isDirectory = true;
             this.size = 0L;
-            this.date = new Date(0);
+            this.dateMillis = 0L;
             this.isLink = false; // assume no directory softlink in archive
         }
         else {
             this.size = nodeProperties.containsKey("size")?(Long)nodeProperties.get("size"):0;
-            this.date = nodeProperties.containsKey("date")?(Date)nodeProperties.get("date"):new Date(0);
+            this.dateMillis = nodeProperties.containsKey("date")?((Date)nodeProperties.get("date")).getTime():0L;
             this.isDirectory = nodeProperties.containsKey("isDir")?(Boolean)nodeProperties.get("isDir"):true;
             this.isLink = nodeProperties.containsKey("isLink")?(Boolean)nodeProperties.get("isLink"):false;
         }
         this.checked = false;
     }
 
+    public Date getDate() {
+        if (date == null) date = new Date(dateMillis);
+        return date;
+    }
+
+    // computed once and cached, since it is used on every comparison when sorting by type
     public String getFileExt() {
-        String extension = "";
-        int i = filename.lastIndexOf('.');
-        if (i > 0) extension = filename.substring(i+1);
-        return extension;
+        if (fileExt == null) {
+            int i = filename.lastIndexOf('.');
+            fileExt = (i > 0) ? filename.substring(i+1) : "";
+        }
+        return fileExt;
     }
 
     public boolean hasExt() {
@@ -91,10 +120,15 @@ public class BrowserItem implements Serializable, Checkable, Comparable<BrowserI
 
     @Override
     public String toString() {
-        return filename+"\t"+size+"\t"+date+"\t"+isDirectory+"\t"+isLink;
+        return filename+"\t"+size+"\t"+getDate()+"\t"+isDirectory+"\t"+isLink;
     }
 
     public String getFilename() {
         return filename;
     }
+
+    public void setFilename(String filename) {
+        this.filename = filename;
+        fileExt = null;
+    }
 }
@@ -7,7 +7,8 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
 
-import java.io.Serializable;
+import it.pgp.xfiles.service.BaseBackgroundService;
+import it.pgp.xfiles.service.TaskScheduler;
 
 public abstract class EffectActivity extends Activity {
 
@@ -40,13 +41,22 @@ public abstract class EffectActivity extends Activity {
         overridePendingTransition(R.anim.fade_in,R.anim.fade_out);
     }
 
-    public static Serializable serviceParams;
-
+    // background tasks are queued in TaskScheduler, which keeps their params
     // useful for removing usage of parcelization (which prevents using lazy iterables as params)
     @Override
     public ComponentName startService(Intent service) {
-        serviceParams = service.getSerializableExtra("params");
-        service.putExtra("params",(Serializable)null);
+        ComponentName c = service.getComponent();
+        if (c != null && BaseBackgroundService.START_ACTION.equals(service.getAction())) {
+            try {
+                Class<?> serviceClass = Class.forName(c.getClassName());
+                if (BaseBackgroundService.class.isAssignableFrom(serviceClass)) {
+                    TaskScheduler.submit(this,serviceClass.asSubclass(BaseBackgroundService.class),
+                            service.getSerializableExtra("params"));
+                    return c;
+                }
+            }
+            catch (ClassNotFoundException ignored) {}
+        }
         return super.startService(service);
     }
 }
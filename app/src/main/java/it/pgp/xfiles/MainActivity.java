@@ -67,6 +67,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Future;
 
 import it.pgp.xfiles.adapters.BrowserAdapter;
@@ -87,6 +88,7 @@ import it.pgp.xfiles.dialogs.RemoteRHServerManagementDialog;
 import it.pgp.xfiles.dialogs.RenameDialog;
 import it.pgp.xfiles.dialogs.SSHAlreadyInKnownHostsDialog;
 import it.pgp.xfiles.dialogs.SSHNotInKnownHostsDialog;
+import it.pgp.xfiles.dialogs.TaskQueueDialog;
 import it.pgp.xfiles.dialogs.XFilesRemoteSessionsManagementActivity;
 import it.pgp.xfiles.dialogs.compress.AskPasswordDialogOnListing;
 import it.pgp.xfiles.dialogs.compress.CompressActivity;
@@ -101,6 +103,7 @@ import it.pgp.xfiles.enums.ForegroundServiceType;
 import it.pgp.xfiles.enums.Permissions;
 import it.pgp.xfiles.enums.ProviderType;
 import it.pgp.xfiles.fileservers.FileServer;
+import it.pgp.xfiles.fileservers.TrafficControl;
 import it.pgp.xfiles.roothelperclient.RemoteClientManager;
 import it.pgp.xfiles.roothelperclient.RemoteServerManager;
 import it.pgp.xfiles.roothelperclient.RootHandler;
@@ -108,6 +111,7 @@ import it.pgp.xfiles.roothelperclient.RootHelperClient;
 import it.pgp.xfiles.service.BaseBackgroundService;
 import it.pgp.xfiles.service.CopyMoveService;
 import it.pgp.xfiles.service.ExtractService;
+import it.pgp.xfiles.service.TaskScheduler;
 import it.pgp.xfiles.service.HTTPUploadService;
 import it.pgp.xfiles.service.NonInteractiveSftpService;
 import it.pgp.xfiles.service.NonInteractiveSmbService;
@@ -119,15 +123,21 @@ import it.pgp.xfiles.service.params.ExtractParams;
 import it.pgp.xfiles.service.params.TestParams;
 import it.pgp.xfiles.service.visualization.ProgressIndicator;
 import it.pgp.xfiles.sftpclient.InteractiveHostKeyVerifier;
+import it.pgp.xfiles.sftpclient.ParallelSFTPTransfer;
 import it.pgp.xfiles.sftpclient.SFTPProvider;
 import it.pgp.xfiles.sftpclient.VaultActivity;
+import it.pgp.xfiles.sftpclient.XSFTPFileTransfer;
 import it.pgp.xfiles.smbclient.SmbProvider;
 import it.pgp.xfiles.smbclient.SmbVaultActivity;
 import it.pgp.xfiles.utils.ContentProviderUtils;
 import it.pgp.xfiles.utils.DirCommander;
+import it.pgp.xfiles.utils.DirListingCache;
+import it.pgp.xfiles.utils.DirListingListener;
+import it.pgp.xfiles.utils.DirPrefetcher;
 import it.pgp.xfiles.utils.FileOperationHelper;
 import it.pgp.xfiles.utils.Misc;
 import it.pgp.xfiles.utils.SelectImageButtonListener;
+import it.pgp.xfiles.utils.TransferJournal;
 import it.pgp.xfiles.utils.XFilesUtils;
 import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
 import it.pgp.xfiles.utils.dircontent.SftpDirWithContent;
@@ -216,6 +226,13 @@ public class MainActivity extends EffectActivity {
         return rootHelperClient;
     }
 
+    // for callers that cannot do without roothelper and already handle IOException
+    public static RootHelperClient requireRootHelperClient() throws IOException {
+        RootHelperClient rh = getRootHelperClient();
+        if (rh == null) throw new IOException("Roothelper not available");
+        return rh;
+    }
+
     public static void killRHWrapper() {
         try {
             rootHelperClient.killServer();
@@ -373,6 +390,9 @@ public class MainActivity extends EffectActivity {
                     e.printStackTrace();
                     showToast("Unable to delete some items");
                 }
+                finally {
+                    DirListingCache.invalidateParentsOf(selection);
+                }
                 alertDialog.dismiss();
             }).start();
         });
@@ -476,6 +496,10 @@ public class MainActivity extends EffectActivity {
                 openCredOrFavsManager(itemId);
                 return true;
 
+            case R.id.openTaskQueue:
+                new TaskQueueDialog(this).show();
+                return true;
+
             case R.id.openAboutDialog:
                 openAboutDialog();
                 return true;
@@ -623,6 +647,15 @@ public class MainActivity extends EffectActivity {
         }
         isTablet = isTablet_==1;
         hasPermanentMenuKey = !(sharedPrefs.getBoolean("SOFTKEYS",true));
+        DirPrefetcher.enabled = sharedPrefs.getBoolean("PREFETCH",true);
+        SFTPProvider.parallelChannels = sharedPrefs.getInt("SFTP_PARALLEL_CHANNELS",ParallelSFTPTransfer.DEFAULT_CHANNELS);
+        XSFTPFileTransfer.window = sharedPrefs.getInt("SFTP_TRANSFER_WINDOW",XSFTPFileTransfer.DEFAULT_WINDOW);
+        TrafficControl.maxConnections = sharedPrefs.getInt("FILESERVER_MAX_CONNECTIONS",TrafficControl.DEFAULT_MAX_CONNECTIONS);
+        TrafficControl.globalRate = sharedPrefs.getInt("FILESERVER_GLOBAL_KBPS",0)*1024L;
+        TrafficControl.perClientRate = sharedPrefs.getInt("FILESERVER_CLIENT_KBPS",0)*1024L;
+        TaskScheduler.diskSlots = sharedPrefs.getInt("TASK_DISK_SLOTS",1);
+        TaskScheduler.cpuSlots = sharedPrefs.getInt("TASK_CPU_SLOTS",1);
+        TaskScheduler.hostSlots = sharedPrefs.getInt("TASK_HOST_SLOTS",1);
     }
 
     // 2 bits: LSB for dang, MSB for sign
@@ -677,6 +710,8 @@ public class MainActivity extends EffectActivity {
         xFilesUtils = new XFilesUtils();
 
         smbProvider = new SmbProvider(context,this);
+        TransferJournal.init(getApplicationContext());
+        TaskScheduler.init(getApplicationContext());
         sftpProvider = new SFTPProvider(this);
 
 
@@ -1128,28 +1163,26 @@ public class MainActivity extends EffectActivity {
         // SFTP to SFTP file transfer
         else if (copyMoveList.parentDir.providerType == ProviderType.SFTP &&
                 destPath.providerType == ProviderType.SFTP) {
-            // remote transfer on the same remote host
-            if (((SFTPPathContent)copyMoveList.parentDir).authData.equals(((SFTPPathContent)destPath).authData)) {
-                // move (rename) on the remote host
-                if (copyMoveList.copyOrMove == CopyMoveMode.MOVE) {
-                    try {
-                        sftpProvider.copyMoveFilesToDirectory(copyMoveList,destPath);
-                        copyMoveList = null;
-                        browserPagerAdapter.showDirContent(getCurrentDirCommander().refresh(),browserPager.getCurrentItem(),null);
-                        Toast.makeText(this,"Remote-to-remote move completed",Toast.LENGTH_SHORT).show();
-                    }
-                    catch (IOException e) {
-                        Toast.makeText(this,"Remote-to-remote error: "+e.getMessage(),Toast.LENGTH_LONG).show();
-                    }
+            // move (rename) on the same remote host
+            if (copyMoveList.copyOrMove == CopyMoveMode.MOVE &&
+                    ((SFTPPathContent)copyMoveList.parentDir).authData.equals(((SFTPPathContent)destPath).authData)) {
+                try {
+                    sftpProvider.copyMoveFilesToDirectory(copyMoveList,destPath);
+                    DirListingCache.invalidateCopyMove(copyMoveList,destPath);
+                    copyMoveList = null;
+                    browserPagerAdapter.showDirContent(getCurrentDirCommander().refresh(),browserPager.getCurrentItem(),null);
+                    Toast.makeText(this,"Remote-to-remote move completed",Toast.LENGTH_SHORT).show();
                 }
-                else {
-                    Toast.makeText(this,"Only remote to remote move on same host supported",Toast.LENGTH_SHORT).show();
+                catch (IOException e) {
+                    Toast.makeText(this,"Remote-to-remote error: "+e.getMessage(),Toast.LENGTH_LONG).show();
                 }
             }
+            // copy on the same host (server-side if possible), or copy/move across hosts relayed through the device
             else {
-                Toast.makeText(this,"Unpractical to be implemented",Toast.LENGTH_SHORT).show();
-                // not implementable without downloading to device & uploading from it (unpractical), or
-                // without already key-exchanged remote end-points
+                Intent startIntent = new Intent(MainActivity.this,NonInteractiveSftpService.class);
+                startIntent.setAction(BaseBackgroundService.START_ACTION);
+                startIntent.putExtra("params",new CopyMoveParams(copyMoveList,destPath));
+                startService(startIntent);
             }
         }
         // XFiles remote transfer
@@ -1274,8 +1307,15 @@ public class MainActivity extends EffectActivity {
         return gdwc.errorCode;
     }
 
+    // to be called from background thread only: the first chunks of the listing are shown while it is still in progress
+    private FileOpsErrorCodes goDirStreamed(Object dirOrDirection, int targetViewPagerPosition, @Nullable String targetFilenameToHighlight, Runnable... onCompletion) {
+        GenericDirWithContent gdwc = goDir_inner(dirOrDirection,browserPagerAdapter.newStreamingListener(targetViewPagerPosition));
+        completeGoDir(gdwc,dirOrDirection,targetViewPagerPosition,targetFilenameToHighlight,onCompletion);
+        return gdwc.errorCode;
+    }
+
     public void goDir_async(Object dirOrDirection, @Nullable String targetFilenameToHighlight) {
-        Future<FileOpsErrorCodes> ff = browserPagerAdapter.goDirExecutors[browserPager.getCurrentItem()].submit(() -> goDir(
+        Future<FileOpsErrorCodes> ff = browserPagerAdapter.goDirExecutors[browserPager.getCurrentItem()].submit(() -> goDirStreamed(
                 dirOrDirection,
                 browserPager.getCurrentItem(),
                 targetFilenameToHighlight,
@@ -1291,18 +1331,25 @@ public class MainActivity extends EffectActivity {
      * @param dirOrDirection Target path to be loaded, or direction as boolean (back or ahead)
      */
     public GenericDirWithContent goDir_inner(Object dirOrDirection) {
+        return goDir_inner(dirOrDirection,null);
+    }
+
+    public GenericDirWithContent goDir_inner(Object dirOrDirection, @Nullable DirListingListener listener) {
         GenericDirWithContent dwc;
+        DirPrefetcher.cancelAll(); // navigating elsewhere, don't compete with this listing
         int prevPos = getCurrentMainBrowserView().getFirstVisiblePosition();
         if (dirOrDirection instanceof Boolean) {
             Boolean b = (Boolean)dirOrDirection;
-            if (b) dwc = getCurrentDirCommander().goBack(prevPos);
-            else dwc = getCurrentDirCommander().goAhead(prevPos);
+            if (b) dwc = getCurrentDirCommander().goBack(prevPos,listener);
+            else dwc = getCurrentDirCommander().goAhead(prevPos,listener);
         }
         else if (dirOrDirection instanceof BasePathContent) {
-            dwc = getCurrentDirCommander().setDir((BasePathContent) dirOrDirection, prevPos);
+            dwc = getCurrentDirCommander().setDir((BasePathContent) dirOrDirection, prevPos, listener);
         }
         else return new GenericDirWithContent(FileOpsErrorCodes.ILLEGAL_ARGUMENT);
 
+        if (dwc.errorCode == null)
+            DirPrefetcher.onListingSettled(getCurrentDirCommander().getCurrentDirectoryPathname(),dwc);
         return dwc;
     }
 
@@ -1310,7 +1357,10 @@ public class MainActivity extends EffectActivity {
     public void completeGoDir(GenericDirWithContent dwc, Object dirOrDirection, int position, @Nullable String targetFilenameToHighlight, Runnable... onCompletion) {
         runOnUiThread(()->{
             if(dwc.errorCode != null && dwc.errorCode != FileOpsErrorCodes.OK) {
+                browserPagerAdapter.discardStreamedDirContent(position);
                 switch(dwc.errorCode) {
+                    case LISTING_CANCELLED:
+                        break;
                     case ILLEGAL_ARGUMENT:
                         showToast("Invalid object type for dir browsing");
                         break;
@@ -1544,8 +1594,9 @@ public class MainActivity extends EffectActivity {
                     return true;
                 case R.id.itemChecksum:
                     if (path.providerType != ProviderType.LOCAL &&
-                            path.providerType != ProviderType.XFILES_REMOTE) {
-                        Toast.makeText(MainActivity.this,"Checksum implemented only for local and XFiles remote files",Toast.LENGTH_LONG).show();
+                            path.providerType != ProviderType.XFILES_REMOTE &&
+                            path.providerType != ProviderType.SFTP) {
+                        Toast.makeText(MainActivity.this,"Checksum implemented only for local, XFiles remote and SFTP files",Toast.LENGTH_LONG).show();
                         return true;
                     }
                     Intent intent = new Intent(MainActivity.this, ChecksumActivity.class);
@@ -1690,38 +1741,16 @@ public class MainActivity extends EffectActivity {
 
         // kill RH server only if there aren't foreground services using it, and if XRE remote server is not active
 
-        // if busy, terminate all the rest, if not, terminate everything
-        synchronized (ProgressIndicator.busy) {
-            ForegroundServiceType f = ProgressIndicator.busy.get();
-            if (f == null) {
-                // close all
-                if (sftpProvider != null) sftpProvider.closeAllSessions();
-                if (smbProvider != null) smbProvider.closeAllSessions();
-                rootHelperRemoteClientManager.closeAllSessions();
-                if (RemoteServerManager.rhssManagerRef.get() == null)
-                    killRHWrapper();
-            }
-            else {
-                // TODO apply a better construct for set exclusion
-                switch (f) {
-                    case FILE_TRANSFER:
-                    case FILE_ARCHIVING:
-                    case XRE_TRANSFER:
-                    case URL_DOWNLOAD:
-                        if (sftpProvider != null) sftpProvider.closeAllSessions();
-                        if (smbProvider != null) smbProvider.closeAllSessions();
-                        break;
-                    case SFTP_TRANSFER:
-                        if (smbProvider != null) smbProvider.closeAllSessions();
-                        rootHelperRemoteClientManager.closeAllSessions(); // FIXME this shouldn't be done anymore since the use of RobustLocal file streams, to be checked
-                        if (RemoteServerManager.rhssManagerRef.get() == null)
-                            killRHWrapper();
-                        break;
-                    case SMB_TRANSFER:
-                        if (sftpProvider != null) sftpProvider.closeAllSessions();
-                        break;
-                }
-            }
+        // terminate everything not used by the running tasks (more of them can be running concurrently)
+        Set<ForegroundServiceType> active = ProgressIndicator.getActiveTypes();
+        if (!active.contains(ForegroundServiceType.SFTP_TRANSFER) && sftpProvider != null)
+            sftpProvider.closeAllSessions();
+        if (!active.contains(ForegroundServiceType.SMB_TRANSFER) && smbProvider != null)
+            smbProvider.closeAllSessions();
+        if (!TaskScheduler.isRootHelperNeeded()) {
+            rootHelperRemoteClientManager.closeAllSessions(); // FIXME this shouldn't be done anymore since the use of RobustLocal file streams, to be checked
+            if (RemoteServerManager.rhssManagerRef.get() == null)
+                killRHWrapper();
         }
 
         usingRootHelperForLocal = false;
@@ -18,8 +18,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.LockSupport;
 
 import it.pgp.xfiles.enums.CopyMoveMode;
-import it.pgp.xfiles.items.SingleStatsItem;
 import it.pgp.xfiles.roothelperclient.RootHelperClient;
+import it.pgp.xfiles.roothelperclient.resps.batchStats_resp;
 import it.pgp.xfiles.service.BaseBackgroundService;
 import it.pgp.xfiles.service.NonInteractiveXFilesRemoteTransferService;
 import it.pgp.xfiles.service.params.CopyMoveParams;
@@ -118,11 +118,11 @@ public class XREDirectShareActivity extends EffectActivity {
             // anonymous local classes are not serializable, so should populate it the standard way
             List<BrowserItem> lb = new ArrayList<>();
             try {
-                for (String path : filesToUpload_) {
-                    // FIXME not optimized, one stat request for item
-                    SingleStatsItem ssi = rh.statFile(srcPath.concat(path));
-                    lb.add(new BrowserItem(path,ssi.size,ssi.modificationTime,ssi.isDir,false));
-                }
+                List<BasePathContent> paths = new ArrayList<>(filesToUpload_.size());
+                for (String path : filesToUpload_) paths.add(srcPath.concat(path));
+                batchStats_resp stats = rh.statBatch(paths);
+                for (int k=0; k<paths.size(); k++)
+                    lb.add(new BrowserItem(filesToUpload_.get(k),stats.getSize(k),stats.getModificationTimeMillis(k),stats.isDir(k),false));
             }
             catch (IOException e) {
                 e.printStackTrace();
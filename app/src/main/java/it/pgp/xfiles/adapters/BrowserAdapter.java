@@ -10,6 +10,7 @@ import android.view.View;
 import android.widget.ArrayAdapter;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -17,6 +18,7 @@ import java.util.Map;
 import it.pgp.xfiles.BrowserItem;
 import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.R;
+import it.pgp.xfiles.comparators.BrowserItemSorter;
 import it.pgp.xfiles.enums.ArchiveType;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 
@@ -97,6 +99,27 @@ public abstract class BrowserAdapter extends ArrayAdapter<BrowserItem> {
         return currentObjects.size();
     }
 
+    // parallel path for large directories, see BrowserItemSorter
+    @Override
+    public void sort(Comparator<? super BrowserItem> comparator) {
+        BrowserItemSorter.sort(objects,comparator);
+        if (currentObjects != objects) BrowserItemSorter.sort(currentObjects,comparator);
+        notifyDataSetChanged();
+    }
+
+    // merges items received after the first sort, objects must be already sorted with the same comparator
+    // if a quick find filter is active, matching items are merged into the filtered list as well
+    public void addSorted(List<BrowserItem> newItems, Comparator<? super BrowserItem> comparator) {
+        BrowserItemSorter.mergeInto(objects,newItems,comparator);
+        if (currentObjects != objects) {
+            List<BrowserItem> matching = new ArrayList<>();
+            for (BrowserItem b : newItems)
+                if (matchesFilter(b)) matching.add(b);
+            BrowserItemSorter.mergeInto(currentObjects,matching,comparator);
+        }
+        notifyDataSetChanged();
+    }
+
     @Override
     public boolean areAllItemsEnabled() {
         for(int i=0; i<getCount() ; i++) {
@@ -219,23 +242,27 @@ public abstract class BrowserAdapter extends ArrayAdapter<BrowserItem> {
         notifyDataSetChanged();
     }
 
+    private String filterContent = "";
+    private boolean filterIgnoreCase;
+
+    private boolean matchesFilter(BrowserItem b) {
+        return filterIgnoreCase ?
+                b.getFilename().toLowerCase().contains(filterContent) :
+                b.getFilename().contains(filterContent);
+    }
+
     public void filterObjects(CharSequence content, boolean ignoreCase) {
         if (content.equals("")) {
             // no filter, revert to full list of objects
             currentObjects = objects;
         }
         else {
+            filterIgnoreCase = ignoreCase;
+            filterContent = ignoreCase ? content.toString().toLowerCase() : content.toString();
             currentObjects = new ArrayList<>();
             // TODO to be replaced with recursive filtering (on currentObjects)
-            if (ignoreCase) {
-                for (BrowserItem b : objects) {
-                    if (b.getFilename().toLowerCase().contains(content.toString().toLowerCase())) currentObjects.add(b);
-                }
-            }
-            else {
-                for (BrowserItem b : objects) {
-                    if (b.getFilename().contains(content)) currentObjects.add(b);
-                }
+            for (BrowserItem b : objects) {
+                if (matchesFilter(b)) currentObjects.add(b);
             }
         }
         notifyDataSetChanged();
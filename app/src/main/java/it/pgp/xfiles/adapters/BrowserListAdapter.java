@@ -67,7 +67,7 @@ public class BrowserListAdapter extends BrowserAdapter {
 
         name.setText(item.getFilename());
         size.setText(""+item.size);
-        date.setText(formatter.format(item.date));
+        date.setText(formatter.format(item.getDate()));
 
         imageView.setImageBitmap(getBitmapByExtension(item));
 
@@ -19,8 +19,11 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
+import it.pgp.xfiles.BrowserItem;
 import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.R;
 import it.pgp.xfiles.SortingItem;
@@ -28,8 +31,8 @@ import it.pgp.xfiles.SwipeRefreshLayoutChildCanScroll;
 import it.pgp.xfiles.adapters.continuousselection.CSCheckboxes;
 import it.pgp.xfiles.adapters.continuousselection.ContSelHandlingLayout;
 import it.pgp.xfiles.adapters.continuousselection.ContSelListener;
-import it.pgp.xfiles.comparators.AdvancedComparator;
-import it.pgp.xfiles.comparators.FilenameComparator;
+import it.pgp.xfiles.comparators.BrowserItemSorter;
+import it.pgp.xfiles.comparators.CompiledComparator;
 import it.pgp.xfiles.dialogs.CreateFileOrDirectoryDialog;
 import it.pgp.xfiles.enums.BrowserViewMode;
 import it.pgp.xfiles.enums.ComparatorField;
@@ -37,6 +40,7 @@ import it.pgp.xfiles.enums.FileOpsErrorCodes;
 import it.pgp.xfiles.exceptions.DirCommanderException;
 import it.pgp.xfiles.utils.CheckableSingleExecutor;
 import it.pgp.xfiles.utils.DirCommander;
+import it.pgp.xfiles.utils.DirListingListener;
 import it.pgp.xfiles.utils.Misc;
 import it.pgp.xfiles.utils.Pair;
 import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
@@ -271,17 +275,65 @@ public class BrowserPagerAdapter extends PagerAdapter {
         PopupWindowUtils.toggleSoftKeyBoard(mainBrowserViews[position],false);
     }
 
+    /******************** streamed listing ********************/
+
+    // adapter already shown while the listing is still in progress, and the content it replaced (to be restored on error)
+    private final BrowserAdapter[] streamedAdapters = new BrowserAdapter[ADAPTER_SIZE];
+    private final List<List<BrowserItem>> replacedContents = new ArrayList<>(Collections.nCopies(ADAPTER_SIZE,null));
+
+    // chunks are sorted on the listing thread, and merged into the shown (already sorted) list on the UI thread
+    public DirListingListener newStreamingListener(int position) {
+        return chunk -> {
+            if (mainActivity.isFinishing()) return false;
+            BrowserItemSorter.sort(chunk);
+            mainActivity.runOnUiThread(() -> showDirContentChunk(chunk,position));
+            return true;
+        };
+    }
+
+    private void showDirContentChunk(List<BrowserItem> chunk, int position) {
+        if (streamedAdapters[position] != null) {
+            streamedAdapters[position].addSorted(chunk,BrowserItemSorter.DEFAULT_COMPARATOR);
+            return;
+        }
+        // first chunk, show it immediately
+        replacedContents.set(position, browserAdapters[position] == null ? null : browserAdapters[position].objects);
+        recreateAdapterAndSelectMode(browserViewModes[position],position,new GenericDirWithContent(null,new ArrayList<>(chunk)));
+        mainBrowserViews[position].setAdapter(browserAdapters[position]);
+        streamedAdapters[position] = browserAdapters[position];
+    }
+
+    // listing failed or cancelled after some chunks have been shown, go back to the previous content
+    public void discardStreamedDirContent(int position) {
+        if (streamedAdapters[position] == null) return;
+        streamedAdapters[position] = null;
+        List<BrowserItem> previous = replacedContents.set(position,null);
+        showDirContent(
+                new GenericDirWithContent(
+                        dirCommanders[position].getCurrentDirectoryPathname().dir,
+                        previous == null ? new ArrayList<>() : previous),
+                position,
+                null);
+    }
+
     public void showDirContent(GenericDirWithContent dirWithContent,
                                int position,
                                @Nullable Object targetFilenameToHighlight) { // with filename comparator
 
-        Collections.sort(dirWithContent.content,new FilenameComparator());
-
         currentDirectoryTextViews[position].setText(
                 dirCommanders[position].getCurrentDirectoryPathname().toString());
 
-        recreateAdapterAndSelectMode(browserViewModes[position],position,dirWithContent);
-        mainBrowserViews[position].setAdapter(browserAdapters[position]);
+        if (streamedAdapters[position] != null) {
+            // entries already shown and sorted while the listing was in progress, keep the current adapter
+            dirWithContent.content = streamedAdapters[position].objects;
+            streamedAdapters[position] = null;
+            replacedContents.set(position,null);
+        }
+        else {
+            BrowserItemSorter.sort(dirWithContent.content); // directories first, then by filename
+            recreateAdapterAndSelectMode(browserViewModes[position],position,dirWithContent);
+            mainBrowserViews[position].setAdapter(browserAdapters[position]);
+        }
         if (targetFilenameToHighlight != null) {
             if (targetFilenameToHighlight instanceof String) { // reposition listview with FindActivity locate
                 int locatedPos = browserAdapters[position].findPositionByFilename((String)targetFilenameToHighlight);
@@ -303,8 +355,8 @@ public class BrowserPagerAdapter extends PagerAdapter {
     }
 
     public void showSortedDirContent(GenericDirWithContent dirWithContent, Pair<ComparatorField,Boolean> whichAttribute_reverse, int position) {
-        Collections.sort(dirWithContent.content,
-                new AdvancedComparator(new SortingItem(whichAttribute_reverse.i, true, whichAttribute_reverse.j)));
+        BrowserItemSorter.sort(dirWithContent.content,
+                CompiledComparator.compile(new SortingItem(whichAttribute_reverse.i, true, whichAttribute_reverse.j)));
 
         currentDirectoryTextViews[position].setText(
                 dirCommanders[position].getCurrentDirectoryPathname().toString());
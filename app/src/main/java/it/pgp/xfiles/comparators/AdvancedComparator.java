@@ -12,55 +12,24 @@ import it.pgp.xfiles.SortingItem;
 
 public class AdvancedComparator implements Comparator<BrowserItem> {
 
-    private SortingItem[] attributes; // sorting is sequential w.r.t. these attributes
+    private final SortingItem[] attributes; // sorting is sequential w.r.t. these attributes
+    private final CompiledComparator compiled; // attribute chain resolved once, not on every comparison
 
     public AdvancedComparator(SortingItem... attributes) {
         this.attributes = attributes;
+        this.compiled = CompiledComparator.compile(attributes);
     }
 
-    @Override
-    public int compare(BrowserItem o1, BrowserItem o2) {
-        int currentComparisonResult = 0;
+    public SortingItem[] getAttributes() {
+        return attributes;
+    }
 
-        for (SortingItem a : attributes) {
-            switch (a.comparatorField) {
-                case FILENAME:
-                    currentComparisonResult = o1.getFilename().compareTo(o2.getFilename());
-                    if (a.isReversed()) currentComparisonResult*=-1;
-                    if (currentComparisonResult == 0) continue;
-                    else return currentComparisonResult;
-                case DATE:
-                    currentComparisonResult = o1.date.compareTo(o2.date);
-                    if (a.isReversed()) currentComparisonResult*=-1;
-                    if (currentComparisonResult == 0) continue;
-                    else return currentComparisonResult;
-                case SIZE:
-                    currentComparisonResult = o1.size.compareTo(o2.size);
-                    if (a.isReversed()) currentComparisonResult*=-1;
-                    if (currentComparisonResult == 0) continue;
-                    else return currentComparisonResult;
-                case TYPE:
-                    boolean d1 = o1.isDirectory;
-                    boolean d2 = o2.isDirectory;
+    public CompiledComparator getCompiled() {
+        return compiled;
+    }
 
-                    // use directory/file comparison logic if both items have no extension
-                    // (this in order to prevent mixing folders and files without extension)
-                    if(d1 && !d2) currentComparisonResult = -1;
-                    else if(!d1 && d2) currentComparisonResult = 1;
-                    else /*if((!d1 && !d2) || (d1 && d2))*/ // both files or both directories
-                        currentComparisonResult = o1.getFileExt().compareTo(o2.getFileExt());
-                    if (a.isReversed()) currentComparisonResult*=-1;
-                    if (currentComparisonResult == 0) continue;
-                    else return currentComparisonResult;
-                case DIR:
-                    currentComparisonResult = o1.isDirectory.compareTo(o2.isDirectory);
-                    if (!a.isReversed()) currentComparisonResult*=-1; // more natural order than considering boolean precedence (reverse means files first, then direectories)
-                    if (currentComparisonResult == 0) continue;
-                    else return currentComparisonResult;
-                default:
-                    throw new RuntimeException("Guard block");
-            }
-        }
-        return currentComparisonResult;
+    @Override
+    public int compare(BrowserItem o1, BrowserItem o2) {
+        return compiled.compare(o1,o2);
     }
 }
@@ -22,14 +22,14 @@ public class AdvancedComparatorStrategy implements Comparator<BrowserItem> {
     private static class DateComp implements Comparator<BrowserItem> {
         @Override
         public int compare(BrowserItem o1, BrowserItem o2) {
-            return o1.date.compareTo(o2.date);
+            return Long.compare(o1.dateMillis,o2.dateMillis);
         }
     }
 
     private static class SizeComp implements Comparator<BrowserItem> {
         @Override
         public int compare(BrowserItem o1, BrowserItem o2) {
-            return o1.size.compareTo(o2.size);
+            return Long.compare(o1.size,o2.size);
         }
     }
 
@@ -52,7 +52,7 @@ public class AdvancedComparatorStrategy implements Comparator<BrowserItem> {
         // -1 factor: more natural order than considering boolean precedence (reverse means files first, then directories)
         @Override
         public int compare(BrowserItem o1, BrowserItem o2) {
-            return -1*o1.isDirectory.compareTo(o2.isDirectory);
+            return -1*Boolean.compare(o1.isDirectory,o2.isDirectory);
         }
     }
 
@@ -0,0 +1,142 @@
+package it.pgp.xfiles.comparators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.SortingItem;
+import it.pgp.xfiles.enums.ComparatorField;
+
+/**
+ * Sorting entry point for browser listings
+ *
+ * - small lists are sorted with Collections.sort
+ * - large lists (at least {@link #PARALLEL_THRESHOLD} items) are split into one chunk per core,
+ *   chunks are sorted concurrently and then merged pairwise (Arrays.parallelSort is not available on API 19)
+ * - incremental mode: items arriving after the first sort (streamed listings, find results)
+ *   are sorted on their own and merged into the already sorted list, without a full resort
+ *
+ * All methods sort in place, so lists already bound to an adapter remain valid.
+ */
+
+public class BrowserItemSorter {
+
+    public static final int PARALLEL_THRESHOLD = 20000;
+
+    // directories first, then by filename (same order as FilenameComparator)
+    public static final CompiledComparator DEFAULT_COMPARATOR = CompiledComparator.compile(
+            new SortingItem(ComparatorField.DIR,true,false),
+            new SortingItem(ComparatorField.FILENAME,true,false));
+
+    private static final int nThreads = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService sortPool;
+
+    private static synchronized ExecutorService getSortPool() {
+        if (sortPool == null)
+            sortPool = Executors.newFixedThreadPool(nThreads, r -> {
+                Thread t = new Thread(r,"BrowserItemSorter");
+                t.setDaemon(true);
+                return t;
+            });
+        return sortPool;
+    }
+
+    public static void sort(List<BrowserItem> items) {
+        sort(items,DEFAULT_COMPARATOR);
+    }
+
+    public static void sort(List<BrowserItem> items, Comparator<? super BrowserItem> comparator) {
+        int n = items.size();
+        if (n < PARALLEL_THRESHOLD || nThreads < 2) {
+            Collections.sort(items,comparator);
+            return;
+        }
+
+        BrowserItem[] a = items.toArray(new BrowserItem[n]);
+        try {
+            parallelSort(a,comparator);
+        }
+        catch (Exception e) { // interrupted or rejected, fallback to sequential sort
+            e.printStackTrace();
+            a = items.toArray(new BrowserItem[n]);
+            Arrays.sort(a,comparator);
+        }
+        for (int i=0; i<n; i++) items.set(i,a[i]);
+    }
+
+    private static void parallelSort(BrowserItem[] a, Comparator<? super BrowserItem> comparator) throws Exception {
+        int n = a.length;
+        int chunks = nThreads;
+        int[] bounds = new int[chunks+1];
+        for (int i=0; i<=chunks; i++) bounds[i] = (int)((long)n*i/chunks);
+
+        ExecutorService pool = getSortPool();
+        List<Future<?>> futures = new ArrayList<>(chunks);
+        for (int i=0; i<chunks; i++) {
+            final int from = bounds[i], to = bounds[i+1];
+            futures.add(pool.submit(() -> Arrays.sort(a,from,to,comparator)));
+        }
+        for (Future<?> f : futures) f.get();
+
+        // merge adjacent runs pairwise, doubling run width at each pass
+        BrowserItem[] src = a;
+        BrowserItem[] dst = new BrowserItem[n];
+        for (int width=1; width<chunks; width*=2) {
+            futures.clear();
+            for (int i=0; i<chunks; i+=2*width) {
+                final int lo = bounds[i];
+                final int mid = bounds[Math.min(i+width,chunks)];
+                final int hi = bounds[Math.min(i+2*width,chunks)];
+                final BrowserItem[] s = src, d = dst;
+                futures.add(pool.submit(() -> merge(s,lo,mid,s,mid,hi,d,lo,comparator)));
+            }
+            for (Future<?> f : futures) f.get();
+            BrowserItem[] tmp = src; src = dst; dst = tmp;
+        }
+        if (src != a) System.arraycopy(src,0,a,0,n);
+    }
+
+    // stable merge of the sorted ranges a[aFrom,aTo) and b[bFrom,bTo) into dst starting at dstFrom
+    private static void merge(BrowserItem[] a, int aFrom, int aTo,
+                              BrowserItem[] b, int bFrom, int bTo,
+                              BrowserItem[] dst, int dstFrom,
+                              Comparator<? super BrowserItem> comparator) {
+        int i = aFrom, j = bFrom, k = dstFrom;
+        while (i < aTo && j < bTo)
+            dst[k++] = (comparator.compare(b[j],a[i]) < 0) ? b[j++] : a[i++];
+        while (i < aTo) dst[k++] = a[i++];
+        while (j < bTo) dst[k++] = b[j++];
+    }
+
+    /**
+     * Incremental mode: merges newItems into sorted (which must already be sorted with the same comparator)
+     * Cost is O(k log k) for sorting the new batch plus O(n+k) for the merge, instead of O((n+k) log(n+k))
+     */
+    public static void mergeInto(List<BrowserItem> sorted, List<BrowserItem> newItems, Comparator<? super BrowserItem> comparator) {
+        int k = newItems.size();
+        if (k == 0) return;
+        int n = sorted.size();
+
+        BrowserItem[] batch = newItems.toArray(new BrowserItem[k]);
+        Arrays.sort(batch,comparator);
+
+        // fast path: whole batch goes after the current last item (e.g. filename-ordered streamed chunks)
+        if (n == 0 || comparator.compare(batch[0],sorted.get(n-1)) >= 0) {
+            sorted.addAll(Arrays.asList(batch));
+            return;
+        }
+
+        BrowserItem[] old = sorted.toArray(new BrowserItem[n]);
+        BrowserItem[] merged = new BrowserItem[n+k];
+        merge(old,0,n,batch,0,k,merged,0,comparator);
+
+        for (int i=0; i<n; i++) sorted.set(i,merged[i]);
+        sorted.addAll(Arrays.asList(merged).subList(n,n+k));
+    }
+}
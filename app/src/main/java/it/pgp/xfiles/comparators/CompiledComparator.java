@@ -0,0 +1,123 @@
+package it.pgp.xfiles.comparators;
+
+import java.util.Comparator;
+import java.util.List;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.SortingItem;
+
+/**
+ * Comparator chain built once from a SortingItem sequence: each node compares a single attribute
+ * on primitive fields, with the reverse flag already folded in, and delegates to the next node only on ties
+ * (no per-comparison switch over the attributes, as in the former {@link AdvancedComparator} loop)
+ */
+
+public abstract class CompiledComparator implements Comparator<BrowserItem> {
+
+    // -1 when reversed, 1 otherwise
+    final int sign;
+    CompiledComparator next;
+
+    CompiledComparator(int sign) {
+        this.sign = sign;
+    }
+
+    abstract int compareAttribute(BrowserItem o1, BrowserItem o2);
+
+    @Override
+    public final int compare(BrowserItem o1, BrowserItem o2) {
+        CompiledComparator c = this;
+        int ret;
+        do {
+            ret = c.compareAttribute(o1,o2);
+            if (ret != 0) return c.sign*ret;
+            c = c.next;
+        }
+        while (c != null);
+        return 0;
+    }
+
+    private static final class FilenameComp extends CompiledComparator {
+        FilenameComp(int sign) {super(sign);}
+        @Override
+        int compareAttribute(BrowserItem o1, BrowserItem o2) {
+            return o1.filename.compareTo(o2.filename);
+        }
+    }
+
+    private static final class DateComp extends CompiledComparator {
+        DateComp(int sign) {super(sign);}
+        @Override
+        int compareAttribute(BrowserItem o1, BrowserItem o2) {
+            return Long.compare(o1.dateMillis,o2.dateMillis);
+        }
+    }
+
+    private static final class SizeComp extends CompiledComparator {
+        SizeComp(int sign) {super(sign);}
+        @Override
+        int compareAttribute(BrowserItem o1, BrowserItem o2) {
+            return Long.compare(o1.size,o2.size);
+        }
+    }
+
+    private static final class TypeComp extends CompiledComparator {
+        TypeComp(int sign) {super(sign);}
+        @Override
+        int compareAttribute(BrowserItem o1, BrowserItem o2) {
+            // use directory/file comparison logic if both items have no extension
+            // (this in order to prevent mixing folders and files without extension)
+            if (o1.isDirectory != o2.isDirectory) return o1.isDirectory ? -1 : 1;
+            return o1.getFileExt().compareTo(o2.getFileExt());
+        }
+    }
+
+    private static final class DirComp extends CompiledComparator {
+        DirComp(int sign) {super(sign);}
+        @Override
+        int compareAttribute(BrowserItem o1, BrowserItem o2) {
+            return Boolean.compare(o1.isDirectory,o2.isDirectory);
+        }
+    }
+
+    private static final class NoOpComp extends CompiledComparator {
+        NoOpComp() {super(1);}
+        @Override
+        int compareAttribute(BrowserItem o1, BrowserItem o2) {
+            return 0;
+        }
+    }
+
+    private static CompiledComparator node(SortingItem a) {
+        switch (a.comparatorField) {
+            case FILENAME:
+                return new FilenameComp(a.isReversed()?-1:1);
+            case DATE:
+                return new DateComp(a.isReversed()?-1:1);
+            case SIZE:
+                return new SizeComp(a.isReversed()?-1:1);
+            case TYPE:
+                return new TypeComp(a.isReversed()?-1:1);
+            case DIR:
+                // more natural order than considering boolean precedence (reverse means files first, then directories)
+                return new DirComp(a.isReversed()?1:-1);
+            default:
+                throw new RuntimeException("Guard block");
+        }
+    }
+
+    public static CompiledComparator compile(SortingItem... attributes) {
+        if (attributes.length == 0) return new NoOpComp(); // no attribute selected, keep current order
+        CompiledComparator head = node(attributes[0]);
+        CompiledComparator tail = head;
+        for (int i=1; i<attributes.length; i++) {
+            tail.next = node(attributes[i]);
+            tail = tail.next;
+        }
+        return head;
+    }
+
+    public static CompiledComparator compile(List<SortingItem> attributes) {
+        return compile(attributes.toArray(new SortingItem[0]));
+    }
+}
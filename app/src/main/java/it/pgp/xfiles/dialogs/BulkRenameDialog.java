@@ -24,6 +24,7 @@ import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.R;
 import it.pgp.xfiles.enums.ProviderType;
 import it.pgp.xfiles.items.BulkRenameItem;
+import it.pgp.xfiles.utils.DirListingCache;
 import it.pgp.xfiles.utils.FileOperationHelper;
 import it.pgp.xfiles.utils.Misc;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
@@ -175,6 +176,7 @@ public class BulkRenameDialog extends Dialog {
                     }
                     MainActivity.handler.post(()->pb.setProgress(k));
                 }
+                DirListingCache.invalidateTree(baseDir); // renamed subfolders too
                 int renamedItems = itemsToRename;
                 activity.runOnUiThread(()->{
                     dismiss();
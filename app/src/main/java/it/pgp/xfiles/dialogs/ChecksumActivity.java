@@ -41,6 +41,7 @@ import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.R;
 import it.pgp.xfiles.adapters.HashAlgorithmsAdapter;
 import it.pgp.xfiles.roothelperclient.HashRequestCodes;
+import it.pgp.xfiles.utils.ChecksumScheduler;
 import it.pgp.xfiles.utils.FileOperationHelper;
 import it.pgp.xfiles.utils.FileSaveFragment;
 import it.pgp.xfiles.utils.Misc;
@@ -92,7 +93,7 @@ public class ChecksumActivity extends EffectActivity implements FileSaveFragment
         super.onCreate(savedInstanceState);
         clipboard = (ClipboardManager) getSystemService(Context.CLIPBOARD_SERVICE);
 
-        // parent dir passed as BasePathContent, valid for both local and XRE paths
+        // parent dir passed as BasePathContent, valid for local, XRE and SFTP paths
         BrowserItem singleFile = (BrowserItem) getIntent().getSerializableExtra("browseritem");
         if (singleFile == null)
             files = MainActivity.mainActivity.getCurrentBrowserAdapter().getSelectedItems();
@@ -239,11 +240,13 @@ public class ChecksumActivity extends EffectActivity implements FileSaveFragment
     }
 
     private boolean checksumInterrupted = false;
+    private ChecksumScheduler checksumScheduler;
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
         checksumInterrupted = true;
+        if (checksumScheduler != null) checksumScheduler.cancel();
         HashRequestCodes.clear();
     }
 
@@ -261,18 +264,22 @@ public class ChecksumActivity extends EffectActivity implements FileSaveFragment
             standardResultsLayout.removeAllViews();
         }
 
-        private byte[] computeHashForLocalOrXREPaths(BasePathContent path, HashRequestCodes s, FileOperationHelper helper) throws IOException {
+        // all selected digests of path, the file is read once
+        private Map<HashRequestCodes,byte[]> computeHashes(BasePathContent path, FileOperationHelper helper) throws IOException {
             switch (path.providerType) {
                 case LOCAL:
                 case XFILES_REMOTE:
+                case SFTP: // regular files only, hashed remotely when possible
                     BitSet dirHashOpts = new BitSet(4);
                     dirHashOpts.set(0,dirHashWithNames.isChecked());
                     dirHashOpts.set(1,dirHashIgnoreThumbsFiles.isChecked());
                     dirHashOpts.set(2,dirHashIgnoreUnixHiddenFiles.isChecked());
                     dirHashOpts.set(3,dirHashIgnoreEmptyDirs.isChecked());
-                    return helper.hashFile(path,s,dirHashOpts);
+                    Map<HashRequestCodes,byte[]> digests = helper.hashFile(path,selectedHashAlgorithms,dirHashOpts);
+                    if (digests == null) throw new IOException("Unable to hash "+path);
+                    return digests;
                 default:
-                    throw new RuntimeException("Only local and XRE paths allowed for hashing");
+                    throw new RuntimeException("Only local, XRE and SFTP paths allowed for hashing");
             }
         }
 
@@ -281,8 +288,7 @@ public class ChecksumActivity extends EffectActivity implements FileSaveFragment
             hashMatrix = new ArrayList<>();
             final int[][] tvBackground = new int[][]{{Color.DKGRAY,Color.BLUE},{Color.RED,Color.GRAY}};
 
-            // TODO restructure hash request in RH protocol, allow multiple hashes per multiple files
-            // then, make the RH task cancellable via another sub-request type (like in FindUpdatesThread)
+            // TODO make the RH task cancellable via another sub-request type (like in FindUpdatesThread)
             int i=0, j=0;
             try {
                 if(!someSelection) return null;
@@ -291,20 +297,19 @@ public class ChecksumActivity extends EffectActivity implements FileSaveFragment
                     hashMatrix.add(lhtv);
                     BasePathContent file = parentDir.concat(files.get(0).getFilename());
                     FileOperationHelper helper = MainActivity.mainActivity.getFileOpsHelper(file.providerType);
+                    Map<HashRequestCodes,byte[]> digests = computeHashes(file, helper);
+                    if (checksumInterrupted) {
+                        MainActivity.showToast("Checksum task interrupted");
+                        return null;
+                    }
                     for (HashRequestCodes s : selectedHashAlgorithms) {
-                        if (checksumInterrupted) {
-                            MainActivity.showToast("Checksum task interrupted");
-                            return null;
-                        }
                         TableRow tr = new TableRow(ChecksumActivity.this);
                         runOnUiThread(()->standardResultsLayout.addView(tr));
 
-                        byte[] digest = computeHashForLocalOrXREPaths(file,s, helper);
-
                         // run on UI thread
                         HashTextView t = new HashTextView(
                                 ChecksumActivity.this,
-                                Misc.toHexString(digest),
+                                Misc.toHexString(digests.get(s)),
                                 file.getName(), s);
 
                         t.setBackgroundColor(tvBackground[i][j++%2]);
@@ -313,35 +318,57 @@ public class ChecksumActivity extends EffectActivity implements FileSaveFragment
                         runOnUiThread(()->tr.addView(t));
                     }
                 }
-                else for (BrowserItem file : files) { // files on rows
-                    TableRow tr = new TableRow(ChecksumActivity.this);
-                    List<HashTextView> lhtv = new ArrayList<>();
-                    hashMatrix.add(lhtv);
-                    runOnUiThread(()->standardResultsLayout.addView(tr));
-                    BasePathContent file1 = parentDir.concat(file.getFilename());
-                    FileOperationHelper helper = MainActivity.mainActivity.getFileOpsHelper(file1.providerType);
-
-                    for (HashRequestCodes s : selectedHashAlgorithms) {
-                        if (checksumInterrupted) {
-                            MainActivity.showToast("Checksum task interrupted");
-                            return null;
-                        }
-
-                        byte[] digest = computeHashForLocalOrXREPaths(file1, s, helper);
-
-                        // run on UI thread
-                        HashTextView t = new HashTextView(
-                                ChecksumActivity.this,
-                                Misc.toHexString(digest),
-                                file.getFilename(), s);
-
-                        t.setBackgroundColor(tvBackground[i][j++%2]);
-                        registerForContextMenu(t);
-                        lhtv.add(t);
-                        runOnUiThread(()->tr.addView(t));
-
+                else { // files on rows, hashed in parallel
+                    // rows are laid out in selection order in advance, and filled as results arrive
+                    List<BasePathContent> paths = new ArrayList<>();
+                    long[] sizes = new long[files.size()];
+                    List<TableRow> rows = new ArrayList<>();
+                    for (int k=0; k<files.size(); k++) {
+                        BrowserItem file = files.get(k);
+                        paths.add(parentDir.concat(file.getFilename()));
+                        sizes[k] = file.isDirectory ? 0 : file.size;
+                        TableRow tr = new TableRow(ChecksumActivity.this);
+                        rows.add(tr);
+                        hashMatrix.add(new ArrayList<>());
+                        runOnUiThread(()->standardResultsLayout.addView(tr));
                     }
-                    i=(i+1)%2;
+
+                    FileOperationHelper helper = MainActivity.mainActivity.getFileOpsHelper(parentDir.providerType);
+                    boolean[] errorShown = {false};
+                    checksumScheduler = new ChecksumScheduler(
+                            path -> computeHashes(path, helper),
+                            (index, digests, error) -> {
+                                String filename = files.get(index).getFilename();
+                                List<HashTextView> lhtv = hashMatrix.get(index);
+                                TableRow tr = rows.get(index);
+                                int col = 0;
+                                for (HashRequestCodes s : selectedHashAlgorithms) {
+                                    HashTextView t = new HashTextView(
+                                            ChecksumActivity.this,
+                                            error == null ? Misc.toHexString(digests.get(s)) : "error",
+                                            filename, s);
+                                    t.setBackgroundColor(tvBackground[index%2][(index*selectedHashAlgorithms.size()+col++)%2]);
+                                    // run on UI thread, rows of hashMatrix are only modified there
+                                    runOnUiThread(()->{
+                                        registerForContextMenu(t);
+                                        lhtv.add(t);
+                                        tr.addView(t);
+                                    });
+                                }
+                                if (error != null) {
+                                    error.printStackTrace();
+                                    if (!errorShown[0]) {
+                                        errorShown[0] = true;
+                                        MainActivity.showToast("Error during checksum computation");
+                                    }
+                                }
+                                String progress = "Checksum ("+checksumScheduler.getCompletedFiles()+"/"+files.size()+
+                                        ", "+String.format("%.1f",checksumScheduler.getFilesPerSecond())+" files/s, "+
+                                        String.format("%.1f",checksumScheduler.getMBPerSecond())+" MB/s)";
+                                runOnUiThread(()->setTitle(progress));
+                            });
+                    checksumScheduler.run(paths,sizes);
+                    if (checksumInterrupted) MainActivity.showToast("Checksum task interrupted");
                 }
             }
             catch (Exception e) {
@@ -397,6 +424,7 @@ public class ChecksumActivity extends EffectActivity implements FileSaveFragment
             }});
 
             for(List<HashTextView> lhtv : hashMatrix) {
+                if (lhtv.isEmpty()) continue; // not hashed yet
                 Misc.csvWriteRow(o,new ArrayList(){{
                     // by construction, lhtv contains hashes for the same filename
                     add(""+lhtv.get(0).filename);
@@ -414,6 +442,7 @@ public class ChecksumActivity extends EffectActivity implements FileSaveFragment
     public void exportToJSON(String absolutePath, String fileNameWithExt) {
         List l = new ArrayList();
         for(List<HashTextView> lhtv : hashMatrix) {
+            if (lhtv.isEmpty()) continue; // not hashed yet
             Map m = new HashMap();
             Map n = new HashMap();
             for(HashTextView htv : lhtv) {
@@ -22,6 +22,7 @@ import it.pgp.xfiles.R;
 import it.pgp.xfiles.adapters.BrowserAdapter;
 import it.pgp.xfiles.enums.FileMode;
 import it.pgp.xfiles.items.FileCreationAdvancedOptions;
+import it.pgp.xfiles.utils.DirListingCache;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 import it.pgp.xfiles.utils.pathcontent.SFTPPathContent;
 import it.pgp.xfiles.utils.popupwindow.PopupWindowUtils;
@@ -135,6 +136,7 @@ public class CreateFileOrDirectoryDialog extends BaseDialog implements Runnable
             nameToLocate.clear();
         }
         finally {
+            DirListingCache.invalidateParentOf(f);
             mainActivity.runOnUiThread(()->{
                 mainActivity.browserPagerAdapter.showDirContent(
                         mainActivity.getCurrentDirCommander().refresh(),
@@ -148,6 +150,7 @@ public class CreateFileOrDirectoryDialog extends BaseDialog implements Runnable
     public static boolean doCreate(MainActivity mainActivity, BasePathContent ff, FileMode type) {
         try {
             mainActivity.getFileOpsHelper(ff.providerType).createFileOrDirectory(ff,type);
+            DirListingCache.invalidateParentOf(ff);
             MainActivity.showToast(type.name().toLowerCase()+" created");
             return true;
         }
@@ -11,6 +11,7 @@ import java.io.IOException;
 import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.R;
 import it.pgp.xfiles.enums.FileMode;
+import it.pgp.xfiles.utils.DirListingCache;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 
 public class CreateLinkDialog extends BaseDialog {
@@ -55,6 +56,7 @@ public class CreateLinkDialog extends BaseDialog {
 
         try {
             mainActivity.getFileOpsHelper(originPath.providerType).createLink(originPath,linkPath,isHardLink.isChecked());
+            DirListingCache.invalidateParentOf(linkPath);
             Toast.makeText(mainActivity, "Link created", Toast.LENGTH_SHORT).show();
             mainActivity.browserPagerAdapter.showDirContent(
                     mainActivity.getCurrentDirCommander().refresh(),
@@ -3,6 +3,7 @@ package it.pgp.xfiles.dialogs;
 import android.app.Activity;
 import android.app.Dialog;
 import android.support.annotation.NonNull;
+import android.text.format.Formatter;
 import android.view.View;
 import android.view.Window;
 import android.widget.Button;
@@ -21,6 +22,7 @@ import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.R;
 import it.pgp.xfiles.fileservers.FileServer;
 import it.pgp.xfiles.fileservers.SimpleFileServer;
+import it.pgp.xfiles.fileservers.TrafficControl;
 import it.pgp.xfiles.roothelperclient.RHSSServerStatus;
 import it.pgp.xfiles.roothelperclient.RemoteServerManager;
 import it.pgp.xfiles.utils.Misc;
@@ -61,6 +63,7 @@ public class RemoteRHServerManagementDialog extends Dialog {
         private final ImageButton rhss_status_button;
 
         private final boolean[] state = new boolean[3]; // FTP, HTTP, XRE (first two are FileServer enum values)
+        private final String[] trafficSummary = new String[2]; // FTP, HTTP; null if no active session
 
         private boolean anyOn() {
             boolean res = false;
@@ -85,7 +88,10 @@ public class RemoteRHServerManagementDialog extends Dialog {
 
         private void updateViews(Pair<Integer, Boolean> on) {
             activity.runOnUiThread(()->{
-                rhssIPAddresses.setText(anyOn()?NetworkUtils.getInterfaceAddressesAsString():"");
+                StringBuilder addresses = new StringBuilder(anyOn()?NetworkUtils.getInterfaceAddressesAsString():"");
+                for (String t : trafficSummary)
+                    if (t != null) addresses.append("\n").append(t);
+                rhssIPAddresses.setText(addresses.toString());
 
                 if(on==null) { // on dialog constructor, set all views
                     ftpServerButton.setTextColor(activity.getResources().getColor(state[0]? R.color.green:R.color.red));
@@ -108,6 +114,14 @@ public class RemoteRHServerManagementDialog extends Dialog {
 
         @Override
         public void update(Observable o, Object arg) {
+            if (arg instanceof TrafficControl.Stats) {
+                TrafficControl.Stats stats = (TrafficControl.Stats) arg;
+                trafficSummary[o == FileServer.FTP.server ? 0 : 1] = stats.activeSessions == 0 ? null :
+                        (o == FileServer.FTP.server ? "FTP" : "HTTP")+": "+stats.activeSessions+" sessions, "+
+                                Formatter.formatFileSize(activity,stats.getTotalRate())+"/s";
+                updateViews(null);
+                return;
+            }
             Pair<Integer, Boolean> on = (Pair) arg;
             state[on.i] = on.j;
             updateViews(on);
@@ -16,6 +16,7 @@ import it.pgp.xfiles.BrowserItem;
 import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.R;
 import it.pgp.xfiles.adapters.BrowserAdapter;
+import it.pgp.xfiles.utils.DirListingCache;
 import it.pgp.xfiles.utils.Misc;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 import it.pgp.xfiles.utils.popupwindow.PopupWindowUtils;
@@ -50,6 +51,8 @@ public class RenameDialog extends ImmersiveModeDialog {
 
         try {
             ok = mainActivity.getFileOpsHelper(f.providerType).renameFile(f,ff);
+            DirListingCache.invalidateParentOf(f);
+            DirListingCache.invalidateParentOf(ff);
             Toast.makeText(mainActivity, ok?"Renamed":"Error renaming item", Toast.LENGTH_SHORT).show();
         }
         catch (IOException e) {
@@ -111,7 +114,7 @@ public class RenameDialog extends ImmersiveModeDialog {
 
             if(f!=null && et!=null)
                 if(doRename(mainActivity,f,f.getParent().concat(et.getText().toString()))) {
-                    b.filename = et.getText().toString();
+                    b.setFilename(et.getText().toString());
 //                tv.setText(b.filename);
                     ba.notifyDataSetChanged();
                 }
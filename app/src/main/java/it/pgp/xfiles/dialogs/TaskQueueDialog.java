@@ -0,0 +1,127 @@
+package it.pgp.xfiles.dialogs;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.Context;
+import android.content.Intent;
+import android.view.Window;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.ListView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import it.pgp.xfiles.EffectActivity;
+import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.R;
+import it.pgp.xfiles.service.BaseBackgroundService;
+import it.pgp.xfiles.service.TaskScheduler;
+import it.pgp.xfiles.service.visualization.ViewType;
+
+/**
+ * Combined view of running and waiting background tasks, with progress, refreshed while shown
+ */
+
+public class TaskQueueDialog extends Dialog {
+
+    public static final int REFRESH_INTERVAL = 500;
+
+    final Context context;
+    final ListView listView;
+    final Button pauseButton;
+    final ArrayAdapter<String> adapter;
+    List<TaskScheduler.Entry> entries = new ArrayList<>();
+
+    private final Runnable refresher = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            MainActivity.handler.postDelayed(this,REFRESH_INTERVAL);
+        }
+    };
+
+    public TaskQueueDialog(Context context) {
+        super(context);
+        requestWindowFeature(Window.FEATURE_NO_TITLE);
+        this.context = context;
+        setContentView(R.layout.task_queue_dialog);
+        setOnShowListener(d->{
+            EffectActivity.currentlyOnFocus = d;
+            refresher.run();
+        });
+        setOnDismissListener(d->{
+            MainActivity.handler.removeCallbacks(refresher);
+            EffectActivity.currentlyOnFocus = MainActivity.mainActivity;
+        });
+
+        listView = findViewById(R.id.task_queue_listview);
+        pauseButton = findViewById(R.id.task_queue_pause_button);
+        adapter = new ArrayAdapter<>(context,android.R.layout.simple_list_item_1);
+        listView.setAdapter(adapter);
+        listView.setOnItemClickListener((parent, view, position, id) -> showActions(entries.get(position)));
+
+        pauseButton.setOnClickListener(v->{
+            TaskScheduler.setPaused(!TaskScheduler.isPaused());
+            refresh();
+        });
+    }
+
+    // from a service context (tap on a progress ribbon)
+    public static void showOverlay(Context context) {
+        TaskQueueDialog d = new TaskQueueDialog(context);
+        d.getWindow().setType(ViewType.OVERLAY_WINDOW_TYPE);
+        d.show();
+    }
+
+    private void refresh() {
+        entries = TaskScheduler.getEntries();
+        adapter.clear();
+        for (TaskScheduler.Entry e : entries) {
+            String state;
+            if (e.isRunning())
+                state = e.total > 0 ? Math.round(e.progress * 100.0 / e.total)+"%" : "running";
+            else state = e.held ? "held" : "waiting";
+            adapter.add(e.getLabel()+" - "+state);
+        }
+        adapter.notifyDataSetChanged();
+        pauseButton.setText(TaskScheduler.isPaused() ? "Resume queue" : "Pause queue");
+    }
+
+    private void sendToService(TaskScheduler.Entry e, String action) {
+        try {
+            Intent i = new Intent(context,Class.forName(e.serviceClass));
+            i.setAction(action);
+            context.startService(i);
+        }
+        catch (ClassNotFoundException ignored) {}
+    }
+
+    private void showActions(TaskScheduler.Entry e) {
+        List<String> labels = new ArrayList<>();
+        List<Runnable> actions = new ArrayList<>();
+        if (e.isRunning()) {
+            labels.add("Pause");
+            actions.add(()->sendToService(e,BaseBackgroundService.PAUSE_ACTION));
+            labels.add("Cancel");
+            actions.add(()->sendToService(e,BaseBackgroundService.CANCEL_ACTION));
+        }
+        else {
+            labels.add(e.held ? "Resume" : "Hold");
+            actions.add(()->TaskScheduler.setHeld(e,!e.held));
+            labels.add("Move to top");
+            actions.add(()->TaskScheduler.moveToTop(e));
+            labels.add("Remove");
+            actions.add(()->TaskScheduler.remove(e));
+        }
+        AlertDialog.Builder bld = new AlertDialog.Builder(context);
+        bld.setTitle(e.getLabel());
+        bld.setItems(labels.toArray(new String[0]), (dialog, which) -> {
+            actions.get(which).run();
+            refresh();
+        });
+        AlertDialog alertDialog = bld.create();
+        alertDialog.getWindow().setType(getWindow().getAttributes().type);
+        alertDialog.show();
+    }
+}
@@ -13,6 +13,7 @@ public enum FileOpsErrorCodes {
     NOT_IMPLEMENTED("Not implemented"),
     ILLEGAL_ARGUMENT("Illegal argument"),
     CURRENT_DIR_NO_LONGER_AVAILABLE("Current directory no longer available"),
+    LISTING_CANCELLED("Listing cancelled"), // streamed listing stopped by its listener
 
     TRANSFER_ERROR(""), // generic copy error (read/write error)
     TRANSFER_CANCELLED(""), // transfer explicitly cancelled by user
@@ -0,0 +1,615 @@
+package it.pgp.xfiles.fileservers;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.io.BufferPool;
+import it.pgp.xfiles.io.ChunkedOutputStream;
+import it.pgp.xfiles.roothelperclient.resps.batchStats_resp;
+import it.pgp.xfiles.utils.LRUSizedCache;
+import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
+import it.pgp.xfiles.utils.pathcontent.LocalPathContent;
+
+/**
+ * HTTP/1.1 session over one client connection, run by a worker of {@link SimpleHTTPServer}
+ *
+ * Serves GET and HEAD requests over a persistent connection, until the client asks to close it,
+ * stays idle for {@link #KEEPALIVE_TIMEOUT_MS} or has sent {@link #MAX_REQUESTS} requests.
+ * Files support single byte ranges (206 Partial Content), so that media players can seek.
+ * Files readable by the app are sent with {@link FileChannel#transferTo} (sendfile, no copy through the Java heap),
+ * root-only ones through the roothelper proxy stream.
+ *
+ * Directory listing adapted from:
+ * http://cs.au.dk/~amoeller/WWW/examples/FileServer.java
+ */
+
+public class HTTPSession implements Runnable {
+
+    public static final int KEEPALIVE_TIMEOUT_MS = 15000;
+    public static final int MAX_REQUESTS = 100;
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final String SERVER = "SimpleHTTPServer 1.1";
+
+    // special content lengths for sendHeaders
+    private static final long CHUNKED = -2;
+    private static final long NO_BODY = -3; // 304
+
+    private static final int INDEX_CHUNK_SIZE = 16384;
+    private static final long SHAPED_SLICE = 65536;
+    private static final int MAX_CACHED_INDEX = 1024*1024;
+    // a directory modified within this interval may still change within the same mtime second
+    private static final long MTIME_SETTLE_MS = 2000;
+
+    // rendered html indexes, keyed by directory path, valid while the directory mtime is unchanged
+    private static final LRUSizedCache<String,byte[]> indexCache = new LRUSizedCache<>(4*1024*1024, b -> b.length);
+
+    private final Set<Socket> clientConnections;
+    private final SocketChannel channel;
+    private final Socket connection;
+    private final String wwwhome;
+    private final TrafficControl.Session session;
+
+    private InputStream in;
+    private OutputStream out;
+    private boolean keepAlive;
+    private boolean http11;
+
+    private static String getHeader(String path) {
+        return "<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.01//EN\" \"http://www.w3.org/TR/html4/strict.dtd\">\n"+
+                "<html>\n" +
+                "<head>\n" +
+                "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=utf-8\">\n" +
+                "<title>Directory listing for "+Misc.escapeHtml(path)+"</title>\n" +
+                "</head>\n" +
+                "<body>\n" +
+                "<h1>Directory listing for "+Misc.escapeHtml(path)+"</h1>\n" +
+                "<hr>\n" +
+                "<ul>\n";
+    }
+
+    private static final String footer = "</ul>\n" +
+            "<hr>\n" +
+            "</body>\n" +
+            "</html>";
+
+    // html dir listing output copied from python3 http.server module
+    private static String htmlEntry(String name, boolean isDir) throws UnsupportedEncodingException {
+        String dirTermination = isDir?"/":"";
+        return "<li><a href=\"" +
+                URLEncoder.encode(name, "UTF-8").replace("+","%20") + dirTermination +
+                "\">" +
+                Misc.escapeHtml(name) + dirTermination +
+                "</a></li>\n";
+    }
+
+    private static String jsonQuote(String s) {
+        StringBuilder sb = new StringBuilder(s.length()+2).append('"');
+        for (int k=0; k<s.length(); k++) {
+            char c = s.charAt(k);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x",(int)c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String jsonEntry(String name, boolean isDir, long size, long mtime) {
+        return "{\"name\":"+jsonQuote(name)+
+                ",\"dir\":"+isDir+
+                ",\"size\":"+size+
+                ",\"mtime\":"+mtime+"}";
+    }
+
+    private static String guessContentType(String path)
+    {
+        String p = path.toLowerCase();
+        if (p.endsWith(".html") || p.endsWith(".htm"))
+            return "text/html";
+        else if (p.endsWith(".txt") || p.endsWith(".java"))
+            return "text/plain";
+        else if (p.endsWith(".gif"))
+            return "image/gif";
+        else if (p.endsWith(".jpg") || p.endsWith(".jpeg"))
+            return "image/jpeg";
+        else if (p.endsWith(".png"))
+            return "image/png";
+        else if (p.endsWith(".mp4") || p.endsWith(".m4v"))
+            return "video/mp4";
+        else if (p.endsWith(".mkv"))
+            return "video/x-matroska";
+        else if (p.endsWith(".webm"))
+            return "video/webm";
+        else if (p.endsWith(".mp3"))
+            return "audio/mpeg";
+        else if (p.endsWith(".pdf"))
+            return "application/pdf";
+        else
+            return "application/octet-stream";
+    }
+
+    private static String httpDate(long millis) {
+        SimpleDateFormat f = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        f.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return f.format(new Date(millis));
+    }
+
+    private void log(String msg)
+    {
+        Log.d(HTTPSession.class.getName(), "[" + connection.getInetAddress().getHostAddress() + ":" + connection.getPort() + "] " + msg);
+    }
+
+    public HTTPSession(SocketChannel channel, String wwwhome, Set<Socket> clientConnections, TrafficControl.Session session) {
+        this.clientConnections = clientConnections; // just to remove itself from the set when this session ends
+        this.channel = channel;
+        this.connection = channel.socket();
+        this.wwwhome = wwwhome;
+        this.session = session;
+    }
+
+    // request and header lines are ISO-8859-1, null on EOF
+    private String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for(;;) {
+            int c = in.read();
+            if (c < 0) return sb.length() == 0 ? null : sb.toString();
+            if (c == '\n') break;
+            if (c != '\r') sb.append((char)c);
+            if (sb.length() > MAX_LINE_LENGTH) throw new IOException("Request line too long");
+        }
+        return sb.toString();
+    }
+
+    private void sendHeaders(String status, String contentType, long contentLength, String... extraHeaders) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTTP/1.1 ").append(status).append("\r\n");
+        sb.append("Date: ").append(httpDate(System.currentTimeMillis())).append("\r\n");
+        sb.append("Server: ").append(SERVER).append("\r\n");
+        if (contentType != null) sb.append("Content-Type: ").append(contentType).append("\r\n");
+        if (contentLength >= 0) sb.append("Content-Length: ").append(contentLength).append("\r\n");
+        else if (contentLength == CHUNKED) sb.append("Transfer-Encoding: chunked\r\n");
+        else if (contentLength != NO_BODY) keepAlive = false; // body delimited by connection close
+        for (String h : extraHeaders) sb.append(h).append("\r\n");
+        sb.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n");
+        sb.append("\r\n");
+        out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private void sendBody(boolean isHead, byte[] body) throws IOException {
+        if (!isHead) out.write(body);
+    }
+
+    private void errorReport(boolean isHead, String code, String title, String msg, String... extraHeaders) throws IOException
+    {
+        byte[] body = ("<!DOCTYPE HTML PUBLIC \"-//IETF//DTD HTML 2.0//EN\">\r\n" +
+                "<TITLE>" + code + " " + title + "</TITLE>\r\n" +
+                "</HEAD><BODY>\r\n" +
+                "<H1>" + title + "</H1>\r\n" + msg + "<P>\r\n" +
+                "<HR><ADDRESS>" + SERVER + " at " +
+                connection.getLocalAddress().getHostName() +
+                " Port " + connection.getLocalPort() + "</ADDRESS>\r\n" +
+                "</BODY></HTML>\r\n").getBytes(StandardCharsets.UTF_8);
+        sendHeaders(code + " " + title, "text/html", body.length, extraHeaders);
+        sendBody(isHead,body);
+        log(code + " " + title);
+    }
+
+    /**
+     * Parses a Range header against the file length
+     * @return {start, end} inclusive, null to serve the whole file (no range, or unsupported multi-range),
+     * {-1, -1} if unsatisfiable
+     */
+    static long[] parseRange(String range, long length) {
+        if (range == null || length < 0 || !range.startsWith("bytes=")) return null;
+        String spec = range.substring(6).trim();
+        if (spec.contains(",")) return null;
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            String a = spec.substring(0,dash).trim();
+            String b = spec.substring(dash+1).trim();
+            long start, end;
+            if (a.isEmpty()) { // suffix: last b bytes
+                long n = Long.parseLong(b);
+                if (n <= 0) return new long[]{-1,-1};
+                start = Math.max(0,length-n);
+                end = length-1;
+            }
+            else {
+                start = Long.parseLong(a);
+                end = b.isEmpty() ? length-1 : Math.min(Long.parseLong(b),length-1);
+                if (end < start) return b.isEmpty() || start >= length ? new long[]{-1,-1} : null;
+            }
+            if (start >= length) return new long[]{-1,-1};
+            return new long[]{start,end};
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // bypasses the shaped output stream, so bytes are accounted here (in small slices if rate limited)
+    private void sendFileRange(FileChannel fc, long start, long count) throws IOException {
+        long sent = 0;
+        while (sent < count) {
+            long slice = TrafficControl.isShaping() ? Math.min(SHAPED_SLICE,count-sent) : count-sent;
+            long n = fc.transferTo(start+sent,slice,channel);
+            if (n <= 0) throw new IOException("Unexpected end of file");
+            sent += n;
+            session.consume(n);
+        }
+    }
+
+    private void sendStreamRange(InputStream i, long start, long count) throws IOException {
+        long skipped = 0;
+        while (skipped < start) {
+            long n = i.skip(start-skipped);
+            if (n <= 0) throw new IOException("Unexpected end of file");
+            skipped += n;
+        }
+        byte[] buffer = BufferPool.acquire();
+        try {
+            long remaining = count;
+            while (remaining != 0) {
+                int len = remaining < 0 ? buffer.length : (int)Math.min(buffer.length,remaining);
+                int readBytes = i.read(buffer,0,len);
+                if (readBytes <= 0) {
+                    if (remaining > 0) throw new IOException("Unexpected end of file");
+                    break;
+                }
+                out.write(buffer,0,readBytes);
+                if (remaining > 0) remaining -= readBytes;
+            }
+        }
+        finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Streams a directory index as entries are produced (chunked for HTTP/1.1 clients),
+     * headers and prologue are sent with the first entry, so that a failed listing can still be answered with an error
+     */
+    private class IndexResponse {
+        private final boolean json;
+        private final String subpath;
+        private final String[] validators;
+        private ChunkedOutputStream body;
+        private ByteArrayOutputStream copy; // for indexCache, null if not cacheable
+        private boolean first = true;
+
+        IndexResponse(boolean json, String subpath, boolean cacheable, String[] validators) {
+            this.json = json;
+            this.subpath = subpath;
+            this.validators = validators;
+            if (cacheable) copy = new ByteArrayOutputStream();
+        }
+
+        private void write(String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            body.write(b);
+            if (copy != null) {
+                if (copy.size() + b.length > MAX_CACHED_INDEX) copy = null;
+                else copy.write(b);
+            }
+        }
+
+        void begin() throws IOException {
+            if (body != null) return;
+            sendHeaders("200 OK", json ? "application/json; charset=utf-8" : "text/html; charset=utf-8",
+                    http11 ? CHUNKED : -1, validators);
+            body = new ChunkedOutputStream(out,http11,INDEX_CHUNK_SIZE);
+            write(json ? "[" : getHeader(subpath));
+        }
+
+        void entry(String name, boolean isDir, long size, long mtime) throws IOException {
+            begin();
+            write(json ? (first ? "" : ",") + jsonEntry(name,isDir,size,mtime) : htmlEntry(name,isDir));
+            first = false;
+        }
+
+        // @return the whole rendered index, if cacheable
+        byte[] end() throws IOException {
+            begin();
+            write(json ? "]" : footer);
+            body.close();
+            return copy == null ? null : copy.toByteArray();
+        }
+    }
+
+    private static boolean notModified(String etag, long mtime, String ifNoneMatch, String ifModifiedSince) {
+        if (ifNoneMatch != null)
+            return ifNoneMatch.trim().equals("*") || Arrays.asList(ifNoneMatch.split("\\s*,\\s*")).contains(etag);
+        if (ifModifiedSince != null) {
+            try {
+                SimpleDateFormat f = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+                f.setTimeZone(TimeZone.getTimeZone("GMT"));
+                return mtime/1000 <= f.parse(ifModifiedSince).getTime()/1000;
+            }
+            catch (ParseException ignored) {}
+        }
+        return false;
+    }
+
+    /**
+     * Directory index, html or json; html indexes are cached by directory path and mtime,
+     * and carry ETag and Last-Modified validators for conditional requests
+     */
+    private void serveDir(boolean isHead, boolean json, String path, String subpath, LocalPathContent lpc,
+                          String ifNoneMatch, String ifModifiedSince) throws IOException {
+        File dir = new File(path);
+        long mtime = dir.lastModified(); // 0 if not accessible in-app, no validators then
+        boolean cacheable = !json && mtime > 0 && System.currentTimeMillis() - mtime > MTIME_SETTLE_MS;
+        String etag = "W/\""+Long.toHexString(mtime)+"\"";
+        String[] validators = cacheable ?
+                new String[]{"ETag: "+etag, "Last-Modified: "+httpDate(mtime)} :
+                new String[0];
+
+        if (cacheable) {
+            if (notModified(etag,mtime,ifNoneMatch,ifModifiedSince)) {
+                sendHeaders("304 Not Modified", null, NO_BODY, validators);
+                log("304 Not Modified");
+                return;
+            }
+            byte[] cached = indexCache.getByPath(path,new Date(mtime));
+            if (cached != null) {
+                sendHeaders("200 OK", "text/html; charset=utf-8", cached.length, validators);
+                sendBody(isHead,cached);
+                log("200 cached index");
+                return;
+            }
+        }
+        if (isHead) {
+            sendHeaders("200 OK", json ? "application/json; charset=utf-8" : "text/html; charset=utf-8",
+                    http11 ? CHUNKED : -1, validators);
+            return;
+        }
+
+        IndexResponse r = new IndexResponse(json,subpath,cacheable,validators);
+
+        // 1st attempt, Java: names are sorted, and entries rendered one by one
+        String[] names = dir.list();
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                File f = new File(dir,name);
+                boolean isDir = f.isDirectory();
+                r.entry(name,isDir,json && !isDir ? f.length() : 0,json ? f.lastModified() : 0);
+            }
+        }
+        else {
+            // 2nd attempt, via RH: entries rendered in provider order, one listing chunk at a time
+            Log.e("serveDir","Unable to list "+path+" in-app, trying with roothelper...");
+            IOException[] writeError = {null};
+            GenericDirWithContent gdwc = MainActivity.requireRootHelperClient().listDirectory(lpc, chunk -> {
+                try {
+                    for (BrowserItem f : chunk)
+                        r.entry(f.getFilename(),f.isDirectory,f.isDirectory ? 0 : f.size,f.dateMillis);
+                    return true;
+                }
+                catch (IOException e) {
+                    writeError[0] = e;
+                    return false;
+                }
+            });
+            if (writeError[0] != null) throw writeError[0];
+            if (gdwc.errorCode != null && r.first) {
+                errorReport(false, "404", "Not Found",
+                        "The requested URL was not found on this server.");
+                return;
+            }
+        }
+
+        byte[] rendered = r.end();
+        if (rendered != null) indexCache.setLatest(path,rendered,new Date(mtime));
+        log("200 index");
+    }
+
+    private void serveFile(boolean isHead, String path, long contentLength, String rangeHeader) throws IOException {
+        FileInputStream fis = null;
+        InputStream rhStream = null;
+        try {
+            try {
+                fis = new FileInputStream(path);
+            }
+            catch (IOException e) {
+                // root-only file, fall back to roothelper proxy stream
+                try {
+                    rhStream = MainActivity.getRootHelperClient().getInputStream(path);
+                }
+                catch (Exception e1) {
+                    Log.e("HTTPSession", "Unable to open "+path, e1);
+                    errorReport(isHead, "404", "Not Found",
+                            "The requested URL was not found on this server.");
+                    return;
+                }
+            }
+            if (fis != null) contentLength = fis.getChannel().size();
+
+            long[] range = parseRange(rangeHeader,contentLength);
+            if (range != null && range[0] < 0) {
+                errorReport(isHead, "416", "Range Not Satisfiable",
+                        "The requested range is not satisfiable.",
+                        "Content-Range: bytes */"+contentLength);
+                return;
+            }
+            long start = range == null ? 0 : range[0];
+            long count = range == null ? contentLength : range[1]-range[0]+1;
+            if (range == null)
+                sendHeaders("200 OK", guessContentType(path), contentLength,
+                        "Accept-Ranges: bytes");
+            else
+                sendHeaders("206 Partial Content", guessContentType(path), count,
+                        "Accept-Ranges: bytes",
+                        "Content-Range: bytes "+range[0]+"-"+range[1]+"/"+contentLength);
+
+            if (!isHead) {
+                if (fis != null) sendFileRange(fis.getChannel(),start,count);
+                else sendStreamRange(rhStream,start,count);
+            }
+            log((range == null ? "200" : "206")+" "+(fis != null ? "direct" : "roothelper"));
+        }
+        finally {
+            if (fis != null) try {fis.close();} catch (IOException ignored) {}
+            if (rhStream != null) try {rhStream.close();} catch (IOException ignored) {}
+        }
+    }
+
+    // @return false if the connection has to be closed
+    private boolean serveRequest() throws IOException {
+        String request = readLine();
+        if (request == null) return false;
+        log(request);
+        long start = System.currentTimeMillis();
+        try {
+            return serveRequest(request);
+        }
+        finally {
+            session.recordLatency(System.currentTimeMillis()-start);
+        }
+    }
+
+    private boolean serveRequest(String request) throws IOException {
+        String rangeHeader = null;
+        String connectionHeader = null;
+        String ifNoneMatch = null;
+        String ifModifiedSince = null;
+        for(;;) {
+            String h = readLine();
+            if (h == null) return false;
+            if (h.isEmpty()) break;
+            int colon = h.indexOf(':');
+            if (colon <= 0) continue;
+            String name = h.substring(0,colon).trim();
+            String value = h.substring(colon+1).trim();
+            if (name.equalsIgnoreCase("Range")) rangeHeader = value;
+            else if (name.equalsIgnoreCase("Connection")) connectionHeader = value.toLowerCase();
+            else if (name.equalsIgnoreCase("If-None-Match")) ifNoneMatch = value;
+            else if (name.equalsIgnoreCase("If-Modified-Since")) ifModifiedSince = value;
+        }
+
+        String[] parts = request.split(" ");
+        if (parts.length != 3 || !parts[2].startsWith("HTTP/1.")) {
+            keepAlive = false;
+            errorReport(false, "400", "Bad Request",
+                    "Your browser sent a request that " +
+                            "this server could not understand.");
+            return false;
+        }
+        String method = parts[0];
+        boolean isHead = method.equals("HEAD");
+        http11 = !parts[2].equals("HTTP/1.0");
+        keepAlive = !http11 ?
+                "keep-alive".equals(connectionHeader) :
+                !"close".equals(connectionHeader);
+
+        if (!isHead && !method.equals("GET")) {
+            errorReport(false, "405", "Method Not Allowed",
+                    "Only GET and HEAD requests are supported.",
+                    "Allow: GET, HEAD");
+            return keepAlive;
+        }
+
+        String req = parts[1];
+        // ?format=json on a directory: listing as array of {name, dir, size, mtime}, for scripted clients
+        boolean json = false;
+        int q = req.indexOf('?');
+        if (q >= 0) {
+            json = Arrays.asList(req.substring(q+1).split("&")).contains("format=json");
+            req = req.substring(0,q);
+        }
+        String subpath = URLDecoder.decode(req,"UTF-8");
+        if (subpath.contains("..") || subpath.contains("/.ht") || subpath.endsWith("~")) {
+            // evil hacker trying to read non-wwwhome or secret file
+            errorReport(isHead, "403", "Forbidden",
+                    "You don't have permission to access the requested URL.");
+            return keepAlive;
+        }
+
+        String path = wwwhome + "/" + subpath;
+        LocalPathContent lpc = new LocalPathContent(path);
+        // type and size with a single roothelper request
+        boolean isDir;
+        long contentLength;
+        try {
+            batchStats_resp stat = MainActivity.getRootHelperClient().statBatch(Collections.singletonList(lpc));
+            isDir = stat.isDir(0);
+            contentLength = stat.exists(0) ? stat.getSize(0) : -1;
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            isDir = false;
+            contentLength = -1;
+        }
+
+        if (isDir && !path.endsWith("/")) {
+            // redirect browser if referring to directory without final '/'
+            sendHeaders("301 Moved Permanently", null, 0,
+                    "Location: http://" +
+                    connection.getLocalAddress().getHostAddress() + ":" +
+                    connection.getLocalPort() + (req.startsWith("/")?"":"/") + req + "/");
+            log("301 Moved Permanently");
+        }
+        else if (isDir) serveDir(isHead,json,path,subpath,lpc,ifNoneMatch,ifModifiedSince);
+        else serveFile(isHead,path,contentLength,rangeHeader);
+
+        return keepAlive;
+    }
+
+    @Override
+    public void run() {
+        Log.d(getClass().getName(),"Client session started");
+        try {
+            connection.setSoTimeout(KEEPALIVE_TIMEOUT_MS);
+            connection.setTcpNoDelay(true);
+            in = new BufferedInputStream(connection.getInputStream());
+            out = session.shape(connection.getOutputStream()); // unbuffered, headers must be out before a transferTo on the channel
+            for (int served=0; served<MAX_REQUESTS; served++)
+                if (!serveRequest()) break;
+        }
+        catch (IOException e) {
+            // includes idle timeout of persistent connections, and clients closing during a transfer
+            Log.d(getClass().getName(),"Session closed: "+e.getMessage());
+        }
+        catch (RuntimeException e) {
+            Log.e(getClass().getName(),"Unexpected error in session", e);
+        }
+        finally {
+            try {
+                channel.close();
+            }
+            catch (Exception e) {
+                Log.e(getClass().getName(),"Exception on close", e);
+            }
+            Log.d(getClass().getName(),"Client session ended");
+            synchronized(clientConnections) {
+                clientConnections.remove(connection);
+            }
+            session.close(); // releases the TrafficControl slot in any case
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package it.pgp.xfiles.fileservers;
+
+import android.util.Log;
+
+import org.apache.ftpserver.ftplet.FileSystemFactory;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.usermanager.impl.WriteRequest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.enums.FileMode;
+import it.pgp.xfiles.io.RobustLocalFileOutputStream;
+import it.pgp.xfiles.roothelperclient.RootHelperClient;
+import it.pgp.xfiles.roothelperclient.resps.batchStats_resp;
+import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
+import it.pgp.xfiles.utils.pathcontent.LocalPathContent;
+
+/**
+ * FTP file system backed by the roothelper, so that the FTP server can serve paths not accessible to the app process
+ *
+ * Listings use the streaming ls protocol, and stats the batch stats request, both over pooled roothelper connections.
+ * File content goes through in-app streams when the app can open the file, else through roothelper proxy streams
+ * (for root-only files, resuming uploads at an offset is not possible, since those streams cannot append).
+ * Each session keeps the listings of the last {@link #CACHED_DIRS} directories for {@link #LISTING_TTL_MS},
+ * so that the stats of the entries of a listed directory (e.g. LIST followed by RETR/SIZE/MDTM) need no further request;
+ * modifications made through the session invalidate the parent listing.
+ * The user home directory is the root of the virtual file system, paths cannot escape it.
+ */
+
+public class RootHelperFileSystemFactory implements FileSystemFactory {
+
+    public static final int CACHED_DIRS = 32;
+    public static final long LISTING_TTL_MS = 10000;
+
+    @Override
+    public FileSystemView createFileSystemView(User user) throws FtpException {
+        String home = user.getHomeDirectory();
+        if (home == null) throw new FtpException("No home directory for user "+user.getName());
+        while (home.length() > 1 && home.endsWith("/")) home = home.substring(0,home.length()-1);
+        return new RHFileSystemView(home,user);
+    }
+
+    private static RootHelperClient rh() throws IOException {
+        RootHelperClient rh = MainActivity.getRootHelperClient();
+        if (rh == null) throw new IOException("Roothelper not available");
+        return rh;
+    }
+
+    // virtual absolute path of name relative to cwd, with "." and ".." resolved, never above the virtual root
+    static String resolve(String cwd, String name) {
+        String p = (name == null || name.isEmpty()) ? cwd : (name.startsWith("/") ? name : cwd+"/"+name);
+        Deque<String> parts = new ArrayDeque<>();
+        for (String s : p.split("/")) {
+            if (s.isEmpty() || s.equals(".")) continue;
+            if (s.equals("..")) parts.pollLast();
+            else parts.addLast(s);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String s : parts) sb.append('/').append(s);
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    private static String parentOf(String virtualPath) {
+        int idx = virtualPath.lastIndexOf('/');
+        return idx <= 0 ? "/" : virtualPath.substring(0,idx);
+    }
+
+    private static String nameOf(String virtualPath) {
+        return virtualPath.equals("/") ? "/" : virtualPath.substring(virtualPath.lastIndexOf('/')+1);
+    }
+
+    private static class RHFileSystemView implements FileSystemView {
+        private final String home;
+        private final User user;
+        private String cwd = "/";
+
+        private static class Listing {
+            final Map<String,BrowserItem> entries;
+            final long time;
+
+            Listing(Map<String,BrowserItem> entries, long time) {
+                this.entries = entries;
+                this.time = time;
+            }
+        }
+
+        // virtual dir path -> entries by name, least recently used first
+        private final LinkedHashMap<String,Listing> listings = new LinkedHashMap<String,Listing>(16,0.75f,true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Listing> eldest) {
+                return size() > CACHED_DIRS;
+            }
+        };
+
+        RHFileSystemView(String home, User user) {
+            this.home = home;
+            this.user = user;
+        }
+
+        // same authorization as NativeFtpFile (e.g. the anonymous user has no WritePermission)
+        boolean canWrite(String virtualPath) {
+            return user.authorize(new WriteRequest(virtualPath)) != null;
+        }
+
+        String physical(String virtualPath) {
+            return virtualPath.equals("/") ? home : (home.equals("/") ? "" : home) + virtualPath;
+        }
+
+        synchronized Map<String,BrowserItem> list(String virtualDir) throws IOException {
+            Listing l = listings.get(virtualDir);
+            if (l != null && System.currentTimeMillis() - l.time < LISTING_TTL_MS) return l.entries;
+            GenericDirWithContent gdwc = rh().listDirectory(new LocalPathContent(physical(virtualDir)));
+            if (gdwc.errorCode != null) {
+                listings.remove(virtualDir);
+                throw new IOException("Unable to list "+virtualDir+": "+gdwc.errorCode);
+            }
+            Map<String,BrowserItem> entries = new HashMap<>();
+            for (BrowserItem b : gdwc.content) entries.put(b.getFilename(),b);
+            listings.put(virtualDir,new Listing(entries,System.currentTimeMillis()));
+            return entries;
+        }
+
+        synchronized void invalidate(String virtualDir) {
+            listings.remove(virtualDir);
+        }
+
+        /**
+         * Stats from the cached parent listing if any, else with a stats request
+         * @return null if virtualPath does not exist
+         */
+        BrowserItem lookup(String virtualPath) throws IOException {
+            if (!virtualPath.equals("/")) {
+                String parent = parentOf(virtualPath);
+                Listing l;
+                synchronized (this) {
+                    l = listings.get(parent);
+                }
+                if (l != null && System.currentTimeMillis() - l.time < LISTING_TTL_MS)
+                    return l.entries.get(nameOf(virtualPath));
+            }
+            batchStats_resp r = rh().statBatch(Collections.singletonList(new LocalPathContent(physical(virtualPath))));
+            if (!r.exists(0)) return null;
+            return new BrowserItem(nameOf(virtualPath),r.isDir(0) ? 0 : r.getSize(0),
+                    r.getModificationTimeMillis(0),r.isDir(0),r.isLink(0));
+        }
+
+        @Override
+        public FtpFile getHomeDirectory() {
+            return new RHFtpFile(this,"/",null,false);
+        }
+
+        @Override
+        public synchronized FtpFile getWorkingDirectory() {
+            return new RHFtpFile(this,cwd,null,false);
+        }
+
+        @Override
+        public boolean changeWorkingDirectory(String dir) {
+            String target;
+            synchronized (this) {
+                target = resolve(cwd,dir);
+            }
+            try {
+                BrowserItem b = lookup(target);
+                if (!target.equals("/") && (b == null || !b.isDirectory)) return false;
+            }
+            catch (IOException e) {
+                return false;
+            }
+            synchronized (this) {
+                cwd = target;
+            }
+            return true;
+        }
+
+        @Override
+        public FtpFile getFile(String file) {
+            String target;
+            synchronized (this) {
+                target = resolve(cwd,file);
+            }
+            return new RHFtpFile(this,target,null,false);
+        }
+
+        @Override
+        public boolean isRandomAccessible() {
+            return true;
+        }
+
+        @Override
+        public synchronized void dispose() {
+            listings.clear();
+        }
+    }
+
+    private static class RHFtpFile implements FtpFile {
+        private final RHFileSystemView view;
+        private final String virtualPath;
+        private BrowserItem info; // null if not existing, valid if loaded
+        private boolean loaded;
+
+        RHFtpFile(RHFileSystemView view, String virtualPath, BrowserItem info, boolean loaded) {
+            this.view = view;
+            this.virtualPath = virtualPath;
+            this.info = info;
+            this.loaded = loaded;
+        }
+
+        private BrowserItem info() {
+            if (!loaded) {
+                try {
+                    info = view.lookup(virtualPath);
+                }
+                catch (IOException e) {
+                    Log.e("RHFtpFile","Unable to stat "+virtualPath,e);
+                    info = null;
+                }
+                loaded = true;
+            }
+            return info;
+        }
+
+        private LocalPathContent lpc() {
+            return new LocalPathContent(view.physical(virtualPath));
+        }
+
+        // after a modification of this file through the session
+        private void modified() {
+            view.invalidate(parentOf(virtualPath));
+            loaded = false;
+        }
+
+        @Override
+        public String getAbsolutePath() {
+            return virtualPath;
+        }
+
+        @Override
+        public String getName() {
+            return nameOf(virtualPath);
+        }
+
+        @Override
+        public boolean isHidden() {
+            return false;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            if (virtualPath.equals("/")) return true;
+            BrowserItem b = info();
+            return b != null && b.isDirectory;
+        }
+
+        @Override
+        public boolean isFile() {
+            BrowserItem b = info();
+            return b != null && !b.isDirectory;
+        }
+
+        @Override
+        public boolean doesExist() {
+            return virtualPath.equals("/") || info() != null;
+        }
+
+        // filesystem permissions are checked by the roothelper on each operation, here only user authorization
+        @Override
+        public boolean isReadable() {
+            return doesExist();
+        }
+
+        @Override
+        public boolean isWritable() {
+            return view.canWrite(virtualPath);
+        }
+
+        @Override
+        public boolean isRemovable() {
+            return !virtualPath.equals("/") && view.canWrite(virtualPath) && view.canWrite(parentOf(virtualPath));
+        }
+
+        @Override
+        public String getOwnerName() {
+            return "user";
+        }
+
+        @Override
+        public String getGroupName() {
+            return "group";
+        }
+
+        @Override
+        public int getLinkCount() {
+            return isDirectory() ? 3 : 1;
+        }
+
+        @Override
+        public long getLastModified() {
+            BrowserItem b = info();
+            return b == null ? 0 : b.dateMillis;
+        }
+
+        @Override
+        public boolean setLastModified(long time) {
+            if (!isWritable()) return false;
+            try {
+                boolean ok = rh().setDates(lpc(),null,new Date(time)) == 0;
+                modified();
+                return ok;
+            }
+            catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public long getSize() {
+            BrowserItem b = info();
+            return b == null ? 0 : b.size;
+        }
+
+        @Override
+        public Object getPhysicalFile() {
+            return new File(view.physical(virtualPath));
+        }
+
+        @Override
+        public boolean mkdir() {
+            if (!isWritable()) return false;
+            try {
+                rh().createFileOrDirectory(lpc(),FileMode.DIRECTORY);
+                modified();
+                return true;
+            }
+            catch (IOException e) {
+                Log.e("RHFtpFile","mkdir failed for "+virtualPath,e);
+                return false;
+            }
+        }
+
+        @Override
+        public boolean delete() {
+            if (!isRemovable()) return false;
+            try {
+                rh().deleteFilesOrDirectories(Collections.singletonList(lpc()));
+                modified();
+                view.invalidate(virtualPath);
+                return true;
+            }
+            catch (IOException e) {
+                Log.e("RHFtpFile","delete failed for "+virtualPath,e);
+                return false;
+            }
+        }
+
+        @Override
+        public boolean move(FtpFile destination) {
+            if (!(destination instanceof RHFtpFile) || virtualPath.equals("/")) return false;
+            RHFtpFile dest = (RHFtpFile) destination;
+            if (!isRemovable() || !dest.isWritable()) return false;
+            try {
+                boolean ok = rh().renameFile(lpc(),dest.lpc());
+                modified();
+                dest.modified();
+                view.invalidate(virtualPath);
+                return ok;
+            }
+            catch (IOException e) {
+                Log.e("RHFtpFile","move failed for "+virtualPath,e);
+                return false;
+            }
+        }
+
+        @Override
+        public List<? extends FtpFile> listFiles() {
+            if (!isDirectory()) return null;
+            Map<String,BrowserItem> entries;
+            try {
+                entries = view.list(virtualPath);
+            }
+            catch (IOException e) {
+                Log.e("RHFtpFile","listing failed for "+virtualPath,e);
+                return null;
+            }
+            List<String> names = new ArrayList<>(entries.keySet());
+            Collections.sort(names);
+            List<FtpFile> files = new ArrayList<>(names.size());
+            String prefix = virtualPath.equals("/") ? "" : virtualPath;
+            for (String name : names)
+                files.add(new RHFtpFile(view,prefix+"/"+name,entries.get(name),true));
+            return Collections.unmodifiableList(files);
+        }
+
+        @Override
+        public OutputStream createOutputStream(long offset) throws IOException {
+            if (!isWritable()) throw new IOException("No write permission: "+virtualPath);
+            String path = view.physical(virtualPath);
+            OutputStream o = offset > 0 ?
+                    new RobustLocalFileOutputStream(path,offset) : // in-app only
+                    new RobustLocalFileOutputStream(path);
+            modified();
+            return o;
+        }
+
+        @Override
+        public InputStream createInputStream(long offset) throws IOException {
+            String path = view.physical(virtualPath);
+            try {
+                FileInputStream fis = new FileInputStream(path);
+                if (offset > 0) fis.getChannel().position(offset);
+                return fis;
+            }
+            catch (IOException e) {
+                // root-only file, roothelper proxy stream (skipped bytes are received anyway)
+                InputStream i = rh().getInputStream(path);
+                try {
+                    long skipped = i.skip(offset);
+                    if (skipped < offset) throw new IOException("Offset beyond end of file");
+                }
+                catch (IOException e1) {
+                    i.close();
+                    throw e1;
+                }
+                return i;
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package it.pgp.xfiles.fileservers;
+
+import org.apache.ftpserver.ftplet.FileSystemFactory;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.User;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Decorates an FTP file system, so that file data streams are shaped and accounted by the {@link TrafficControl}
+ * session of the command being run (set by {@link SimpleFTPServer} around each command, on the command thread)
+ */
+
+public class ShapingFileSystemFactory implements FileSystemFactory {
+
+    static final ThreadLocal<TrafficControl.Session> currentSession = new ThreadLocal<>();
+
+    private final FileSystemFactory fs;
+
+    public ShapingFileSystemFactory(FileSystemFactory fs) {
+        this.fs = fs;
+    }
+
+    @Override
+    public FileSystemView createFileSystemView(User user) throws FtpException {
+        return new ShapingView(fs.createFileSystemView(user));
+    }
+
+    private static FtpFile wrap(FtpFile f) {
+        return f == null ? null : new ShapingFile(f);
+    }
+
+    private static class ShapingView implements FileSystemView {
+        private final FileSystemView v;
+
+        ShapingView(FileSystemView v) {
+            this.v = v;
+        }
+
+        @Override
+        public FtpFile getHomeDirectory() throws FtpException {
+            return wrap(v.getHomeDirectory());
+        }
+
+        @Override
+        public FtpFile getWorkingDirectory() throws FtpException {
+            return wrap(v.getWorkingDirectory());
+        }
+
+        @Override
+        public boolean changeWorkingDirectory(String dir) throws FtpException {
+            return v.changeWorkingDirectory(dir);
+        }
+
+        @Override
+        public FtpFile getFile(String file) throws FtpException {
+            return wrap(v.getFile(file));
+        }
+
+        @Override
+        public boolean isRandomAccessible() throws FtpException {
+            return v.isRandomAccessible();
+        }
+
+        @Override
+        public void dispose() {
+            v.dispose();
+        }
+    }
+
+    private static class ShapingFile implements FtpFile {
+        private final FtpFile f;
+
+        ShapingFile(FtpFile f) {
+            this.f = f;
+        }
+
+        @Override
+        public String getAbsolutePath() {
+            return f.getAbsolutePath();
+        }
+
+        @Override
+        public String getName() {
+            return f.getName();
+        }
+
+        @Override
+        public boolean isHidden() {
+            return f.isHidden();
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return f.isDirectory();
+        }
+
+        @Override
+        public boolean isFile() {
+            return f.isFile();
+        }
+
+        @Override
+        public boolean doesExist() {
+            return f.doesExist();
+        }
+
+        @Override
+        public boolean isReadable() {
+            return f.isReadable();
+        }
+
+        @Override
+        public boolean isWritable() {
+            return f.isWritable();
+        }
+
+        @Override
+        public boolean isRemovable() {
+            return f.isRemovable();
+        }
+
+        @Override
+        public String getOwnerName() {
+            return f.getOwnerName();
+        }
+
+        @Override
+        public String getGroupName() {
+            return f.getGroupName();
+        }
+
+        @Override
+        public int getLinkCount() {
+            return f.getLinkCount();
+        }
+
+        @Override
+        public long getLastModified() {
+            return f.getLastModified();
+        }
+
+        @Override
+        public boolean setLastModified(long time) {
+            return f.setLastModified(time);
+        }
+
+        @Override
+        public long getSize() {
+            return f.getSize();
+        }
+
+        @Override
+        public Object getPhysicalFile() {
+            return f.getPhysicalFile();
+        }
+
+        @Override
+        public boolean mkdir() {
+            return f.mkdir();
+        }
+
+        @Override
+        public boolean delete() {
+            return f.delete();
+        }
+
+        // the decorated file system expects its own file type
+        @Override
+        public boolean move(FtpFile destination) {
+            return f.move(destination instanceof ShapingFile ? ((ShapingFile)destination).f : destination);
+        }
+
+        @Override
+        public List<? extends FtpFile> listFiles() {
+            return f.listFiles();
+        }
+
+        @Override
+        public OutputStream createOutputStream(long offset) throws IOException {
+            OutputStream o = f.createOutputStream(offset);
+            TrafficControl.Session s = currentSession.get();
+            return s == null ? o : s.shape(o);
+        }
+
+        @Override
+        public InputStream createInputStream(long offset) throws IOException {
+            InputStream i = f.createInputStream(offset);
+            TrafficControl.Session s = currentSession.get();
+            return s == null ? i : s.shape(i);
+        }
+    }
+}
@@ -3,9 +3,22 @@ package it.pgp.xfiles.fileservers;
 import org.apache.ftpserver.ConnectionConfigFactory;
 import org.apache.ftpserver.FtpServer;
 import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.filesystem.nativefs.NativeFileSystemFactory;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FileSystemFactory;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.Ftplet;
+import org.apache.ftpserver.ftplet.FtpletResult;
 import org.apache.ftpserver.listener.ListenerFactory;
 import org.apache.ftpserver.usermanager.impl.BaseUser;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.R;
 import it.pgp.xfiles.utils.Pair;
@@ -15,6 +28,49 @@ public class SimpleFTPServer extends SimpleFileServer {
     private FtpServer server;
     public static final int defaultPort = 2121;
 
+    private static final String SESSION_ATTR = "trafficSession";
+    private static final String COMMAND_START_ATTR = "commandStart";
+
+    /**
+     * Admission control on control connections, and per command latency;
+     * the traffic session is made available to the shaping file system while a command runs
+     */
+    private class TrafficFtplet extends DefaultFtplet {
+        @Override
+        public FtpletResult onConnect(FtpSession session) throws FtpException {
+            TrafficControl.Session s = traffic.admit(session.getClientAddress().getAddress().getHostAddress());
+            if (s == null) {
+                session.write(new DefaultFtpReply(FtpReply.REPLY_421_SERVICE_NOT_AVAILABLE_CLOSING_CONTROL_CONNECTION,
+                        "Too many connections, try again later"));
+                return FtpletResult.DISCONNECT;
+            }
+            session.setAttribute(SESSION_ATTR,s);
+            return FtpletResult.DEFAULT;
+        }
+
+        @Override
+        public FtpletResult onDisconnect(FtpSession session) {
+            TrafficControl.Session s = (TrafficControl.Session) session.getAttribute(SESSION_ATTR);
+            if (s != null) s.close();
+            return FtpletResult.DEFAULT;
+        }
+
+        @Override
+        public FtpletResult beforeCommand(FtpSession session, FtpRequest request) {
+            ShapingFileSystemFactory.currentSession.set((TrafficControl.Session) session.getAttribute(SESSION_ATTR));
+            session.setAttribute(COMMAND_START_ATTR,System.currentTimeMillis());
+            return FtpletResult.DEFAULT;
+        }
+
+        @Override
+        public FtpletResult afterCommand(FtpSession session, FtpRequest request, FtpReply reply) {
+            ShapingFileSystemFactory.currentSession.remove();
+            Long start = (Long) session.getAttribute(COMMAND_START_ATTR);
+            if (start != null) traffic.recordLatency(System.currentTimeMillis()-start);
+            return FtpletResult.DEFAULT;
+        }
+    }
+
     SimpleFTPServer() {
         port = defaultPort;
         serverButtonRes = R.id.ftpServerButton;
@@ -37,6 +93,13 @@ public class SimpleFTPServer extends SimpleFileServer {
         connectionConfigFactory.setAnonymousLoginEnabled(true);
 
         serverFactory.setConnectionConfig(connectionConfigFactory.createConnectionConfig());
+        Map<String,Ftplet> ftplets = new HashMap<>();
+        ftplets.put("traffic",new TrafficFtplet());
+        serverFactory.setFtplets(ftplets);
+        // roothelper-backed when available, so that paths not readable by the app can be served too
+        FileSystemFactory fs = MainActivity.getRootHelperClient() != null ?
+                new RootHelperFileSystemFactory() : new NativeFileSystemFactory();
+        serverFactory.setFileSystem(new ShapingFileSystemFactory(fs));
         ListenerFactory factory = new ListenerFactory();
         factory.setPort(port);
         serverFactory.addListener("default", factory.createListener());
@@ -14,6 +14,8 @@ public abstract class SimpleFileServer extends Observable {
     public String rootPath = Misc.internalStorageDir.getAbsolutePath();
     public int port;
 
+    public final TrafficControl traffic = new TrafficControl(this);
+
     public abstract void startServer();
     public abstract void stopServer();
 
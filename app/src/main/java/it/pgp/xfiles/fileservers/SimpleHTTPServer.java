@@ -3,20 +3,37 @@ package it.pgp.xfiles.fileservers;
 import android.util.Log;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.R;
 import it.pgp.xfiles.utils.Pair;
 
+/**
+ * Connections are served by a bounded pool of {@link HTTPSession} workers, instead of one new thread each.
+ * Since a persistent connection holds its worker till it is closed, connections beyond the number of workers
+ * (or beyond {@link TrafficControl#maxConnections}, if lower) are answered with 503 and closed, instead of
+ * waiting unserved in queue.
+ * Accepted sockets are blocking channels, so that files can be sent with {@link java.nio.channels.FileChannel#transferTo}
+ */
+
 public class SimpleHTTPServer extends SimpleFileServer {
     public static final int defaultPort = 8000;
+    public static final int WORKERS = TrafficControl.DEFAULT_MAX_CONNECTIONS; // also the max number of connections
 
     private AcceptorThread acceptorThread;
+    private ThreadPoolExecutor workers;
 
     public final Set<Socket> clientConnections = new HashSet<>();
 
@@ -26,27 +43,43 @@ public class SimpleHTTPServer extends SimpleFileServer {
     }
 
     private class AcceptorThread extends Thread {
-        public final ServerSocket acceptorSocket;
+        public final ServerSocketChannel acceptorSocket;
+        private final ThreadPoolExecutor workers;
 
-        AcceptorThread(int port) throws IOException {
-            acceptorSocket = new ServerSocket(port);
+        AcceptorThread(int port, ThreadPoolExecutor workers) throws IOException {
+            acceptorSocket = ServerSocketChannel.open();
+            try {
+                acceptorSocket.socket().setReuseAddress(true);
+                acceptorSocket.socket().bind(new InetSocketAddress(port));
+            }
+            catch (IOException e) {
+                acceptorSocket.close();
+                throw e;
+            }
+            this.workers = workers;
         }
 
         @Override
         public void run() {
             for(;;) {
                 try {
-                    Socket connection = acceptorSocket.accept();
+                    SocketChannel connection = acceptorSocket.accept();
+                    TrafficControl.Session session = traffic.admit(connection.socket().getInetAddress().getHostAddress(),WORKERS);
+                    if (session == null) {
+                        reject(connection);
+                        continue;
+                    }
                     synchronized(clientConnections) {
-                        clientConnections.add(connection);
+                        clientConnections.add(connection.socket());
                     }
-                    new HTTPSessionThread(connection,rootPath, clientConnections).start();
+                    workers.execute(new HTTPSession(connection,rootPath,clientConnections,session));
                 }
                 catch (Exception e) {
                     e.printStackTrace();
                     SimpleHTTPServer.this.acceptorThread = null;
-                    MainActivity.showToast("SimpleHTTPServer: "+(e instanceof SocketException?"acceptor closed":"accept error"));
+                    MainActivity.showToast("SimpleHTTPServer: "+(e instanceof ClosedChannelException?"acceptor closed":"accept error"));
                     notifyObservers(new Pair<>(FileServer.HTTP.ordinal(), false));
+                    workers.shutdown();
                     disconnectAllClients();
                     return;
                 }
@@ -54,6 +87,19 @@ public class SimpleHTTPServer extends SimpleFileServer {
         }
     }
 
+    // over connection cap, the response is small enough not to block the acceptor
+    private static void reject(SocketChannel connection) {
+        try {
+            connection.write(ByteBuffer.wrap(("HTTP/1.1 503 Service Unavailable\r\n" +
+                    "Retry-After: 5\r\n" +
+                    "Content-Length: 0\r\n" +
+                    "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+        }
+        catch (IOException ignored) {}
+        try {connection.close();} catch (IOException ignored) {}
+        Log.w("SimpleHTTPServer","Connection rejected, max connections reached");
+    }
+
     @Override
     public void startServer() {
         if (acceptorThread != null) {
@@ -61,10 +107,13 @@ public class SimpleHTTPServer extends SimpleFileServer {
             stopServer();
         }
         try {
-            acceptorThread = new AcceptorThread(port);
+            workers = new ThreadPoolExecutor(WORKERS, WORKERS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+            workers.allowCoreThreadTimeOut(true); // no idle threads while there are no clients
+            acceptorThread = new AcceptorThread(port,workers);
             acceptorThread.start();
         } catch (IOException e) {
             Log.e(getClass().getName(), "IOException - Could not start server: ", e);
+            workers.shutdown();
             stopServer();
             return;
         }
@@ -0,0 +1,53 @@
+package it.pgp.xfiles.fileservers;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Token bucket bandwidth limiter, holding at most one second worth of tokens
+ *
+ * Senders take tokens for data already sent or about to be sent; the balance may go negative,
+ * and the sender that overdraws it sleeps until it is paid back, so concurrent senders
+ * queue up behind each other instead of busy-waiting.
+ */
+
+public class TokenBucket {
+
+    private volatile long rate; // bytes per second, 0: unlimited
+    private double tokens;
+    private long last = System.nanoTime();
+
+    public TokenBucket(long rate) {
+        this.rate = rate;
+        tokens = rate;
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    public void setRate(long rate) {
+        this.rate = rate;
+    }
+
+    public void consume(long n) throws InterruptedIOException {
+        long r = rate;
+        if (r <= 0) return;
+        long waitMs;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(r, tokens + (now-last)*r/1e9);
+            last = now;
+            tokens -= n;
+            waitMs = tokens < 0 ? (long) Math.ceil(-tokens*1000/r) : 0;
+        }
+        if (waitMs > 0) {
+            try {
+                Thread.sleep(waitMs);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while shaping bandwidth");
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package it.pgp.xfiles.fileservers;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Admission control, bandwidth shaping and live counters of a {@link SimpleFileServer}
+ *
+ * Each server admits at most {@link #maxConnections} sessions (connections for HTTP, control connections for FTP).
+ * Data sent or received by a session takes tokens from its client's bucket ({@link #perClientRate},
+ * shared by all sessions from the same address), and from a bucket shared by all servers ({@link #globalRate}),
+ * so that file servers together cannot saturate the link used by other sessions (e.g. XRE).
+ * Counters are published as {@link Stats} through the server's Observable, on session start/end
+ * and at most once per {@link #PUBLISH_INTERVAL_MS} while data flows.
+ */
+
+public class TrafficControl {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 32;
+    public static final long PUBLISH_INTERVAL_MS = 1000;
+    // upper bounds of request latency histogram buckets, the last bucket is unbounded
+    public static final long[] LATENCY_BOUNDS_MS = {10,50,100,500,1000,5000};
+
+    // tunables, 0 for no limit
+    public static volatile int maxConnections = DEFAULT_MAX_CONNECTIONS; // per server
+    public static volatile long globalRate = 0; // bytes per second, all servers
+    public static volatile long perClientRate = 0; // bytes per second, per client address
+
+    private static final TokenBucket globalBucket = new TokenBucket(0);
+
+    private static class Client {
+        final TokenBucket bucket = new TokenBucket(perClientRate);
+        int sessions = 0;
+        long bytes = 0;
+        long lastBytes = 0; // at last publish, for rate
+    }
+
+    private final SimpleFileServer server;
+    private final Map<String,Client> clients = new HashMap<>();
+    private int activeSessions = 0;
+    private long totalBytes = 0;
+    private final long[] latencyHistogram = new long[LATENCY_BOUNDS_MS.length+1];
+    private long lastPublish = System.currentTimeMillis();
+
+    TrafficControl(SimpleFileServer server) {
+        this.server = server;
+    }
+
+    public static boolean isShaping() {
+        return globalRate > 0 || perClientRate > 0;
+    }
+
+    /**
+     * Snapshot of a server's counters, as published to its observers
+     */
+    public static class Stats {
+        public final int activeSessions;
+        public final long totalBytes;
+        public final Map<String,Long> clientRates; // bytes per second since previous snapshot
+        public final long[] latencyHistogram; // counts per LATENCY_BOUNDS_MS bucket
+
+        Stats(int activeSessions, long totalBytes, Map<String,Long> clientRates, long[] latencyHistogram) {
+            this.activeSessions = activeSessions;
+            this.totalBytes = totalBytes;
+            this.clientRates = clientRates;
+            this.latencyHistogram = latencyHistogram;
+        }
+
+        public long getTotalRate() {
+            long r = 0;
+            for (long x : clientRates.values()) r += x;
+            return r;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("sessions: ").append(activeSessions)
+                    .append(" bytes: ").append(totalBytes)
+                    .append(" B/s: ").append(getTotalRate());
+            for (Map.Entry<String,Long> e : clientRates.entrySet())
+                sb.append(" [").append(e.getKey()).append(": ").append(e.getValue()).append(" B/s]");
+            sb.append(" latency ms:");
+            for (int k=0; k<latencyHistogram.length; k++)
+                sb.append(" ").append(k<LATENCY_BOUNDS_MS.length ? "<"+LATENCY_BOUNDS_MS[k] : ">="+LATENCY_BOUNDS_MS[k-1])
+                        .append(":").append(latencyHistogram[k]);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A session admitted on this server, to be closed when it ends
+     */
+    public class Session implements AutoCloseable {
+        public final String clientAddress;
+        private final Client client;
+        private boolean closed = false;
+
+        Session(String clientAddress, Client client) {
+            this.clientAddress = clientAddress;
+            this.client = client;
+        }
+
+        // n bytes sent or received, blocks as long as needed to respect rate limits
+        public void consume(long n) throws InterruptedIOException {
+            if (n <= 0) return;
+            client.bucket.setRate(perClientRate);
+            client.bucket.consume(n);
+            globalBucket.setRate(globalRate);
+            globalBucket.consume(n);
+            boolean publish;
+            synchronized (TrafficControl.this) {
+                client.bytes += n;
+                totalBytes += n;
+                publish = System.currentTimeMillis() - lastPublish >= PUBLISH_INTERVAL_MS;
+            }
+            if (publish) publish();
+        }
+
+        public void recordLatency(long ms) {
+            TrafficControl.this.recordLatency(ms);
+        }
+
+        public InputStream shape(InputStream i) {
+            return new FilterInputStream(i) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) consume(1);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b,off,len);
+                    consume(n);
+                    return n;
+                }
+            };
+        }
+
+        public OutputStream shape(OutputStream o) {
+            return new FilterOutputStream(o) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    consume(1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b,off,len); // not byte by byte as in FilterOutputStream
+                    consume(len);
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            synchronized (TrafficControl.this) {
+                if (closed) return;
+                closed = true;
+                activeSessions--;
+                if (--client.sessions == 0) clients.remove(clientAddress);
+            }
+            publish();
+        }
+    }
+
+    /**
+     * @return null if the server is already serving {@link #maxConnections} sessions
+     */
+    public Session admit(String clientAddress) {
+        return admit(clientAddress,0);
+    }
+
+    /**
+     * @param limit if positive, further cap on sessions (e.g. number of server workers)
+     * @return null if the server is already serving {@link #maxConnections} or limit sessions
+     */
+    public Session admit(String clientAddress, int limit) {
+        Session s;
+        synchronized (this) {
+            int max = maxConnections;
+            if (limit > 0) max = max > 0 ? Math.min(max,limit) : limit;
+            if (max > 0 && activeSessions >= max) return null;
+            Client c = clients.get(clientAddress);
+            if (c == null) {
+                c = new Client();
+                clients.put(clientAddress,c);
+            }
+            c.sessions++;
+            activeSessions++;
+            s = new Session(clientAddress,c);
+        }
+        publish();
+        return s;
+    }
+
+    public synchronized void recordLatency(long ms) {
+        int k = 0;
+        while (k < LATENCY_BOUNDS_MS.length && ms >= LATENCY_BOUNDS_MS[k]) k++;
+        latencyHistogram[k]++;
+    }
+
+    public synchronized Stats getStats() {
+        long now = System.currentTimeMillis();
+        long elapsed = Math.max(1, now - lastPublish);
+        Map<String,Long> rates = new LinkedHashMap<>();
+        for (Map.Entry<String,Client> e : clients.entrySet()) {
+            Client c = e.getValue();
+            rates.put(e.getKey(), (c.bytes - c.lastBytes)*1000/elapsed);
+            c.lastBytes = c.bytes;
+        }
+        lastPublish = now;
+        return new Stats(activeSessions,totalBytes,rates,latencyHistogram.clone());
+    }
+
+    private void publish() {
+        server.notifyObservers(getStats());
+    }
+}
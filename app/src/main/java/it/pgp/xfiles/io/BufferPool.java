@@ -0,0 +1,32 @@
+package it.pgp.xfiles.io;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pool of fixed-size byte buffers, so that file proxy streams opened in sequence
+ * (e.g. one per file while transferring a directory) do not allocate a new 1 MB chunk each time
+ */
+
+public class BufferPool {
+
+    public static final int BUFFER_SIZE = 1048576;
+    private static final int MAX_POOLED = 4;
+
+    private static final Deque<byte[]> pool = new ArrayDeque<>();
+
+    public static byte[] acquire() {
+        synchronized (pool) {
+            byte[] b = pool.poll();
+            if (b != null) return b;
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    public static void release(byte[] b) {
+        if (b == null || b.length != BUFFER_SIZE) return;
+        synchronized (pool) {
+            if (pool.size() < MAX_POOLED) pool.push(b);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package it.pgp.xfiles.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP/1.1 chunked transfer coding over a connection that stays open after the body:
+ * data is gathered in a buffer, each full buffer (and each flush) is sent as one chunk,
+ * and close() sends the last chunk without closing the enclosed outputstream.
+ * With chunked disabled (HTTP/1.0 clients), data is only buffered, and the body is delimited by the connection close.
+ */
+
+public class ChunkedOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final boolean chunked;
+    private final byte[] buf;
+    private int count = 0;
+    private boolean closed = false;
+
+    public ChunkedOutputStream(OutputStream out, boolean chunked, int size) {
+        this.out = out;
+        this.chunked = chunked;
+        this.buf = new byte[size];
+    }
+
+    private void sendChunk() throws IOException {
+        if (count == 0) return; // an empty chunk would end the body
+        if (chunked) out.write((Integer.toHexString(count)+"\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.write(buf,0,count);
+        if (chunked) out.write('\r');
+        if (chunked) out.write('\n');
+        count = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buf.length) sendChunk();
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buf.length) sendChunk();
+            int n = Math.min(len,buf.length-count);
+            System.arraycopy(b,off,buf,count,n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        sendChunk();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        sendChunk();
+        if (chunked) out.write("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+}
@@ -30,6 +30,23 @@ public class RobustLocalFileOutputStream extends OutputStream {
         }
     }
 
+    /**
+     * Continues the file at path from offset, discarding anything after it
+     * (in-app mode only, roothelper-proxy file streams cannot append)
+     */
+    public RobustLocalFileOutputStream(String path, long offset) throws IOException {
+        FileOutputStream fos = new FileOutputStream(new File(path),true);
+        try {
+            if (fos.getChannel().size() < offset) throw new IOException("File shorter than resume offset");
+            fos.getChannel().truncate(offset);
+        }
+        catch (IOException e) {
+            fos.close();
+            throw e;
+        }
+        o = fos;
+    }
+
     @Override
     public void write(byte[] b) throws IOException {
         o.write(b);
@@ -32,6 +32,8 @@ public enum ControlCodes {
 
     REMOTE_SERVER_MANAGEMENT((byte)0x12), // flags: 000: stop, 111: start, 101: start with announce, 010: get status
 
+    ACTION_BATCH_STATS((byte)0x13), // exists/type, mtime and size for a list of paths, one compact result per path
+
     REMOTE_CONNECT((byte)0x14),
 
     ACTION_SETATTRIBUTES((byte)0x15), // embeds set ownership, permissions and dates actions
@@ -44,6 +46,8 @@ public enum ControlCodes {
 
     ACTION_CLOUD_SERVICES((byte)0x19),
 
+    ACTION_MULTI_HASH((byte)0x1A), // several digests of the same file or directory, computed in a single read pass
+
 //    ACTION_CANCEL((byte)0x1E),
     ACTION_EXIT((byte)0x1F);
 
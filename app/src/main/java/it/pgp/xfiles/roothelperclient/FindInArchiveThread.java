@@ -1,10 +1,10 @@
 package it.pgp.xfiles.roothelperclient;
 
-import it.pgp.xfiles.utils.ArchiveVMap;
+import it.pgp.xfiles.utils.ArchiveIndex;
 import it.pgp.xfiles.utils.pathcontent.ArchivePathContent;
 
 public class FindInArchiveThread extends FindUpdatesThread {
-    private final ArchiveVMap m;
+    private final ArchiveIndex m;
     private final String namePattern;
     private final boolean recursiveSearch;
     private final boolean caseInsensitive;
@@ -30,8 +30,8 @@ public class FindInArchiveThread extends FindUpdatesThread {
     }
 
     @Override
-    protected void doFind() {
-        m.findInArchive(this::matchFilename,recursiveSearch?"":null);
+    protected void doFind(FindResultsPipeline results) {
+        m.findInArchive(this::matchFilename,recursiveSearch,results::offer);
     }
 }
 
@@ -0,0 +1,136 @@
+package it.pgp.xfiles.roothelperclient;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.FindActivity;
+import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.adapters.FindResultsAdapter;
+
+/**
+ * Delivery of find results to {@link FindResultsAdapter} in bounded batches
+ *
+ * Find threads only append results to a pending list. The first result after a flush schedules the next one
+ * {@link #FLUSH_INTERVAL_MS} later, or immediately once {@link #MAX_BATCH} results are pending,
+ * so at most one flush is queued on the main looper at any time, whatever the result rate.
+ * Each flush moves up to MAX_BATCH results into the adapter with a single addAll (one dataset change),
+ * and reschedules itself right away if more are left.
+ */
+
+public class FindResultsPipeline {
+
+    public static final int MAX_BATCH = 1000;
+    public static final long FLUSH_INTERVAL_MS = 100;
+
+    private static volatile FindResultsPipeline current; // pipeline of the running search, if any
+
+    public static FindResultsPipeline getCurrent() {
+        return current;
+    }
+
+    private final Object lock = new Object();
+    private ArrayList<BrowserItem> pending = new ArrayList<>();
+    private boolean flushScheduled = false;
+    private boolean closed = false;
+
+    // stats
+    private final long startedAt = SystemClock.elapsedRealtime();
+    private long found = 0;
+    private long delivered = 0;
+    private int maxQueueDepth = 0;
+    private long batches = 0;
+
+    private final Runnable flush = this::flush;
+
+    public FindResultsPipeline() {
+        current = this;
+    }
+
+    /**
+     * @return false if results can no longer be delivered (find activity destroyed), so the producer should stop
+     */
+    public boolean offer(BrowserItem b) {
+        if (FindActivity.instance == null) return false;
+        synchronized (lock) {
+            if (closed) return false;
+            pending.add(b);
+            found++;
+            if (pending.size() > maxQueueDepth) maxQueueDepth = pending.size();
+            if (!flushScheduled) {
+                flushScheduled = true;
+                MainActivity.handler.postDelayed(flush,FLUSH_INTERVAL_MS);
+            }
+            else if (pending.size() == MAX_BATCH) { // don't wait for the timer, but keep a single flush queued
+                MainActivity.handler.removeCallbacks(flush);
+                MainActivity.handler.post(flush);
+            }
+        }
+        return true;
+    }
+
+    // on UI thread
+    private void flush() {
+        List<BrowserItem> batch;
+        synchronized (lock) {
+            if (pending.size() <= MAX_BATCH) {
+                batch = pending;
+                pending = new ArrayList<>();
+                flushScheduled = false;
+            }
+            else {
+                List<BrowserItem> head = pending.subList(0,MAX_BATCH);
+                batch = new ArrayList<>(head);
+                head.clear();
+                MainActivity.handler.post(flush); // still flushScheduled
+            }
+            delivered += batch.size();
+            batches++;
+        }
+        if (!batch.isEmpty() && FindResultsAdapter.instance != null)
+            FindResultsAdapter.instance.addAll(batch);
+    }
+
+    /**
+     * Delivers all pending results (on producer end, also on error or cancellation)
+     */
+    public void close() {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            if (!flushScheduled && !pending.isEmpty()) {
+                flushScheduled = true;
+                MainActivity.handler.post(flush);
+            }
+        }
+        if (current == this) current = null;
+        Log.d("FindResultsPipeline",getStats());
+    }
+
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    public double getResultsPerSecond() {
+        long elapsed = SystemClock.elapsedRealtime() - startedAt;
+        synchronized (lock) {
+            return elapsed == 0 ? 0 : found*1000.0/elapsed;
+        }
+    }
+
+    public String getStats() {
+        synchronized (lock) {
+            return "found: "+found+
+                    " delivered: "+delivered+
+                    " batches: "+batches+
+                    " queue depth: "+pending.size()+
+                    " max queue depth: "+maxQueueDepth+
+                    " results/s: "+String.format("%.1f",getResultsPerSecond());
+        }
+    }
+}
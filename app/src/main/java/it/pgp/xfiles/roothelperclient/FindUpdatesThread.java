@@ -21,24 +21,12 @@ public class FindUpdatesThread extends Thread {
         this.ac = ac;
     }
 
-    private static boolean onSearchItemFound(find_resp item) {
-        try {
-            // TODO when content search will be available, should replace BrowserItem with a subclass including content results
-            FindActivity.instance.runOnUiThread(() ->
-                    FindResultsAdapter.instance.add(new BrowserItem(item.fileItem)));
-            return true;
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-            return false;
-        }
-    }
-
-    protected void doFind() throws Exception {
+    protected void doFind(FindResultsPipeline results) throws Exception {
         for(;;) { // exits on IOException when the other socket endpoint is closed (search interrupted), or when receives end of list (not strictly needed, roothelper find thread could also close the connection after sending last item found)
             // receive search results
             find_resp item = find_resp.readNext(((FindManager)ac).i);
-            if(item == null || !onSearchItemFound(item)) break; // exit immediately if adapter has been destroyed (actually, that should not happen)
+            // TODO when content search will be available, should replace BrowserItem with a subclass including content results
+            if(item == null || !results.offer(new BrowserItem(item.fileItem))) break; // exit immediately if find activity has been destroyed
         }
     }
 
@@ -50,16 +38,19 @@ public class FindUpdatesThread extends Thread {
             return;
         }
 
+        FindResultsPipeline results = null;
         try {
             FindActivity.instance.runOnUiThread(()->FindActivity.instance.toggleSearchButtons(true));
             FindResultsAdapter.reset(null);
-            doFind();
+            results = new FindResultsPipeline();
+            doFind(results);
             MainActivity.showToast("Search completed");
         }
         catch(Throwable t) {
             t.printStackTrace();
             Log.d(getClass().getName(),getErrMsg());
         }
+        if (results != null) results.close(); // deliver remaining results
 
         try {ac.close();} catch(Exception ignored) {}
         findManagerThreadRef.set(null); // unset reference only if compareAndSet was successful
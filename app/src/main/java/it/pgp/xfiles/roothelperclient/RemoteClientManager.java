@@ -42,14 +42,18 @@ public class RemoteClientManager {
     private static final long EOFs_ind = ProgressConflictHandler.Status.EOFs.getStatus(); // end of files
 
     // use only serverHost as key for now
+    // a fast client is shared by UI operations and DirPrefetcher: each request/response exchange must hold its monitor
     public final Map<String,RemoteManager> fastClients = new ConcurrentHashMap<>();
     public final Map<String,RemoteManager> longTermClients = new ConcurrentHashMap<>();
+    // remote roothelper servers known to support ACTION_MULTI_HASH (or not), by host
+    public final Map<String,Boolean> multiHashSupport = new ConcurrentHashMap<>();
 
     public synchronized void closeAllSessions() {
         for (RemoteManager rm : fastClients.values()) rm.close();
         for (RemoteManager rm : longTermClients.values()) rm.close();
         fastClients.clear();
         longTermClients.clear();
+        multiHashSupport.clear();
         if (XFilesRemoteSessionsManagementActivity.CtoSAdapter != null) {
             XFilesRemoteSessionsManagementActivity.CtoSAdapter.syncFromActivity();
         }
@@ -70,7 +74,9 @@ public class RemoteClientManager {
 
     public RemoteManager createAndConnectClient(String serverHost) {
         try {
-            RemoteManager client = new RemoteManager();
+            // the local session is borrowed from the pool, but never given back since it becomes a dedicated remote session
+            RemoteManager client = new RemoteManager(
+                    RootHelperConnectionPool.forAddress(RootHelperClient.defaultaddress).borrow(true));
             client.o.write(ControlCodes.REMOTE_CONNECT.getValue());
 
             // send host string with length
@@ -110,13 +116,24 @@ public class RemoteClientManager {
     public RemoteManager getClient(String serverHost, boolean isFastClient) {
         RemoteManager client;
         if (isFastClient) {
-            if (fastClients.containsKey(serverHost)) return fastClients.get(serverHost);
+            client = fastClients.get(serverHost);
+            if (client != null) {
+                if (client.isHealthy()) return client;
+                // health check failed, evict and reconnect
+                client.close();
+                fastClients.remove(serverHost);
+            }
             client = createAndConnectClient(serverHost);
             if (client == null) return null;
             fastClients.put(serverHost,client);
         }
         else {
-            if (longTermClients.containsKey(serverHost)) return longTermClients.get(serverHost);
+            client = longTermClients.get(serverHost);
+            if (client != null) {
+                if (client.isHealthy()) return client;
+                client.close();
+                longTermClients.remove(serverHost);
+            }
             client = createAndConnectClient(serverHost);
             if (client == null) return null;
             longTermClients.put(serverHost,client);
@@ -37,6 +37,18 @@ public class RemoteManager extends StreamsPair {
         Log.d(getClass().getName(),"Streams acquired");
     }
 
+    // takes ownership of an already connected local session (e.g. borrowed from RootHelperConnectionPool and never given back)
+    RemoteManager(RootHelperClient.RootHelperStreams rs) {
+        ls = rs.ls;
+        o = rs.o;
+        i = rs.i;
+    }
+
+    // cheap local check, a remote session whose local socket has been shut down cannot be reused
+    public boolean isHealthy() {
+        return ls != null && ls.isConnected() && !ls.isInputShutdown() && !ls.isOutputShutdown();
+    }
+
     @Override
     public void close() {
         // Close method on streams won't work, use shutdown methods
@@ -16,11 +16,11 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -34,14 +34,16 @@ import it.pgp.xfiles.enums.CopyMoveMode;
 import it.pgp.xfiles.enums.FileIOMode;
 import it.pgp.xfiles.enums.FileMode;
 import it.pgp.xfiles.enums.FileOpsErrorCodes;
-import it.pgp.xfiles.enums.ForegroundServiceType;
 import it.pgp.xfiles.enums.ProviderType;
 import it.pgp.xfiles.enums.SshKeyType;
+import it.pgp.xfiles.io.BufferPool;
 import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.items.FileCreationAdvancedOptions;
 import it.pgp.xfiles.items.SingleStatsItem;
+import it.pgp.xfiles.roothelperclient.reqs.BaseRHRequest;
 import it.pgp.xfiles.roothelperclient.reqs.ListOfPathPairs_rq;
 import it.pgp.xfiles.roothelperclient.reqs.SinglePath_rq;
+import it.pgp.xfiles.roothelperclient.reqs.batchStats_rq;
 import it.pgp.xfiles.roothelperclient.reqs.compress_rq;
 import it.pgp.xfiles.roothelperclient.reqs.compress_rq_options;
 import it.pgp.xfiles.roothelperclient.reqs.copylist_rq;
@@ -55,6 +57,7 @@ import it.pgp.xfiles.roothelperclient.reqs.link_rq;
 import it.pgp.xfiles.roothelperclient.reqs.ls_archive_rq;
 import it.pgp.xfiles.roothelperclient.reqs.ls_rq;
 import it.pgp.xfiles.roothelperclient.reqs.movelist_rq;
+import it.pgp.xfiles.roothelperclient.reqs.multiHash_rq;
 import it.pgp.xfiles.roothelperclient.reqs.multiStats_rq;
 import it.pgp.xfiles.roothelperclient.reqs.multi_extract_rq;
 import it.pgp.xfiles.roothelperclient.reqs.openssh_ed25519_keygen_rq;
@@ -63,18 +66,21 @@ import it.pgp.xfiles.roothelperclient.reqs.setDates_rq;
 import it.pgp.xfiles.roothelperclient.reqs.setOwnership_rq;
 import it.pgp.xfiles.roothelperclient.reqs.setPermission_rq;
 import it.pgp.xfiles.roothelperclient.reqs.singleStats_rq;
+import it.pgp.xfiles.roothelperclient.resps.batchStats_resp;
 import it.pgp.xfiles.roothelperclient.resps.exists_resp;
 import it.pgp.xfiles.roothelperclient.resps.folderStats_resp;
-import it.pgp.xfiles.roothelperclient.resps.ls_resp;
+import it.pgp.xfiles.roothelperclient.resps.ls_listing;
 import it.pgp.xfiles.roothelperclient.resps.singleStats_resp;
 import it.pgp.xfiles.roothelperclient.resps.ssh_keygen_resp;
 import it.pgp.xfiles.service.BaseBackgroundTask;
 import it.pgp.xfiles.service.SocketNames;
-import it.pgp.xfiles.service.visualization.ProgressIndicator;
-import it.pgp.xfiles.utils.ArchiveVMap;
+import it.pgp.xfiles.service.TaskScheduler;
+import it.pgp.xfiles.utils.ArchiveIndex;
 import it.pgp.xfiles.utils.ContentProviderUtils;
+import it.pgp.xfiles.utils.DirListingCache;
+import it.pgp.xfiles.utils.DirListingListener;
 import it.pgp.xfiles.utils.FileOperationHelper;
-import it.pgp.xfiles.utils.GenericMRU;
+import it.pgp.xfiles.utils.LRUSizedCache;
 import it.pgp.xfiles.utils.Misc;
 import it.pgp.xfiles.utils.Pair;
 import it.pgp.xfiles.utils.ProgressConflictHandler;
@@ -84,7 +90,6 @@ import it.pgp.xfiles.utils.dircontent.ArchiveSubDirWithContent;
 import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
 import it.pgp.xfiles.utils.dircontent.LocalDirWithContent;
 import it.pgp.xfiles.utils.dircontent.XFilesRemoteDirWithContent;
-import it.pgp.xfiles.utils.iterators.VMapSubTreeIterable;
 import it.pgp.xfiles.utils.pathcontent.ArchivePathContent;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 import it.pgp.xfiles.utils.pathcontent.LocalPathContent;
@@ -131,11 +136,15 @@ public class RootHelperClient implements FileOperationHelper {
         this.address = address;
     }
 
-    public class RootHelperStreams extends StreamsPair {
+    public static class RootHelperStreams extends StreamsPair {
 
         public final LocalSocket ls;
 
-        public RootHelperStreams() throws IOException {
+        // bookkeeping for RootHelperConnectionPool
+        long lastReleased;
+        int servedRequests;
+
+        public RootHelperStreams(SocketNames address) throws IOException {
             LocalSocket clientSocket = new LocalSocket();
             LocalSocketAddress socketAddress = new LocalSocketAddress(address.name(), LocalSocketAddress.Namespace.ABSTRACT);
             clientSocket.connect(socketAddress);
@@ -162,12 +171,12 @@ public class RootHelperClient implements FileOperationHelper {
     }
 
     public StreamsPair getStreams() throws IOException {
-        return new RootHelperStreams();
+        return new RootHelperStreams(address);
     }
 
     public StreamsPair getStreams(BasePathContent bpc, boolean isFastClient) throws IOException {
         if (bpc instanceof LocalPathContent) {
-            return new RootHelperStreams();
+            return new RootHelperStreams(address);
         }
         else if (bpc instanceof XREPathContent) {
             XREPathContent xrpc = (XREPathContent) bpc;
@@ -178,6 +187,49 @@ public class RootHelperClient implements FileOperationHelper {
         else throw new RuntimeException("Guard block");
     }
 
+    public RootHelperConnectionPool getPool() {
+        return RootHelperConnectionPool.forAddress(address);
+    }
+
+    private interface PooledCall<R> {
+        R call(RootHelperStreams rs) throws IOException;
+    }
+
+    /*
+     * Runs a short, read-only request over a pooled keep-alive connection. The connection is given back
+     * to the pool only if the response has been fully consumed (i.e. no exception); a reused connection
+     * that turns out to be stale is evicted and the request is retried once over a fresh one
+     */
+    private <R> R withPooledStreams(PooledCall<R> call) throws IOException {
+        RootHelperConnectionPool pool = getPool();
+        RootHelperStreams rs = pool.borrow();
+        try {
+            R ret = call.call(rs);
+            pool.release(rs);
+            return ret;
+        }
+        catch (IOException e) {
+            pool.evict(rs);
+            if (rs.servedRequests == 0) throw e;
+            Log.w("roothelperclient","Stale pooled connection, retrying with a new one");
+        }
+        catch (RuntimeException e) {
+            pool.evict(rs);
+            throw e;
+        }
+
+        rs = pool.create();
+        try {
+            R ret = call.call(rs);
+            pool.release(rs);
+            return ret;
+        }
+        catch (IOException|RuntimeException e) {
+            pool.evict(rs);
+            throw e;
+        }
+    }
+
     // TODO may be useful in all long-term tasks, change following comment if needed
     public StreamsPair rs; // exposed in order to force closing connection and terminate forked p7zip process on service close
 
@@ -245,47 +297,14 @@ public class RootHelperClient implements FileOperationHelper {
      ***************************************************************************/
 
     // only with RESPONSE_OK
-    public static List<BrowserItem> assembleContentFromLsResps(DataInputStream clientInStream) throws IOException {
-        List<BrowserItem> dirContent = new ArrayList<>();
-        // read len, if 0 stop reading
-        ls_resp resp = ls_resp.readNext(clientInStream);
-        while (resp != null) {
-            // TODO modify BrowserItem to host all permission instead of only isDirectory
-//            BrowserItem b =
-//                    new BrowserItem(new String(resp.filename,"UTF-8"),
-//                            resp.size,
-//                            new Date(resp.date*1000),
-//                            new String(resp.permissions, "UTF-8").charAt(0) == 'd');
-//            dirContent.add(b);
-            dirContent.add(new BrowserItem(resp));
-            resp = ls_resp.readNext(clientInStream);
-        }
-        return dirContent;
+    // decodes the whole listing into columnar form, per-item objects are created only by the caller if needed
+    public static ls_listing assembleContentFromLsResps(DataInputStream clientInStream) throws IOException {
+        return ls_listing.readAll(clientInStream);
     }
 
-    private ArchiveVMap fillArchiveVMap(DataInputStream clientInStream) throws IOException {
-        ArchiveVMap v = new ArchiveVMap();
-        // read len, if 0 stop reading
-        ls_resp resp = ls_resp.readNext(clientInStream);
-        int entryCnt = 0; // for extracting selected files, it is necessary to know their position in the archive entries list
-        while (resp != null) {
-            if(resp.permissions[0] != '!') {
-                List<String> inArchivePath = new ArrayList<>(Arrays.asList((new String(resp.filename, StandardCharsets.UTF_8)).split("/")));
-                inArchivePath.add(ArchiveVMap.sentinelKeyForNodeProperties);
-
-                Map<String,Object> nodeProps = new HashMap<>();
-
-                nodeProps.put("i",entryCnt);
-                nodeProps.put("size",resp.size);
-                nodeProps.put("date",new Date(resp.date*1000L));
-                nodeProps.put("isDir",new String(resp.permissions, StandardCharsets.UTF_8).charAt(0) == 'd');
-
-                v.set(nodeProps,inArchivePath.toArray()); // put in vMap with properties
-            }
-            resp = ls_resp.readNext(clientInStream);
-            entryCnt++;
-        }
-        return v;
+    private ArchiveIndex fillArchiveIndex(DataInputStream clientInStream) throws IOException {
+        // entry position in the listing is needed for extracting selected files
+        return ArchiveIndex.fromListing(ls_listing.readAll(clientInStream));
     }
 
     // ls interaction return list of BrowserItem (which is only a representation class, not a business logic one)
@@ -293,74 +312,133 @@ public class RootHelperClient implements FileOperationHelper {
     // an intermediate DirWithContent object
 
     public GenericDirWithContent listDirectory(BasePathContent dirPath) {
+        if (dirPath instanceof LocalPathContent) {
+            try {
+                return withPooledStreams(rs -> listDirectory(rs,dirPath,null));
+            }
+            catch (IOException e) {
+                return new LocalDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
+            }
+        }
+        return listRemoteDirectory(dirPath,null);
+    }
+
+    @Override
+    public GenericDirWithContent listDirectory(BasePathContent dirPath, DirListingListener listener) {
+        if (dirPath instanceof LocalPathContent) {
+            RootHelperConnectionPool pool = getPool();
+            RootHelperStreams rs = null;
+            try {
+                // always validated, a request cannot be transparently retried once some chunks have been delivered
+                rs = pool.borrow(true);
+                GenericDirWithContent dwc = listDirectory(rs,dirPath,listener);
+                if (dwc.errorCode == FileOpsErrorCodes.LISTING_CANCELLED) rs.close(); // response not fully read
+                else pool.release(rs);
+                return dwc;
+            }
+            catch (IOException e) {
+                if (rs != null) pool.evict(rs);
+                return new LocalDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
+            }
+            catch (RuntimeException e) {
+                if (rs != null) pool.evict(rs);
+                throw e;
+            }
+        }
+        return listRemoteDirectory(dirPath,listener);
+    }
+
+    private GenericDirWithContent listRemoteDirectory(BasePathContent dirPath, @Nullable DirListingListener listener) {
+        String serverHost = ((XREPathContent)dirPath).serverHost;
         StreamsPair rs = null;
         try {
             rs = getStreams(dirPath,true);
+            synchronized (rs) { // fast client is shared with DirPrefetcher
+                // on cancellation the rest of the response is still read and discarded, so that the shared
+                // fast client is left usable for the next request (e.g. the user's listing waiting on the lock)
+                boolean[] cancelled = {false};
+                DirListingListener draining = listener == null ? null : chunk -> {
+                    if (!cancelled[0]) cancelled[0] = !listener.onChunk(chunk);
+                    return true;
+                };
+                GenericDirWithContent dwc = listDirectory(rs,dirPath,draining);
+                if (cancelled[0]) return new GenericDirWithContent(FileOpsErrorCodes.LISTING_CANCELLED);
+                return dwc;
+            }
+        }
+        catch (IOException e) {
+            try { rs.close(); } catch (Exception ignored) {}
+            MainActivity.rootHelperRemoteClientManager.fastClients.remove(serverHost);
+            return new XFilesRemoteDirWithContent(serverHost, FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
+        }
+    }
 
-            List<BrowserItem> dirContent;
-            SinglePath_rq req = new ls_rq(dirPath.dir);
+    private GenericDirWithContent listDirectory(StreamsPair rs, BasePathContent dirPath, @Nullable DirListingListener listener) throws IOException {
+        List<BrowserItem> dirContent;
+        SinglePath_rq req = new ls_rq(dirPath.dir);
 
-            // send request
-            req.write(rs.o);
-            Log.d("roothelperclient","Ls request sent");
+        // send request
+        req.write(rs.o);
+        Log.d("roothelperclient","Ls request sent");
 
 
-            // read responses (one item per file in directory)
-            // read control byte (ok or error) // TODO embed in constructor? create two response classes (base response -1 file - and full response (accounting length-0 list termination)?
+        // read responses (one item per file in directory)
+        // read control byte (ok or error) // TODO embed in constructor? create two response classes (base response -1 file - and full response (accounting length-0 list termination)?
 
-            // TODO response byte to be embedded in response classes (maybe also request byte)
-            byte responseByte = rs.i.readByte();
-            ResponseCodes c = ResponseCodes.getCode(responseByte);
+        // TODO response byte to be embedded in response classes (maybe also request byte)
+        byte responseByte = rs.i.readByte();
+        ResponseCodes c = ResponseCodes.getCode(responseByte);
 
-            switch(c) {
-                case RESPONSE_REDIRECT:
-                    // read and replace redirect path before directory content
-                    dirPath.dir = Misc.receiveStringWithLen(rs.i);
-                    // missing break statement is intentional here
-                case RESPONSE_OK:
-                    dirContent = assembleContentFromLsResps(rs.i);
+        switch(c) {
+            case RESPONSE_REDIRECT:
+                // read and replace redirect path before directory content
+                dirPath.dir = Misc.receiveStringWithLen(rs.i);
+                // missing break statement is intentional here
+            case RESPONSE_OK:
+                if (listener == null) {
+                    dirContent = assembleContentFromLsResps(rs.i).toBrowserItems();
                     break;
-                case RESPONSE_ERROR:
-                    // propagate errno within DirWithContent object
-                    byte[] errno_ = new byte[4];
-                    rs.i.readFully(errno_);
-                    int errno = (int) Misc.castBytesToUnsignedNumber(errno_,4);
-                    Log.e("roothelper","Error returned from roothelper server: "+errno);
-                    if(dirPath.equals(XFilesUtils.dataApp))
-                        return XFilesUtils.listDataAppWithoutRoot();
-                    return new LocalDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS); // TODO errno constants in enum
-                default:
-                    throw new RuntimeException("Unexpected response code from roothelper server: "+(int)responseByte);
-            }
-
-            if (dirPath instanceof LocalPathContent)
-                return new LocalDirWithContent(dirPath.dir,dirContent);
-            else
-                return new XFilesRemoteDirWithContent(
-                        ((XREPathContent)dirPath).serverHost,
-                        dirPath.dir,
-                        dirContent);
-        }
-        catch (IOException e) {
-            try { rs.close(); } catch (Exception ignored) {}
-            if (dirPath instanceof LocalPathContent)
-                return new LocalDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
-            else {
-                MainActivity.rootHelperRemoteClientManager.fastClients.remove(((XREPathContent)dirPath).serverHost);
-                return new XFilesRemoteDirWithContent(
-                        ((XREPathContent)dirPath).serverHost,
-                        FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
-            }
-        }
-        finally {
-            if (dirPath instanceof LocalPathContent) {
-                try { rs.close(); } catch (Exception ignored) {}
-            }
+                }
+                // streamed: decode and deliver one chunk at a time, reusing the same columnar buffers
+                dirContent = new ArrayList<>();
+                ls_listing listing = new ls_listing(LISTING_CHUNK_SIZE);
+                boolean more;
+                do {
+                    listing.clear();
+                    more = listing.readChunk(rs.i, LISTING_CHUNK_SIZE);
+                    if (listing.count == 0) break;
+                    List<BrowserItem> chunk = listing.toBrowserItems();
+                    dirContent.addAll(chunk);
+                    if (!listener.onChunk(chunk)) return new GenericDirWithContent(FileOpsErrorCodes.LISTING_CANCELLED);
+                } while (more);
+                break;
+            case RESPONSE_ERROR:
+                // propagate errno within DirWithContent object
+                byte[] errno_ = new byte[4];
+                rs.i.readFully(errno_);
+                int errno = (int) Misc.castBytesToUnsignedNumber(errno_,4);
+                Log.e("roothelper","Error returned from roothelper server: "+errno);
+                if(dirPath.equals(XFilesUtils.dataApp))
+                    return XFilesUtils.listDataAppWithoutRoot();
+                return new LocalDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS); // TODO errno constants in enum
+            default:
+                throw new RuntimeException("Unexpected response code from roothelper server: "+(int)responseByte);
         }
+
+        if (dirPath instanceof LocalPathContent)
+            return new LocalDirWithContent(dirPath.dir,dirContent);
+        else
+            return new XFilesRemoteDirWithContent(
+                    ((XREPathContent)dirPath).serverHost,
+                    dirPath.dir,
+                    dirContent);
     }
 
     // because there are points when a new RootHelper instance is created locally
-    public static final GenericMRU<String,ArchiveVMap> archiveMRU = new GenericMRU<>(10); // up to 10 entries
+    // bounded by estimated index size (1/8 of max heap by default) instead of entry count
+    public static final LRUSizedCache<String,ArchiveIndex> archiveMRU = new LRUSizedCache<>(
+            Runtime.getRuntime().maxMemory()/8,
+            ArchiveIndex::getEstimatedBytes);
 
     // password may be null
     @Override
@@ -370,7 +448,7 @@ public class RootHelperClient implements FileOperationHelper {
         String path;
         String subpath;
         String password;
-        ArchiveVMap archiveMap;
+        ArchiveIndex archiveMap;
 
         try {
             // retrieve modification time of the archive file
@@ -411,7 +489,7 @@ public class RootHelperClient implements FileOperationHelper {
 
                 // receive response
                 int errno = Misc.receiveBaseResponse(rs.i);
-                if (errno==0) archiveMap = fillArchiveVMap(rs.i);
+                if (errno==0) archiveMap = fillArchiveIndex(rs.i);
                 else if (errno == 0x101010) return new GenericDirWithContent(FileOpsErrorCodes.NULL_OR_WRONG_PASSWORD);
                 else return new GenericDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
             }
@@ -420,40 +498,14 @@ public class RootHelperClient implements FileOperationHelper {
             }
 
             archiveMRU.setLatest(path,archiveMap,modifiedFileDate);
+            Log.d("roothelperclient","Archive cache: "+archiveMRU.getStats());
         }
         // at this point, if the file exists, the vmap is non null
         // retrieve subdir-only entries into genericdirwithcontent object
 
-        List<BrowserItem> content = new ArrayList<>();
-        List<String> inArchivePath = Arrays.asList(subpath.split("/"));
-
-        if (inArchivePath.size()>0) { // get subdir children
-            Map<String,Object> map = (Map) archiveMap.get(inArchivePath.toArray());
-            for (Map.Entry entry: map.entrySet()) {
-                if (
-                        entry != null &&
-                                !entry.getKey().equals(ArchiveVMap.sentinelKeyForNodeProperties)) {
-                    content.add(
-                            new BrowserItem(
-                                    (String)(entry.getKey()),
-                                    (Map<String,Object>)((Map<String,Object>)entry.getValue()).get(ArchiveVMap.sentinelKeyForNodeProperties)
-                            )
-                    );
-                }
-            }
-        }
-        else { // get children of root
-            for (Map.Entry entry: archiveMap.h.entrySet()) {
-                if (!entry.getKey().equals(ArchiveVMap.sentinelKeyForNodeProperties)) {
-                    content.add(
-                            new BrowserItem(
-                                    (String)(entry.getKey()),
-                                    (Map<String,Object>)((Map<String,Object>)entry.getValue()).get(ArchiveVMap.sentinelKeyForNodeProperties)
-                            )
-                    );
-                }
-            }
-        }
+        int node = archiveMap.lookup(subpath);
+        if (node < 0) return new GenericDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
+        List<BrowserItem> content = archiveMap.listChildren(node);
 
         return new ArchiveSubDirWithContent(path,subpath,content);
     }
@@ -714,8 +766,8 @@ public class RootHelperClient implements FileOperationHelper {
         if(srcArchives.size() != 1) throw new RuntimeException("Guard block");
 
         ArchivePathContent srcArchive = (ArchivePathContent) srcArchives.get(0);
-        ArchiveVMap avm = archiveMRU.getByPath(srcArchive.archivePath);
-        if (avm == null) throw new RuntimeException("VMap should be non-null once in archive!");
+        ArchiveIndex avm = archiveMRU.getByPath(srcArchive.archivePath);
+        if (avm == null) throw new RuntimeException("Archive index should be non-null once in archive!");
 
         List<Integer> entries = new ArrayList<>();
 
@@ -753,7 +805,9 @@ public class RootHelperClient implements FileOperationHelper {
             if (file.providerType!=ProviderType.LOCAL) return -1;
             setDates_rq rq = new setDates_rq(file.dir,accessDate,modificationDate);
             rq.write(rs.o);
-            return Misc.receiveBaseResponse(rs.i);
+            int ret = Misc.receiveBaseResponse(rs.i);
+            if (ret == 0) DirListingCache.invalidate(file.getParent()); // attributes shown in the parent listing
+            return ret;
         }
         catch (Exception e) {
             return -1;
@@ -766,7 +820,9 @@ public class RootHelperClient implements FileOperationHelper {
             if (file.providerType!=ProviderType.LOCAL) return -1;
             setPermission_rq rq = new setPermission_rq(file.dir,permMask);
             rq.write(rs.o);
-            return Misc.receiveBaseResponse(rs.i);
+            int ret = Misc.receiveBaseResponse(rs.i);
+            if (ret == 0) DirListingCache.invalidate(file.getParent()); // attributes shown in the parent listing
+            return ret;
         }
         catch (Exception e) {
             return -1;
@@ -786,23 +842,11 @@ public class RootHelperClient implements FileOperationHelper {
         }
     }
 
-    private List<Integer> getEntries(ArchiveVMap vMap, String relToArchivePathname) throws IOException {
-        List<Integer> entries = new ArrayList<>();
-
+    private List<Integer> getEntries(ArchiveIndex index, String relToArchivePathname) throws IOException {
         if (relToArchivePathname.equals("") || relToArchivePathname.equals("/"))
             throw new RuntimeException("This condition should be managed earlier than here");
 
-        VMapSubTreeIterable it = new VMapSubTreeIterable(vMap,relToArchivePathname.split("/"));
-
-        for (Map.Entry me : it) {
-            if (me.getKey().equals(ArchiveVMap.sentinelKeyForNodeProperties)) {
-                Map x = (Map)me.getValue();
-                Integer ii = (Integer) x.get("i");
-                entries.add(ii);
-            }
-        }
-
-        return entries;
+        return index.getEntries(relToArchivePathname);
     }
 
     private List<FileOpsErrorCodes> extract(List<BasePathContent> archives,
@@ -877,9 +921,11 @@ public class RootHelperClient implements FileOperationHelper {
                 new create_rq(path.dir, fileOrDirectory);
         int errno;
         StreamsPair rs = getStreams(path,true);
-        req.write(rs.o);
-        Log.d("roothelperclient","Create request sent");
-        errno = Misc.receiveBaseResponse(rs.i);
+        synchronized (rs) {
+            req.write(rs.o);
+            Log.d("roothelperclient","Create request sent");
+            errno = Misc.receiveBaseResponse(rs.i);
+        }
         String errMsg;
         if(errno == 0) return;
         else if(errno == 17)
@@ -897,8 +943,11 @@ public class RootHelperClient implements FileOperationHelper {
             throw new RuntimeException("Target and link paths must belong to the same filesystem");
         StreamsPair rs = getStreams(originPath,true);
         link_rq rq = new link_rq(originPath.dir,linkPath.dir,isHardLink);
-        rq.write(rs.o);
-        int errno = Misc.receiveBaseResponse(rs.i);
+        int errno;
+        synchronized (rs) {
+            rq.write(rs.o);
+            errno = Misc.receiveBaseResponse(rs.i);
+        }
         if (errno != 0) throw new IOException("link creation error, errno is "+errno);
     }
 
@@ -908,10 +957,11 @@ public class RootHelperClient implements FileOperationHelper {
         switch (filePath.providerType) {
             case LOCAL:
                 exists_rq rq = new exists_rq(filePath.dir,exists,isFile,isDir);
-                try (StreamsPair rs = getStreams()) {
-                    rq.write(rs.o);
-                    exists_resp resp = new exists_resp(rs.i);
-                    return resp.respFlags;
+                try {
+                    return withPooledStreams(rs -> {
+                        rq.write(rs.o);
+                        return new exists_resp(rs.i).respFlags;
+                    });
                 }
                 catch (IOException ignored) {}
                 return ret;
@@ -938,6 +988,82 @@ public class RootHelperClient implements FileOperationHelper {
         return existsIsFileIsDir(filePath,false,false,true).get(2);
     }
 
+    private static final int PROBE_TIMEOUT_MS = 2000;
+
+    /*
+     * Sends an empty request of a newer type over a throwaway connection: a server not supporting it
+     * would misinterpret any following bytes of a real request as further requests, so it must not receive one.
+     * Empty requests are answered by a RESPONSE_OK byte alone.
+     */
+    private static boolean probeEmptyRequest(RootHelperConnectionPool pool, BaseRHRequest emptyRequest) {
+        RootHelperStreams rs = null;
+        try {
+            rs = pool.create();
+            rs.ls.setSoTimeout(PROBE_TIMEOUT_MS);
+            emptyRequest.write(rs.o);
+            return rs.i.readByte() == ResponseCodes.RESPONSE_OK.getValue();
+        }
+        catch (IOException e) {
+            return false;
+        }
+        finally {
+            if (rs != null) rs.close();
+        }
+    }
+
+    private boolean probeBatchStats(RootHelperConnectionPool pool) {
+        Boolean supported = pool.isBatchStatsSupported();
+        if (supported != null) return supported;
+        supported = probeEmptyRequest(pool,new batchStats_rq(Collections.emptyList()));
+        Log.d("roothelperclient","Batch stats supported by roothelper server: "+supported);
+        pool.setBatchStatsSupported(supported);
+        return supported;
+    }
+
+    private boolean probeMultiHash(RootHelperConnectionPool pool) {
+        Boolean supported = pool.isMultiHashSupported();
+        if (supported != null) return supported;
+        supported = probeEmptyRequest(pool,new multiHash_rq("",Collections.emptyList(),new BitSet()));
+        Log.d("roothelperclient","Multi hash supported by roothelper server: "+supported);
+        pool.setMultiHashSupported(supported);
+        return supported;
+    }
+
+    /**
+     * Exists/type, modification time and size of many local paths, with a single request frame
+     * (or, with older roothelper servers, pipelined single stats requests over one connection)
+     * Results are in the same order of paths
+     */
+    public batchStats_resp statBatch(List<? extends BasePathContent> paths) throws IOException {
+        batchStats_resp resp = new batchStats_resp(paths.size());
+        if (paths.isEmpty()) return resp;
+        List<String> pathnames = new ArrayList<>(paths.size());
+        for (BasePathContent path : paths) {
+            if (path.providerType != ProviderType.LOCAL)
+                throw new RuntimeException("Guard block");
+            pathnames.add(path.dir);
+        }
+
+        RootHelperConnectionPool pool = getPool();
+        if (probeBatchStats(pool)) {
+            batchStats_rq rq = new batchStats_rq(pathnames);
+            withPooledStreams(rs -> {
+                rq.write(rs.o);
+                if (Misc.receiveBaseResponse(rs.i) != 0)
+                    throw new IOException("Batch stats request failed");
+                resp.readAll(rs.i);
+                return resp;
+            });
+            return resp;
+        }
+
+        List<singleStats_rq> rqs = new ArrayList<>(pathnames.size());
+        for (String pathname : pathnames) rqs.add(new singleStats_rq(pathname,FileMode.FILE));
+        RootHelperPipeline.run(pool,rqs,(index,i) ->
+                resp.set(index, Misc.receiveBaseResponse(i) == 0 ? new singleStats_resp(i) : null));
+        return resp;
+    }
+
     // TODO to be tested
     // client test case for delete request-response interaction(s)
     @Override
@@ -1003,44 +1129,46 @@ public class RootHelperClient implements FileOperationHelper {
     public SingleStatsItem statFile(BasePathContent pathname) throws IOException {
         switch (pathname.providerType) {
             case LOCAL:
-                StreamsPair rs = getStreams();
-
                 singleStats_rq rq = new singleStats_rq(pathname.dir,FileMode.FILE);
-                rq.write(rs.o);
+                singleStats_resp resp = withPooledStreams(rs -> {
+                    rq.write(rs.o);
 
-                if (Misc.receiveBaseResponse(rs.i) != 0) return null;
+                    if (Misc.receiveBaseResponse(rs.i) != 0) return null;
 
-                // receive and return response
-                singleStats_resp resp = new singleStats_resp(rs.i);
-                rs.close();
-                return new SingleStatsItem(resp);
+                    // receive and return response
+                    return new singleStats_resp(rs.i);
+                });
+                return resp == null ? null : new SingleStatsItem(resp);
 
             case LOCAL_WITHIN_ARCHIVE:
-                ArchiveVMap v = archiveMRU.getByPath(((ArchivePathContent)pathname).archivePath);
+                ArchiveIndex v = archiveMRU.getByPath(((ArchivePathContent)pathname).archivePath);
                 if (v == null)
-                    throw new RuntimeException("ArchiveVMap should already be populated within archive");
-                Map nodeProps = v.getNodeProps(pathname.dir);
+                    throw new RuntimeException("Archive index should already be populated within archive");
+                int node = v.lookup(pathname.dir);
+                // the directory node need not necessarily be present in an archive
+                boolean isDir = node < 0 || v.isDir(node);
                 return new SingleStatsItem(
                         "", // empty group
                         "", // empty owner
                         new Date(0L),
                         new Date(0L),
-                        (Date)nodeProps.get("date"),
-                        (boolean)nodeProps.get("isDir")?"d---------":"----------",
-                        (long)nodeProps.get("size")
+                        new Date(node < 0 ? 0L : v.getDateMillis(node)),
+                        isDir?"d---------":"----------",
+                        node < 0 ? 0L : v.getSize(node)
                 );
             case XFILES_REMOTE:
                 XREPathContent xrpc = (XREPathContent) pathname;
                 RemoteManager rm = MainActivity.rootHelperRemoteClientManager.getClient(xrpc.serverHost,true);
                 if (rm == null) return null;
-                // TODO stats_resp
-                rq = new singleStats_rq(pathname.dir,FileMode.FILE);
-                rq.write(rm.o);
+                synchronized (rm) {
+                    // TODO stats_resp
+                    new singleStats_rq(pathname.dir,FileMode.FILE).write(rm.o);
 
-                if (Misc.receiveBaseResponse(rm.i) != 0) return null;
+                    if (Misc.receiveBaseResponse(rm.i) != 0) return null;
 
-                // receive and return response
-                resp = new singleStats_resp(rm.i);
+                    // receive and return response
+                    resp = new singleStats_resp(rm.i);
+                }
                 return new SingleStatsItem(resp);
 
             default:
@@ -1053,43 +1181,40 @@ public class RootHelperClient implements FileOperationHelper {
         if (files.isEmpty()) throw new IOException("statfiles list empty, cannot determine provider type");
         switch(files.get(0).providerType) {
             case LOCAL:
-                StreamsPair rs = getStreams();
                 List<String> tmp = new ArrayList<>();
                 for (BasePathContent bpc : files) tmp.add(bpc.dir);
                 multiStats_rq rq = new multiStats_rq(tmp);
-                rq.write(rs.o);
+                return withPooledStreams(rs -> {
+                    rq.write(rs.o);
 
-                int errno = Misc.receiveBaseResponse(rs.i);
-                if (errno != 0) {
-                    Log.e("roothelperclient", "statFiles: Some files could not be stat, error code: " + errno);
-                }
+                    int errno_ = Misc.receiveBaseResponse(rs.i);
+                    if (errno_ != 0) {
+                        Log.e("roothelperclient", "statFiles: Some files could not be stat, error code: " + errno_);
+                    }
 
-                // TODO propagate errno along with response
-                // receive and return response
-                folderStats_resp response = new folderStats_resp(rs.i);
-                rs.close();
-                return response;
+                    // TODO propagate errno along with response
+                    // receive and return response
+                    return new folderStats_resp(rs.i);
+                });
             case LOCAL_WITHIN_ARCHIVE:
                 // stat inner folder of archive (that is, archive is already opened and vmap is in memory)
-                ArchiveVMap v = archiveMRU.getByPath(((ArchivePathContent) files.get(0)).archivePath);
+                ArchiveIndex v = archiveMRU.getByPath(((ArchivePathContent) files.get(0)).archivePath);
                 if (v == null)
-                    throw new RuntimeException("ArchiveVMap should already be populated within archive");
+                    throw new RuntimeException("Archive index should already be populated within archive");
 
                 long childrenFiles = 0, childrenDirs = 0, totalFiles = 0, totalDirs = 0, totalSize = 0;
                 for (BasePathContent pathname : files) {
-                    VMapSubTreeIterable it = new VMapSubTreeIterable(v, pathname.dir.split("/"));
+                    ArchiveIndex.SubTreeIterator it = v.subTree(pathname.dir);
 
                     // FIXME currently, also the current folder node is taken into account when iterating (so, totalFolders is shifted up by 1)
-                    for (Map.Entry me : it) {
-                        if (me.getKey().equals(ArchiveVMap.sentinelKeyForNodeProperties)) {
-                            Map x = (Map) me.getValue();
-                            // TODO populate children files and dirs as well
-                            boolean isDir = (boolean) x.get("isDir");
-                            if (isDir) totalDirs++;
-                            else {
-                                totalFiles++;
-                                totalSize += (long) x.get("size");
-                            }
+                    while (it.hasNext()) {
+                        int n = it.next();
+                        if (!v.hasEntry(n)) continue;
+                        // TODO populate children files and dirs as well
+                        if (v.isDir(n)) totalDirs++;
+                        else {
+                            totalFiles++;
+                            totalSize += v.getSize(n);
                         }
                     }
                 }
@@ -1108,17 +1233,18 @@ public class RootHelperClient implements FileOperationHelper {
 
                 tmp = new ArrayList<>();
                 for (BasePathContent bpc : files) tmp.add(bpc.dir);
-                rq = new multiStats_rq(tmp);
-                rq.write(rm.o);
+                synchronized (rm) {
+                    new multiStats_rq(tmp).write(rm.o);
 
-                errno = Misc.receiveBaseResponse(rm.i);
-                if (errno != 0) {
-                    Log.e("roothelperclient", "Some files could not be stat, error code: " + errno);
-                }
+                    int errno = Misc.receiveBaseResponse(rm.i);
+                    if (errno != 0) {
+                        Log.e("roothelperclient", "Some files could not be stat, error code: " + errno);
+                    }
 
-                // TODO propagate errno along with response
-                // receive and return response
-                return new folderStats_resp(rm.i);
+                    // TODO propagate errno along with response
+                    // receive and return response
+                    return new folderStats_resp(rm.i);
+                }
             default:
                 throw new RuntimeException("Roothelper should not be the current helper when exploring SFTP paths");
         }
@@ -1128,40 +1254,37 @@ public class RootHelperClient implements FileOperationHelper {
     public folderStats_resp statFolder(BasePathContent pathname) throws IOException {
         switch(pathname.providerType) {
             case LOCAL:
-                StreamsPair rs = getStreams();
                 singleStats_rq rq = new singleStats_rq(pathname.dir, FileMode.DIRECTORY);
-                rq.write(rs.o);
+                return withPooledStreams(rs -> {
+                    rq.write(rs.o);
 
-                int errno = Misc.receiveBaseResponse(rs.i);
-                if (errno != 0)
-                    Log.e("roothelperclient", "Some files could not be stat, error code: " + errno);
+                    int errno_ = Misc.receiveBaseResponse(rs.i);
+                    if (errno_ != 0)
+                        Log.e("roothelperclient", "Some files could not be stat, error code: " + errno_);
 
-                // TODO propagate errno along with response
-                // receive and return response
-                folderStats_resp response = new folderStats_resp(rs.i);
-                rs.close();
-                return response;
+                    // TODO propagate errno along with response
+                    // receive and return response
+                    return new folderStats_resp(rs.i);
+                });
             case LOCAL_WITHIN_ARCHIVE:
                 // stat inner folder of archive (that is, archive is already opened and vmap is in memory)
-                ArchiveVMap v = archiveMRU.getByPath(((ArchivePathContent) pathname).archivePath);
+                ArchiveIndex v = archiveMRU.getByPath(((ArchivePathContent) pathname).archivePath);
                 if (v == null)
-                    throw new RuntimeException("ArchiveVMap should already be populated within archive");
+                    throw new RuntimeException("Archive index should already be populated within archive");
 
-                VMapSubTreeIterable it = new VMapSubTreeIterable(v, pathname.dir.split("/"));
+                ArchiveIndex.SubTreeIterator it = v.subTree(pathname.dir);
 
                 long childrenFiles = 0, childrenDirs = 0, totalFiles = 0, totalDirs = 0, totalSize = 0;
 
                 // FIXME currently, also the current folder node is taken into account when iterating (so, totalFolders is shifted up by 1)
-                for (Map.Entry me : it) {
-                    if (me.getKey().equals(ArchiveVMap.sentinelKeyForNodeProperties)) {
-                        Map x = (Map) me.getValue();
-                        // TODO populate children files and dirs as well
-                        boolean isDir = (boolean) x.get("isDir");
-                        if (isDir) totalDirs++;
-                        else {
-                            totalFiles++;
-                            totalSize += (long) x.get("size");
-                        }
+                while (it.hasNext()) {
+                    int n = it.next();
+                    if (!v.hasEntry(n)) continue;
+                    // TODO populate children files and dirs as well
+                    if (v.isDir(n)) totalDirs++;
+                    else {
+                        totalFiles++;
+                        totalSize += v.getSize(n);
                     }
                 }
 
@@ -1176,16 +1299,17 @@ public class RootHelperClient implements FileOperationHelper {
                 RemoteManager rm = MainActivity.rootHelperRemoteClientManager.getClient(xrpc.serverHost, true);
                 if (rm == null) return null;
 
-                rq = new singleStats_rq(pathname.dir, FileMode.DIRECTORY);
-                rq.write(rm.o);
+                synchronized (rm) {
+                    new singleStats_rq(pathname.dir, FileMode.DIRECTORY).write(rm.o);
 
-                errno = Misc.receiveBaseResponse(rm.i);
-                if (errno != 0)
-                    Log.e("roothelperclient", "Some files could not be stat, error code: " + errno);
+                    int errno = Misc.receiveBaseResponse(rm.i);
+                    if (errno != 0)
+                        Log.e("roothelperclient", "Some files could not be stat, error code: " + errno);
 
-                // TODO propagate errno along with response
-                // receive and return response
-                return new folderStats_resp(rm.i);
+                    // TODO propagate errno along with response
+                    // receive and return response
+                    return new folderStats_resp(rm.i);
+                }
             default:
                 throw new RuntimeException("Roothelper should not be the current helper when exploring SFTP paths");
         }
@@ -1281,45 +1405,181 @@ public class RootHelperClient implements FileOperationHelper {
     public byte[] hashFile(BasePathContent pathname,
                            HashRequestCodes hashAlgorithm,
                            BitSet dirHashOpts) throws IOException {
-        if (pathname instanceof XREPathContent)
-            if (!ProgressIndicator.acquire(ForegroundServiceType.XRE_HASH)) return null;
-
+        // local hash requests go through the connection pool, always validating a reused connection
+        // since a hash request can be long (and is not retried on failure);
+        // local streams, not the shared rs field, since hash requests can be issued concurrently (ChecksumScheduler)
+        if (!(pathname instanceof XREPathContent))
+            return hashLocalPooled(getPool(),pathname.dir,hashAlgorithm,dirHashOpts);
+
+        if (!TaskScheduler.tryAcquireXreHash()) return null;
+        StreamsPair xs = null;
         try {
-            rs = getStreams(pathname,false);
+            xs = getStreams(pathname,false);
             SinglePath_rq rq = new hash_rq(
                     pathname.dir,
                     hashAlgorithm,
                     dirHashOpts
             );
-            rq.write(rs.o);
+            rq.write(xs.o);
 
-            int resp = Misc.receiveBaseResponse(rs.i);
+            byte[] digest = null;
+            int resp = Misc.receiveBaseResponse(xs.i);
             if (resp == 0) {
-                byte[] digest = new byte[hashAlgorithm.getLength()];
-                rs.i.readFully(digest);
-                return digest;
+                digest = new byte[hashAlgorithm.getLength()];
+                xs.i.readFully(digest);
             }
-            return null;
+            return digest;
         }
         catch (IOException e) {
-            if (pathname instanceof XREPathContent) {
-                rs.close();
-                MainActivity.rootHelperRemoteClientManager.longTermClients.remove(((XREPathContent)pathname).serverHost);
-                return null;
+            if (xs != null) xs.close();
+            MainActivity.rootHelperRemoteClientManager.longTermClients.remove(((XREPathContent)pathname).serverHost);
+            return null;
+        }
+        finally {
+            TaskScheduler.releaseXreHash();
+        }
+    }
+
+    private static final int MULTI_HASH_XRE_PROBE_TIMEOUT_MS = 10000;
+
+    /**
+     * Several digests of the same file or directory, with a single read pass when the roothelper server
+     * supports {@link ControlCodes#ACTION_MULTI_HASH} (for XRE paths, the remote one).
+     * With older servers, paths are hashed once per algorithm, sequentially (local paths over pooled connections,
+     * XRE paths over the long-term client)
+     * @return digests by algorithm, or null on error
+     */
+    @Override
+    public Map<HashRequestCodes,byte[]> hashFile(BasePathContent pathname,
+                                                 Collection<HashRequestCodes> hashAlgorithms,
+                                                 BitSet dirHashOpts) throws IOException {
+        Map<HashRequestCodes,byte[]> digests = new EnumMap<>(HashRequestCodes.class);
+        if (hashAlgorithms.isEmpty()) return digests;
+        if (hashAlgorithms.size() == 1) { // plain hash request, no need to probe
+            HashRequestCodes h = hashAlgorithms.iterator().next();
+            byte[] digest = hashFile(pathname,h,dirHashOpts);
+            if (digest == null) return null;
+            digests.put(h,digest);
+            return digests;
+        }
+
+        multiHash_rq rq = new multiHash_rq(pathname.dir,hashAlgorithms,dirHashOpts);
+        if (pathname instanceof XREPathContent) return hashFileMultiXRE((XREPathContent) pathname,rq);
+        if (!(pathname instanceof LocalPathContent)) throw new RuntimeException("Guard block");
+
+        RootHelperConnectionPool pool = getPool();
+        if (probeMultiHash(pool)) {
+            RootHelperStreams pooled = pool.borrow(true);
+            boolean completed = false;
+            try {
+                rq.write(pooled.o);
+                if (Misc.receiveBaseResponse(pooled.i) == 0) readMultiHash(pooled.i,rq,digests);
+                else digests = null;
+                completed = true;
+                return digests;
+            }
+            finally {
+                if (completed) pool.release(pooled);
+                else pool.evict(pooled);
+            }
+        }
+
+        // older server, one request per algorithm, sequentially (files are already hashed in parallel by ChecksumScheduler)
+        for (HashRequestCodes h : rq.hashAlgorithms) {
+            byte[] digest = hashLocalPooled(pool,pathname.dir,h,dirHashOpts);
+            if (digest == null) return null;
+            digests.put(h,digest);
+        }
+        return digests;
+    }
+
+    // like the local branch of hashFile, without touching the shared rs field (can be called concurrently)
+    private static byte[] hashLocalPooled(RootHelperConnectionPool pool, String pathname, HashRequestCodes hashAlgorithm, BitSet dirHashOpts) throws IOException {
+        RootHelperStreams pooled = pool.borrow(true);
+        boolean completed = false;
+        try {
+            new hash_rq(pathname,hashAlgorithm,dirHashOpts).write(pooled.o);
+            byte[] digest = null;
+            if (Misc.receiveBaseResponse(pooled.i) == 0) {
+                digest = new byte[hashAlgorithm.getLength()];
+                pooled.i.readFully(digest);
             }
-            else throw e;
+            completed = true;
+            return digest;
         }
         finally {
-            if (pathname instanceof XREPathContent) {
-                ProgressIndicator.release();
+            if (completed) pool.release(pooled);
+            else pool.evict(pooled);
+        }
+    }
+
+    private static void readMultiHash(DataInputStream i, multiHash_rq rq, Map<HashRequestCodes,byte[]> digests) throws IOException {
+        for (HashRequestCodes h : rq.getResponseOrder()) {
+            byte[] digest = new byte[h.getLength()];
+            i.readFully(digest);
+            digests.put(h,digest);
+        }
+    }
+
+    private Map<HashRequestCodes,byte[]> hashFileMultiXRE(XREPathContent pathname, multiHash_rq rq) throws IOException {
+        RemoteClientManager clientManager = MainActivity.rootHelperRemoteClientManager;
+        Boolean supported = clientManager.multiHashSupport.get(pathname.serverHost);
+        if (supported != null && !supported) {
+            Map<HashRequestCodes,byte[]> digests = new EnumMap<>(HashRequestCodes.class);
+            for (HashRequestCodes h : rq.hashAlgorithms) {
+                byte[] digest = hashFile(pathname,h,rq.dirHashOpts);
+                if (digest == null) return null;
+                digests.put(h,digest);
             }
-            else rs.close();
+            return digests;
         }
 
+        if (!TaskScheduler.tryAcquireXreHash()) return null;
+        RemoteManager rm = null;
+        try {
+            rm = (RemoteManager) getStreams(pathname,false);
+            if (supported == null) {
+                // probe with an empty request, as for the local server
+                try {
+                    rm.ls.setSoTimeout(MULTI_HASH_XRE_PROBE_TIMEOUT_MS);
+                    new multiHash_rq("",Collections.emptyList(),rq.dirHashOpts).write(rm.o);
+                    supported = rm.i.readByte() == ResponseCodes.RESPONSE_OK.getValue();
+                    rm.ls.setSoTimeout(0);
+                }
+                catch (IOException e) {
+                    supported = false;
+                }
+                Log.d("roothelperclient","Multi hash supported by "+pathname.serverHost+": "+supported);
+                clientManager.multiHashSupport.put(pathname.serverHost,supported);
+                if (!supported) {
+                    // an older remote server leaves the session in an unknown state, drop it
+                    rm.close();
+                    clientManager.longTermClients.remove(pathname.serverHost);
+                }
+            }
+
+            if (supported) {
+                rq.write(rm.o);
+                Map<HashRequestCodes,byte[]> digests = new EnumMap<>(HashRequestCodes.class);
+                if (Misc.receiveBaseResponse(rm.i) != 0) return null;
+                readMultiHash(rm.i,rq,digests);
+                return digests;
+            }
+        }
+        catch (IOException e) {
+            if (rm != null) rm.close();
+            clientManager.longTermClients.remove(pathname.serverHost);
+            return null;
+        }
+        finally {
+            TaskScheduler.releaseXreHash();
+        }
+        return hashFileMultiXRE(pathname,rq); // unsupported, now with per-algorithm requests
     }
 
     public void killServer() throws IOException {
         Log.d("RHClient","killserver invoked!!!!!!!!!!!!!!!");
+        RootHelperConnectionPool.clearAll();
         try(StreamsPair rs = getStreams()) {
             rs.o.write(ControlCodes.ACTION_EXIT.getValue());
         }
@@ -1518,7 +1778,11 @@ public class RootHelperClient implements FileOperationHelper {
         return new RHOutputStream(destPath);
     }
 
-    // ByteArrayOutputStream to buffer and defer bigger write chunks internally, otherwise IO will be very slow if there are a lot of small writes
+    /*
+     * Bulk reads and writes go straight to the socket streams. Writes smaller than the buffer are
+     * gathered in a pooled 1 MB chunk, otherwise IO would be very slow if there are a lot of small writes;
+     * larger ones bypass it, with no intermediate copy
+     */
 
     public class RHInputStream extends InputStream {
         private final StreamsPair rs;
@@ -1538,7 +1802,12 @@ public class RootHelperClient implements FileOperationHelper {
 
         @Override
         public int read(@NonNull byte[] b) throws IOException {
-            return rs.i.read(b);
+            return rs.i.read(b,0,b.length);
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            return rs.i.read(b,off,len);
         }
 
         @Override
@@ -1546,6 +1815,30 @@ public class RootHelperClient implements FileOperationHelper {
             return rs.i.read();
         }
 
+        // no seek in the file read protocol, skipped bytes have to be received anyway
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) return 0;
+            byte[] b = BufferPool.acquire();
+            try {
+                long skipped = 0;
+                while (skipped < n) {
+                    int r = rs.i.read(b,0,(int)Math.min(b.length,n-skipped));
+                    if (r < 0) break;
+                    skipped += r;
+                }
+                return skipped;
+            }
+            finally {
+                BufferPool.release(b);
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return rs.i.available();
+        }
+
         @Override
         public void close() {
             try {rs.close();}
@@ -1555,7 +1848,8 @@ public class RootHelperClient implements FileOperationHelper {
 
     public class RHOutputStream extends OutputStream {
         private final StreamsPair rs;
-        private final ByteArrayOutputStream baos = new ByteArrayOutputStream(1048576);
+        private byte[] buf;
+        private int count = 0;
         public RHOutputStream(String destPath) throws IOException {
             rs = getStreams();
 
@@ -1568,39 +1862,63 @@ public class RootHelperClient implements FileOperationHelper {
                 rs.close();
                 throw new IOException("File creation error");
             }
+            buf = BufferPool.acquire();
+        }
 
+        private void ensureOpen() throws IOException {
+            if (buf == null) throw new IOException("Stream closed");
         }
 
-        private void resetOnOverflow() throws IOException {
-            if (baos.size() >= 1048576) {
-                rs.o.write(baos.toByteArray());
-                baos.reset();
+        private void drain() throws IOException {
+            if (count > 0) {
+                rs.o.write(buf,0,count);
+                count = 0;
             }
         }
 
         @Override
         public void write(@NonNull byte[] b) throws IOException {
-            resetOnOverflow();
-            baos.write(b);
+            write(b,0,b.length);
         }
 
         @Override
         public void write(int i) throws IOException {
-            resetOnOverflow();
-            baos.write(i);
+            ensureOpen();
+            if (count == buf.length) drain();
+            buf[count++] = (byte) i;
         }
 
         @Override
         public void write(@NonNull byte[] b, int off, int len) throws IOException {
-            resetOnOverflow();
-            baos.write(b,off,len);
+            ensureOpen();
+            if (len >= buf.length) {
+                drain();
+                rs.o.write(b,off,len);
+                return;
+            }
+            if (len > buf.length - count) drain();
+            System.arraycopy(b,off,buf,count,len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ensureOpen();
+            drain();
+            rs.o.flush();
         }
 
         @Override
         public void close() throws IOException {
-            if (rs!=null) rs.o.write(baos.toByteArray());
-            if (rs!=null) rs.close();
-            baos.reset();
+            if (buf == null) return;
+            try {
+                drain();
+            }
+            finally {
+                rs.close();
+                BufferPool.release(buf);
+                buf = null;
+            }
         }
     }
 
@@ -0,0 +1,221 @@
+package it.pgp.xfiles.roothelperclient;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.pgp.xfiles.roothelperclient.RootHelperClient.RootHelperStreams;
+import it.pgp.xfiles.service.SocketNames;
+
+/**
+ * Bounded pool of keep-alive connections to a local roothelper socket
+ *
+ * Short-lived requests (ls, stats, exists, hash) borrow an idle connection instead of
+ * connecting a new LocalSocket each time, and give it back once the whole response has been read.
+ * Idle connections are health-checked on borrow (socket state always, plus a GETPID round trip
+ * after {@link #VALIDATE_AFTER_IDLE_MS} of inactivity), and evicted on any IOException.
+ * If reused connections keep failing (i.e. the server side closes them after each request),
+ * the pool stops retaining idle connections and degrades to the one-connection-per-request behaviour.
+ */
+
+public class RootHelperConnectionPool {
+
+    public static final int DEFAULT_MAX_IDLE = 4;
+    public static final long VALIDATE_AFTER_IDLE_MS = 5000;
+    private static final int MAX_CONSECUTIVE_REUSE_FAILURES = 3;
+
+    private static final Map<SocketNames,RootHelperConnectionPool> pools = new EnumMap<>(SocketNames.class);
+
+    public static synchronized RootHelperConnectionPool forAddress(SocketNames address) {
+        RootHelperConnectionPool pool = pools.get(address);
+        if (pool == null) {
+            pool = new RootHelperConnectionPool(address, DEFAULT_MAX_IDLE);
+            pools.put(address,pool);
+        }
+        return pool;
+    }
+
+    // to be called when the roothelper server is killed or restarted
+    public static synchronized void clearAll() {
+        for (RootHelperConnectionPool pool : pools.values()) pool.clear();
+    }
+
+    public final SocketNames address;
+    private final int maxIdle;
+    private final ArrayDeque<RootHelperStreams> idle = new ArrayDeque<>(); // most recently released first
+
+    private volatile boolean keepAliveEnabled = true;
+    private int consecutiveReuseFailures = 0;
+
+    // server capabilities, probed on first use and reset on clear() (the server may have been replaced)
+    private volatile Boolean batchStatsSupported = null;
+    private volatile Boolean multiHashSupported = null;
+
+    // counters
+    public final AtomicLong hits = new AtomicLong();
+    public final AtomicLong misses = new AtomicLong();
+    public final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong borrowNanos = new AtomicLong();
+
+    private RootHelperConnectionPool(SocketNames address, int maxIdle) {
+        this.address = address;
+        this.maxIdle = maxIdle;
+    }
+
+    public RootHelperStreams borrow() throws IOException {
+        return borrow(false);
+    }
+
+    /**
+     * @param forceValidation if true, an idle connection is always probed with a GETPID round trip before being returned
+     *                        (for long requests, or when the connection is going to be detached from the pool)
+     */
+    public RootHelperStreams borrow(boolean forceValidation) throws IOException {
+        long start = System.nanoTime();
+        try {
+            for(;;) {
+                RootHelperStreams rs;
+                synchronized (idle) {
+                    rs = idle.pollFirst();
+                }
+                if (rs == null) break;
+                boolean ping = forceValidation || System.currentTimeMillis() - rs.lastReleased > VALIDATE_AFTER_IDLE_MS;
+                if (isHealthy(rs,ping)) {
+                    hits.incrementAndGet();
+                    return rs;
+                }
+                evict(rs);
+            }
+            misses.incrementAndGet();
+            return new RootHelperStreams(address);
+        }
+        finally {
+            borrows.incrementAndGet();
+            borrowNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    // bypasses idle connections, used for retrying a request after a stale reused connection
+    public RootHelperStreams create() throws IOException {
+        misses.incrementAndGet();
+        return new RootHelperStreams(address);
+    }
+
+    /**
+     * Gives back a connection whose last response has been fully read
+     */
+    public void release(RootHelperStreams rs) {
+        if (rs.servedRequests++ > 0) {
+            synchronized (idle) {
+                consecutiveReuseFailures = 0;
+            }
+        }
+        rs.lastReleased = System.currentTimeMillis();
+        if (keepAliveEnabled) {
+            synchronized (idle) {
+                if (idle.size() < maxIdle) {
+                    idle.addFirst(rs);
+                    return;
+                }
+            }
+        }
+        rs.close();
+    }
+
+    /**
+     * Closes and discards a connection after an IOException or a partially read response
+     */
+    public void evict(RootHelperStreams rs) {
+        rs.close();
+        evictions.incrementAndGet();
+        if (rs.servedRequests > 0) {
+            synchronized (idle) {
+                if (++consecutiveReuseFailures >= MAX_CONSECUTIVE_REUSE_FAILURES && keepAliveEnabled) {
+                    Log.w("RHConnectionPool","Reused connections keep failing, disabling keep-alive for "+address);
+                    keepAliveEnabled = false;
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (idle) {
+            for (RootHelperStreams rs : idle) rs.close();
+            idle.clear();
+            consecutiveReuseFailures = 0;
+            keepAliveEnabled = true;
+            batchStatsSupported = null;
+            multiHashSupported = null;
+        }
+        Log.d("RHConnectionPool",getStats());
+    }
+
+    private boolean isHealthy(RootHelperStreams rs, boolean ping) {
+        if (!rs.ls.isConnected() || rs.ls.isInputShutdown() || rs.ls.isOutputShutdown()) return false;
+        if (!ping) return true;
+        try {
+            rs.o.write(ControlCodes.ACTION_GETPID.getValue());
+            rs.i.readFully(new byte[4]);
+            return true;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    // false if the server closes connections after each request (no pipelining possible)
+    public boolean isKeepAliveEnabled() {
+        return keepAliveEnabled;
+    }
+
+    // null if not probed yet
+    public Boolean isBatchStatsSupported() {
+        return batchStatsSupported;
+    }
+
+    public void setBatchStatsSupported(boolean batchStatsSupported) {
+        this.batchStatsSupported = batchStatsSupported;
+    }
+
+    // null if not probed yet
+    public Boolean isMultiHashSupported() {
+        return multiHashSupported;
+    }
+
+    public void setMultiHashSupported(boolean multiHashSupported) {
+        this.multiHashSupported = multiHashSupported;
+    }
+
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : ((double)h)/total;
+    }
+
+    // average time spent in borrow(), including health checks and new connections
+    public double getAvgBorrowMicros() {
+        long n = borrows.get();
+        return n == 0 ? 0 : borrowNanos.get() / 1000.0 / n;
+    }
+
+    public String getStats() {
+        return "RH pool ["+address+"] hits: "+hits.get()+
+                " misses: "+misses.get()+
+                " evictions: "+evictions.get()+
+                " idle: "+getIdleCount()+
+                " hit ratio: "+String.format("%.2f",getHitRatio())+
+                " avg borrow (us): "+String.format("%.1f",getAvgBorrowMicros())+
+                (keepAliveEnabled?"":" (keep-alive disabled)");
+    }
+}
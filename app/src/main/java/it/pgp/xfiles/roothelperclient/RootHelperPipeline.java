@@ -0,0 +1,95 @@
+package it.pgp.xfiles.roothelperclient;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import it.pgp.xfiles.roothelperclient.RootHelperClient.RootHelperStreams;
+import it.pgp.xfiles.roothelperclient.reqs.BaseRHRequest;
+
+/**
+ * Pipelining mode for short roothelper requests over one pooled keep-alive connection
+ *
+ * Requests are written back to back without waiting for the previous responses, which the server
+ * sends in request order; at most {@link #DEFAULT_WINDOW} requests are in flight, so that neither side
+ * can block on a full socket buffer. Requests are refilled in groups of half a window, each group in one write.
+ *
+ * If the connection breaks, the remaining requests are resumed once over a fresh connection
+ * (only read-only, idempotent requests must be pipelined). If the server does not keep connections alive,
+ * requests are sent one per connection as before.
+ */
+
+public class RootHelperPipeline {
+
+    public static final int DEFAULT_WINDOW = 32;
+
+    public interface ResponseReader {
+        // must consume exactly the response to the index-th request
+        void read(int index, DataInputStream i) throws IOException;
+    }
+
+    public static void run(RootHelperConnectionPool pool, List<? extends BaseRHRequest> requests, ResponseReader reader) throws IOException {
+        run(pool,requests,reader,DEFAULT_WINDOW);
+    }
+
+    public static void run(RootHelperConnectionPool pool, List<? extends BaseRHRequest> requests, ResponseReader reader, int window) throws IOException {
+        int n = requests.size();
+        if (n == 0) return;
+
+        if (!pool.isKeepAliveEnabled()) {
+            for (int k=0; k<n; k++) {
+                RootHelperStreams rs = pool.create();
+                try {
+                    requests.get(k).write(rs.o);
+                    reader.read(k,rs.i);
+                }
+                finally {
+                    rs.close();
+                }
+            }
+            return;
+        }
+
+        int[] received = {0}; // responses read so far, survives a broken connection
+        boolean retried = false;
+        RootHelperStreams rs = pool.borrow();
+        for(;;) {
+            try {
+                runOn(rs,requests,received,reader,window);
+                pool.release(rs);
+                return;
+            }
+            catch (IOException e) {
+                pool.evict(rs);
+                if (retried) throw e;
+                retried = true;
+                Log.w("RootHelperPipeline","Connection lost after "+received[0]+"/"+n+" responses, resuming on a new one");
+            }
+            catch (RuntimeException e) {
+                pool.evict(rs);
+                throw e;
+            }
+            rs = pool.create();
+        }
+    }
+
+    private static void runOn(RootHelperStreams rs, List<? extends BaseRHRequest> requests, int[] received, ResponseReader reader, int window) throws IOException {
+        int n = requests.size();
+        int sent = received[0]; // requests after the last response read are resent
+        int refill = Math.max(1,window/2);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(4096);
+        while (received[0] < n) {
+            if (sent < n && sent - received[0] <= window - refill) {
+                buf.reset();
+                while (sent < n && sent - received[0] < window) requests.get(sent++).write(buf);
+                buf.writeTo(rs.o);
+                rs.o.flush();
+            }
+            reader.read(received[0],rs.i);
+            received[0]++;
+        }
+    }
+}
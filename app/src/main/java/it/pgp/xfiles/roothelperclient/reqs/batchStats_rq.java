@@ -0,0 +1,41 @@
+package it.pgp.xfiles.roothelperclient.reqs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import it.pgp.xfiles.io.FlushingBufferedOutputStream;
+import it.pgp.xfiles.roothelperclient.ControlCodes;
+import it.pgp.xfiles.utils.Misc;
+
+/**
+ * Same framing as {@link multiStats_rq} (list of length-prefixed paths, terminated by a zero length),
+ * responses are described in {@link it.pgp.xfiles.roothelperclient.resps.batchStats_resp}
+ */
+
+public class batchStats_rq extends BaseRHRequest {
+
+    public List<String> pathnames;
+
+    public batchStats_rq(List<String> pathnames) {
+        super(ControlCodes.ACTION_BATCH_STATS);
+        this.pathnames = pathnames;
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+            byte[] entry;
+            nbf.write(getRequestByteWithFlags());
+
+            for (String pathname : pathnames) {
+                // write len and field
+                entry = pathname.getBytes(UTF8);
+                nbf.write(Misc.castUnsignedNumberToBytes(entry.length,2));
+                nbf.write(entry);
+            }
+            // list termination (length 0)
+            nbf.write(new byte[2]);
+        }
+    }
+}
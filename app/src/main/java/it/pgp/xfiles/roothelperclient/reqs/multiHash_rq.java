@@ -0,0 +1,70 @@
+package it.pgp.xfiles.roothelperclient.reqs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import it.pgp.xfiles.io.FlushingBufferedOutputStream;
+import it.pgp.xfiles.roothelperclient.ControlCodes;
+import it.pgp.xfiles.roothelperclient.HashRequestCodes;
+import it.pgp.xfiles.utils.Misc;
+
+/**
+ * Like {@link hash_rq}, but with a set of algorithms, all fed from the same read buffer on server side
+ * (the file is read only once, digests are updated in parallel when more than one is requested)
+ *
+ * Request: opcode, algorithms as a 2-byte bitmask (bit n set for algorithm code n), dir hash opts byte, len and pathname
+ * Response: RESPONSE_OK followed by the digests (lengths are implicit) in increasing order of algorithm code, or error with errno
+ * An empty bitmask with an empty pathname is answered by RESPONSE_OK alone (used for probing server support)
+ */
+
+public class multiHash_rq extends SinglePath_rq {
+    public final Set<HashRequestCodes> hashAlgorithms;
+    public final BitSet dirHashOpts;
+
+    public multiHash_rq(Object pathname,
+                        Collection<HashRequestCodes> hashAlgorithms,
+                        BitSet dirHashOpts) {
+        super(ControlCodes.ACTION_MULTI_HASH, pathname);
+        this.hashAlgorithms = hashAlgorithms.isEmpty() ?
+                EnumSet.noneOf(HashRequestCodes.class) : EnumSet.copyOf(hashAlgorithms);
+        this.dirHashOpts = dirHashOpts;
+    }
+
+    // order of digests in the response (EnumSet iteration order is the declaration one, not the code one)
+    public List<HashRequestCodes> getResponseOrder() {
+        List<HashRequestCodes> l = new ArrayList<>(hashAlgorithms);
+        Collections.sort(l,(a,b) -> Integer.compare(a.getValue(),b.getValue()));
+        return l;
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+            // write request byte
+            nbf.write(requestType.getValue());
+
+            // write algorithms bitmask
+            int mask = 0;
+            for (HashRequestCodes h : hashAlgorithms)
+                mask |= 1 << h.getValue();
+            nbf.write(Misc.castUnsignedNumberToBytes(mask,2));
+
+            // write dirHashOpts (same meaning as in hash_rq, all 4 bits are sent)
+            byte dirHashOpts_ = 0;
+            for (int i=0;i<4;i++)
+                dirHashOpts_ ^= ((dirHashOpts.get(i)?1:0) << i);
+            nbf.write(dirHashOpts_);
+
+            // write len and field
+            nbf.write(Misc.castUnsignedNumberToBytes(this.pathname_len,2));
+            nbf.write(this.pathname);
+        }
+    }
+}
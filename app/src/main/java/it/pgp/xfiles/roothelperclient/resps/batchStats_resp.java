@@ -0,0 +1,95 @@
+package it.pgp.xfiles.roothelperclient.resps;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Compact results of a batch stats request, one per requested path and in the same order
+ *
+ * Wire format (after the RESPONSE_OK byte), for each path:
+ * - flags (1 byte): exists, is file, is directory, is link (LSB first)
+ * - only if exists: modification time (4 bytes, seconds since epoch) and size (8 bytes), little endian
+ *
+ * Results are stored in columns, and can also be filled one at a time from single stats responses
+ * (pipelined fallback for roothelper servers without batch support)
+ */
+
+public class batchStats_resp {
+
+    public static final byte FLAG_EXISTS = 1;
+    public static final byte FLAG_FILE = 2;
+    public static final byte FLAG_DIR = 4;
+    public static final byte FLAG_LINK = 8;
+
+    public final int count;
+    public final byte[] flags;
+    public final long[] dates; // seconds since epoch
+    public final long[] sizes;
+
+    private final byte[] scratch = new byte[12];
+
+    public batchStats_resp(int count) {
+        this.count = count;
+        flags = new byte[count];
+        dates = new long[count];
+        sizes = new long[count];
+    }
+
+    public void readAll(DataInputStream inputStream) throws IOException {
+        for (int n=0; n<count; n++) {
+            byte f = inputStream.readByte();
+            flags[n] = f;
+            if ((f & FLAG_EXISTS) == 0) continue;
+            inputStream.readFully(scratch,0,12);
+            dates[n] = readLE(scratch,0,4);
+            sizes[n] = readLE(scratch,4,8);
+        }
+    }
+
+    private static long readLE(byte[] b, int off, int len) {
+        long value = 0;
+        for (int i = off+len-1; i >= off; i--)
+            value = (value << 8) + (b[i] & 0xFF);
+        return value;
+    }
+
+    // resp null means path not accessible
+    public void set(int n, singleStats_resp resp) {
+        if (resp == null) {
+            flags[n] = 0;
+            return;
+        }
+        byte type = resp.permissions[0];
+        byte f = FLAG_EXISTS;
+        if (type == 'd' || type == 'L') f |= FLAG_DIR;
+        else if (type != 'l') f |= FLAG_FILE;
+        if (type == 'l' || type == 'L') f |= FLAG_LINK;
+        flags[n] = f;
+        dates[n] = resp.modificationTime;
+        sizes[n] = resp.size;
+    }
+
+    public boolean exists(int n) {
+        return (flags[n] & FLAG_EXISTS) != 0;
+    }
+
+    public boolean isFile(int n) {
+        return (flags[n] & FLAG_FILE) != 0;
+    }
+
+    public boolean isDir(int n) {
+        return (flags[n] & FLAG_DIR) != 0;
+    }
+
+    public boolean isLink(int n) {
+        return (flags[n] & FLAG_LINK) != 0;
+    }
+
+    public long getSize(int n) {
+        return sizes[n];
+    }
+
+    public long getModificationTimeMillis(int n) {
+        return dates[n]*1000;
+    }
+}
@@ -0,0 +1,146 @@
+package it.pgp.xfiles.roothelperclient.resps;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import it.pgp.xfiles.BrowserItem;
+
+/**
+ * Columnar decoder for a sequence of ls responses (same wire format as {@link ls_resp}, terminated by a zero-length filename)
+ *
+ * Fixed-size fields are read into a single reusable scratch buffer, and filenames are appended as raw UTF-8 bytes
+ * to one shared buffer, so decoding a listing allocates only when the column arrays have to grow.
+ * Strings and Dates are materialized only on demand.
+ */
+
+public class ls_listing {
+
+    public static final byte FLAG_DIR = 1;
+    public static final byte FLAG_LINK = 2;
+    public static final byte FLAG_UNLISTED = 4; // '!' permission marker, used in archive listings
+
+    private static final int FIXED_LEN = 22; // date (4) + permissions (10) + size (8)
+
+    public int count;
+    public byte[] names; // UTF-8 filenames, back to back
+    public int[] nameOffsets; // filename i is names[nameOffsets[i] ... nameOffsets[i+1])
+    public long[] sizes;
+    public long[] dates; // seconds since epoch
+    public byte[] flags;
+
+    private final byte[] scratch = new byte[FIXED_LEN];
+    private int namesLen;
+
+    public ls_listing() {
+        this(256);
+    }
+
+    public ls_listing(int initialCapacity) {
+        if (initialCapacity < 1) initialCapacity = 1;
+        names = new byte[initialCapacity*16];
+        nameOffsets = new int[initialCapacity+1];
+        sizes = new long[initialCapacity];
+        dates = new long[initialCapacity];
+        flags = new byte[initialCapacity];
+    }
+
+    // only with RESPONSE_OK
+    public static ls_listing readAll(DataInputStream inputStream) throws IOException {
+        ls_listing listing = new ls_listing();
+        while (listing.readChunk(inputStream, Integer.MAX_VALUE));
+        return listing;
+    }
+
+    /**
+     * Appends up to maxEntries entries to this listing
+     * @return false once the end of list indication has been read
+     */
+    public boolean readChunk(DataInputStream inputStream, int maxEntries) throws IOException {
+        for (int n=0; n<maxEntries; n++) {
+            inputStream.readFully(scratch,0,2);
+            int filename_len = (scratch[0] & 0xFF) | ((scratch[1] & 0xFF) << 8);
+            if (filename_len == 0) return false; // end of list indication
+
+            ensureCapacity(count+1, namesLen+filename_len);
+            inputStream.readFully(names,namesLen,filename_len);
+            namesLen += filename_len;
+            nameOffsets[count+1] = namesLen;
+
+            inputStream.readFully(scratch,0,FIXED_LEN);
+            dates[count] = readLE(scratch,0,4);
+            byte type = scratch[4]; // first permission char
+            sizes[count] = readLE(scratch,14,8);
+
+            byte f = 0;
+            if (type == 'd' || type == 'L') f |= FLAG_DIR;
+            if (type == 'l' || type == 'L') f |= FLAG_LINK;
+            if (type == '!') f |= FLAG_UNLISTED;
+            flags[count] = f;
+
+            count++;
+        }
+        return true;
+    }
+
+    private static long readLE(byte[] b, int off, int len) {
+        long value = 0;
+        for (int i = off+len-1; i >= off; i--)
+            value = (value << 8) + (b[i] & 0xFF);
+        return value;
+    }
+
+    private void ensureCapacity(int entries, int nameBytes) {
+        if (entries > sizes.length) {
+            int newCap = Math.max(entries, sizes.length*2);
+            sizes = Arrays.copyOf(sizes,newCap);
+            dates = Arrays.copyOf(dates,newCap);
+            flags = Arrays.copyOf(flags,newCap);
+            nameOffsets = Arrays.copyOf(nameOffsets,newCap+1);
+        }
+        if (nameBytes > names.length)
+            names = Arrays.copyOf(names, Math.max(nameBytes, names.length*2));
+    }
+
+    public void clear() {
+        count = 0;
+        namesLen = 0;
+    }
+
+    public int getNameLength(int i) {
+        return nameOffsets[i+1] - nameOffsets[i];
+    }
+
+    public String getName(int i) {
+        return new String(names, nameOffsets[i], getNameLength(i), StandardCharsets.UTF_8);
+    }
+
+    public boolean isDirectory(int i) {
+        return (flags[i] & FLAG_DIR) != 0;
+    }
+
+    public boolean isLink(int i) {
+        return (flags[i] & FLAG_LINK) != 0;
+    }
+
+    public boolean isUnlisted(int i) {
+        return (flags[i] & FLAG_UNLISTED) != 0;
+    }
+
+    public BrowserItem toBrowserItem(int i) {
+        return new BrowserItem(getName(i), sizes[i], dates[i]*1000, isDirectory(i), isLink(i));
+    }
+
+    public List<BrowserItem> toBrowserItems() {
+        return toBrowserItems(0, count);
+    }
+
+    public List<BrowserItem> toBrowserItems(int from, int to) {
+        List<BrowserItem> items = new ArrayList<>(to-from);
+        for (int i=from; i<to; i++) items.add(toBrowserItem(i));
+        return items;
+    }
+}
@@ -10,6 +10,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.support.v4.app.NotificationCompat;
@@ -17,7 +18,6 @@ import android.widget.Toast;
 
 import java.io.Serializable;
 
-import it.pgp.xfiles.EffectActivity;
 import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.R;
 import it.pgp.xfiles.enums.ForegroundServiceType;
@@ -145,7 +145,8 @@ public abstract class BaseBackgroundService extends Service {
             case START_ACTION:
                 task = getTask();
                 if (!task.init(this)) {
-                    Toast.makeText(getApplicationContext(), "Cannot start service, overlay is busy", Toast.LENGTH_SHORT).show();
+                    Toast.makeText(getApplicationContext(), "Cannot start service", Toast.LENGTH_SHORT).show();
+                    TaskScheduler.finished(getClass(),false);
                     stopSelf();
                     return;
                 }
@@ -171,13 +172,17 @@ public abstract class BaseBackgroundService extends Service {
         Notification notification = getForegroundNotificationBuilder().build();
         createNotificationChannelForService();
         startForeground(getForegroundServiceNotificationId(),notification);
-        task.execute((Void[])null);
+        // not the default serial executor, tasks of different services run concurrently
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,(Void[])null);
     }
 
     protected abstract BaseBackgroundTask getTask();
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        // next task queued for this service, started before the instance of the previous one has been destroyed
+        if(task != null && task.getStatus() == AsyncTask.Status.FINISHED && START_ACTION.equals(intent.getAction()))
+            currentAction = null;
         if(currentAction == null) {
             currentAction = intent.getAction();
 
@@ -188,7 +193,7 @@ public abstract class BaseBackgroundService extends Service {
                 return START_NOT_STICKY;
             }
 
-            params = EffectActivity.serviceParams;
+            params = TaskScheduler.take(getClass());
             if (params == null) {
                 throw new RuntimeException("Null params not allowed in start action");
             }
@@ -205,7 +210,7 @@ public abstract class BaseBackgroundService extends Service {
                 task.pauseTask();
                 Toast.makeText(getApplicationContext(),"Service paused",Toast.LENGTH_LONG).show();
             }
-            // trying to start another concurrent task?
+            // trying to start another concurrent task? (tasks are started by TaskScheduler, one per service at a time)
             else {
                 Toast.makeText(getApplicationContext(),
                         "Service already running!",
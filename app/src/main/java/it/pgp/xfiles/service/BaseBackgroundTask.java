@@ -1,21 +1,25 @@
 package it.pgp.xfiles.service;
 
+import android.app.AlertDialog;
 import android.app.NotificationManager;
 import android.content.Context;
+import android.content.Intent;
 import android.os.AsyncTask;
 import android.support.v4.app.NotificationCompat;
-import android.util.Log;
 
 import java.io.Serializable;
 import java.util.ArrayDeque;
 import java.util.Deque;
 
-import it.pgp.xfiles.EffectActivity;
+import it.pgp.xfiles.CopyMoveListPathContent;
+import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.enums.FileOpsErrorCodes;
 import it.pgp.xfiles.enums.ForegroundServiceType;
 import it.pgp.xfiles.enums.ServiceStatus;
 import it.pgp.xfiles.service.visualization.ProgressIndicator;
 import it.pgp.xfiles.utils.Pair;
+import it.pgp.xfiles.utils.TransferJournal;
+import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 
 public abstract class BaseBackgroundTask extends AsyncTask<Object,Pair<Long,Long>,Object> {
 	
@@ -32,6 +36,7 @@ public abstract class BaseBackgroundTask extends AsyncTask<Object,Pair<Long,Long
 
     public Serializable params; // to be down-casted in subclasses
 
+    // follow-ups of the next task submitted to TaskScheduler, to be run in order, each one after the previous completes successfully
     public static final Deque<Runnable> nextAutoTasks = new ArrayDeque<>();
 
     public BaseBackgroundTask(Serializable params) {
@@ -51,13 +56,11 @@ public abstract class BaseBackgroundTask extends AsyncTask<Object,Pair<Long,Long
         // initialized in subclasses (MovingRibbon for Compress and extract tasks, MovingRibbonTwoBars for copy/move tasks
 //        mr = new MovingRibbon(service,windowManager);
 
-        // before initializing ribbon overlay, ensure to lock that resource (check if already locked)
-
-        // progress interface lock to be done in subclasses
-//        return ProgressIndicator.busy.compareAndSet(false,true); // compareAndSet true -> ok
-
+        // concurrency is decided by TaskScheduler, here only keep track of running task types
         ForegroundServiceType f = service.getForegroundServiceType();
-        return f != null && ProgressIndicator.acquire(f);
+        if (f == null) return false;
+        ProgressIndicator.acquire(f);
+        return true;
     }
 	
 	public void cancelTask() {
@@ -100,6 +103,7 @@ public abstract class BaseBackgroundTask extends AsyncTask<Object,Pair<Long,Long
         if(current - lastProgressUpdateFgNotif > FGNOTIF_UPDATE_INTERVAL) {
             builder.setProgress(100, (int) Math.round(values[0].i * 100.0 / values[0].j), false);
             nm.notify(service.getForegroundServiceNotificationId(), builder.build());
+            TaskScheduler.progress(service.getClass(),values[0].i,values[0].j);
             lastProgressUpdateFgNotif = current;
         }
 
@@ -116,21 +120,31 @@ public abstract class BaseBackgroundTask extends AsyncTask<Object,Pair<Long,Long
         service.stopForeground(true);
         service.stopSelf();
 
-        // unlock ribbon overlay resource
-        ProgressIndicator.release();
-
-        if(!nextAutoTasks.isEmpty()) {
-            if(result == null || result == FileOpsErrorCodes.OK) {
-                Log.d(getClass().getName(),"Starting next auto task...");
-                new Thread(nextAutoTasks.pop()).start();
-            }
-            else {
-                Log.d(getClass().getName(),"Current task failed, clearing next auto tasks...");
-                nextAutoTasks.clear();
-            }
-        }
+        ProgressIndicator.release(service.getForegroundServiceType());
 
-        EffectActivity.serviceParams = null;
+        // free task resources, start waiting tasks and follow-ups
+        TaskScheduler.finished(service.getClass(),
+                status != ServiceStatus.CANCELLED && (result == null || result == FileOpsErrorCodes.OK));
+    }
+
+    /**
+     * After an interrupted transfer whose journal has been kept, offers to start it again with the same params:
+     * completed files are skipped and partial ones continued from their last checkpoint
+     */
+    protected void offerResume(Class<? extends BaseBackgroundService> serviceClass, CopyMoveListPathContent files, BasePathContent dstFolder) {
+        MainActivity activity = MainActivity.mainActivity;
+        if (activity == null || !TransferJournal.exists(files,dstFolder)) return;
+        AlertDialog.Builder bld = new AlertDialog.Builder(activity);
+        bld.setTitle("Transfer interrupted, resume?");
+        // not resumed now, the same selection pasted later into the same folder will start from zero
+        bld.setNegativeButton(android.R.string.cancel, (dialog, which) -> TransferJournal.discard(files,dstFolder));
+        bld.setPositiveButton("Resume", (dialog, which) -> {
+            Intent startIntent = new Intent(activity,serviceClass);
+            startIntent.setAction(BaseBackgroundService.START_ACTION);
+            startIntent.putExtra("params",params);
+            activity.startService(startIntent);
+        });
+        bld.create().show();
     }
 
     @Override
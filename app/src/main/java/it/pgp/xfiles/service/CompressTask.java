@@ -11,6 +11,7 @@ import it.pgp.xfiles.enums.FileOpsErrorCodes;
 import it.pgp.xfiles.enums.ServiceStatus;
 import it.pgp.xfiles.service.params.CompressParams;
 import it.pgp.xfiles.service.visualization.MovingRibbon;
+import it.pgp.xfiles.utils.DirListingCache;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 
 /**
@@ -83,6 +84,7 @@ public class CompressTask extends RootHelperClientTask {
             e.printStackTrace();
             result = defaultErrorResult;
         }
+        DirListingCache.invalidateParentOf(params.destArchive);
         return null;
     }
 
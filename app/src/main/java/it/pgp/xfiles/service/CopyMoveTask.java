@@ -10,6 +10,7 @@ import it.pgp.xfiles.enums.FileOpsErrorCodes;
 import it.pgp.xfiles.enums.ServiceStatus;
 import it.pgp.xfiles.service.params.CopyMoveParams;
 import it.pgp.xfiles.service.visualization.MovingRibbonTwoBars;
+import it.pgp.xfiles.utils.DirListingCache;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 
 /**
@@ -57,6 +58,7 @@ public class CopyMoveTask extends RootHelperClientTask {
             e.printStackTrace();
             result = FileOpsErrorCodes.TRANSFER_ERROR;
         }
+        DirListingCache.invalidateCopyMove(params.list,params.destPath);
         return null;
     }
 
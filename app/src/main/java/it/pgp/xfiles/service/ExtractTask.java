@@ -15,6 +15,7 @@ import it.pgp.xfiles.service.params.ExtractParams;
 import it.pgp.xfiles.service.params.TestParams;
 import it.pgp.xfiles.service.visualization.MovingRibbon;
 import it.pgp.xfiles.service.visualization.MovingRibbonTwoBars;
+import it.pgp.xfiles.utils.DirListingCache;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 
 /**
@@ -94,6 +95,7 @@ public class ExtractTask extends RootHelperClientTask {
             e.printStackTrace();
             result = defaultErrorResult; // maybe better extract error
         }
+        DirListingCache.invalidateTree(destDirectory);
         return null;
     }
 
@@ -11,9 +11,11 @@ import it.pgp.xfiles.enums.ProviderType;
 import it.pgp.xfiles.enums.ServiceStatus;
 import it.pgp.xfiles.service.params.DownloadParams;
 import it.pgp.xfiles.service.visualization.MovingRibbon;
+import it.pgp.xfiles.utils.DirListingCache;
 import it.pgp.xfiles.utils.Misc;
 import it.pgp.xfiles.utils.Pair;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+import it.pgp.xfiles.utils.pathcontent.LocalPathContent;
 
 /**
  * Created by pgp on 05/11/17
@@ -71,6 +73,8 @@ public class HTTPDownloadTask extends RootHelperClientTask {
             e.printStackTrace();
             result = FileOpsErrorCodes.TRANSFER_ERROR;
         }
+        // also on error, a partial file may have been created
+        DirListingCache.invalidateParentOf(new LocalPathContent(params.destPath).concat(targetFileNameOnly[0]));
         return result;
     }
 
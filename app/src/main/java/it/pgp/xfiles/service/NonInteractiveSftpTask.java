@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.Serializable;
 
 import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.enums.CopyMoveMode;
 import it.pgp.xfiles.enums.FileOpsErrorCodes;
 import it.pgp.xfiles.enums.ProviderType;
 import it.pgp.xfiles.exceptions.InterruptedTransferAsIOException;
@@ -13,6 +14,7 @@ import it.pgp.xfiles.roothelperclient.ControlCodes;
 import it.pgp.xfiles.service.params.CopyMoveParams;
 import it.pgp.xfiles.sftpclient.SFTPProvider;
 import it.pgp.xfiles.sftpclient.XProgress;
+import it.pgp.xfiles.utils.DirListingCache;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 
 /**
@@ -28,6 +30,8 @@ public class NonInteractiveSftpTask extends BaseBackgroundTask {
      * - UPLOAD:
      *      CopyMoveParams.CopyMoveListPathContent.BasePathContent (parentDir) -> LocalPathContent
      *      CopyMoveParams.BasePathContent -> SFTPPathContent
+     * - COPY or MOVE (remote to remote):
+     *      both -> SFTPPathContent
      */
     public CopyMoveParams params;
     public ControlCodes action;
@@ -45,6 +49,9 @@ public class NonInteractiveSftpTask extends BaseBackgroundTask {
         else if (params.list.parentDir.providerType == ProviderType.LOCAL &&
                 params.destPath.providerType == ProviderType.SFTP)
             action = ControlCodes.ACTION_UPLOAD;
+        else if (params.list.parentDir.providerType == ProviderType.SFTP &&
+                params.destPath.providerType == ProviderType.SFTP)
+            action = params.list.copyOrMove == CopyMoveMode.MOVE ? ControlCodes.ACTION_MOVE : ControlCodes.ACTION_COPY;
         else throw new RuntimeException("Unexpected CopyMoveParams content");
     }
 
@@ -76,6 +83,7 @@ public class NonInteractiveSftpTask extends BaseBackgroundTask {
             }
             else result = FileOpsErrorCodes.TRANSFER_CANCELLED;
         }
+        DirListingCache.invalidateCopyMove(params.list,params.destPath);
         return result;
     }
 
@@ -103,10 +111,12 @@ public class NonInteractiveSftpTask extends BaseBackgroundTask {
         }
         else if (result == FileOpsErrorCodes.TRANSFER_CANCELLED) {
             Toast.makeText(service,params.list.copyOrMove.name().toLowerCase()+" cancelled",Toast.LENGTH_LONG).show();
+            offerResume(NonInteractiveSftpService.class,params.list,params.destPath);
         }
         else {
             Toast.makeText(service,params.list.copyOrMove.name().toLowerCase()+" error: "+result.getValue()+
                     "\nReason: "+(lastException==null?"null":lastException.getMessage()),Toast.LENGTH_LONG).show();
+            offerResume(NonInteractiveSftpService.class,params.list,params.destPath);
         }
     }
 }
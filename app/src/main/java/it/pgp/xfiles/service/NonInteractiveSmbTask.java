@@ -10,6 +10,7 @@ import it.pgp.xfiles.enums.ProviderType;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
 import it.pgp.xfiles.service.params.CopyMoveParams;
 import it.pgp.xfiles.sftpclient.XProgress;
+import it.pgp.xfiles.utils.DirListingCache;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 
 public class NonInteractiveSmbTask extends BaseBackgroundTask {
@@ -66,6 +67,7 @@ public class NonInteractiveSmbTask extends BaseBackgroundTask {
             lastException = e;
             result = FileOpsErrorCodes.TRANSFER_ERROR;
         }
+        DirListingCache.invalidateCopyMove(params.list,params.destPath);
         return result;
     }
 
@@ -90,10 +92,12 @@ public class NonInteractiveSmbTask extends BaseBackgroundTask {
         }
         else if (result == FileOpsErrorCodes.TRANSFER_CANCELLED) {
             Toast.makeText(service,params.list.copyOrMove.name().toLowerCase()+" cancelled",Toast.LENGTH_LONG).show();
+            offerResume(NonInteractiveSmbService.class,params.list,params.destPath);
         }
         else {
             Toast.makeText(service,params.list.copyOrMove.name().toLowerCase()+" error: "+result.getValue()+
                     "\nReason: "+(lastException==null?"null":lastException.getMessage()),Toast.LENGTH_LONG).show();
+            offerResume(NonInteractiveSmbService.class,params.list,params.destPath);
         }
     }
 }
@@ -15,6 +15,7 @@ import it.pgp.xfiles.roothelperclient.ControlCodes;
 import it.pgp.xfiles.roothelperclient.RemoteManager;
 import it.pgp.xfiles.service.params.CopyMoveParams;
 import it.pgp.xfiles.service.visualization.MovingRibbonTwoBars;
+import it.pgp.xfiles.utils.DirListingCache;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 import it.pgp.xfiles.utils.pathcontent.XREPathContent;
 
@@ -102,6 +103,7 @@ public class NonInteractiveXFilesRemoteTransferTask extends RootHelperClientTask
     @Override
     protected Object doInBackground(Object[] unusedParams) {
         result = MainActivity.rootHelperRemoteClientManager.transferItems(this.params.list,this.params.destPath,action,this, resolver);
+        DirListingCache.invalidateCopyMove(params.list,params.destPath);
         return result;
     }
 
@@ -39,8 +39,9 @@ public abstract class RootHelperClientTask extends BaseBackgroundTask {
     protected void onPostExecute(Object o) {
         super.onPostExecute(o);
 
-        // if main activity has been closed meanwhile, stop the main RH server instance as well
-        if (MainActivity.mainActivity == null) {
+        // if main activity has been closed meanwhile, stop the main RH server instance as well,
+        // unless other tasks (running, or just started by TaskScheduler) may be using it
+        if (MainActivity.mainActivity == null && !TaskScheduler.isRootHelperNeeded()) {
             MainActivity.killRHWrapper();
         }
     }
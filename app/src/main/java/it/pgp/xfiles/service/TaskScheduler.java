@@ -0,0 +1,400 @@
+package it.pgp.xfiles.service;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.enums.ForegroundServiceType;
+import it.pgp.xfiles.service.params.CompressParams;
+import it.pgp.xfiles.service.params.CopyMoveParams;
+import it.pgp.xfiles.service.params.DownloadParams;
+import it.pgp.xfiles.service.params.ExtractParams;
+import it.pgp.xfiles.service.visualization.ProgressIndicator;
+import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+import it.pgp.xfiles.utils.pathcontent.SFTPPathContent;
+import it.pgp.xfiles.utils.pathcontent.SMBPathContent;
+import it.pgp.xfiles.utils.pathcontent.XREPathContent;
+
+/**
+ * Queue of background tasks (copy/move, compress, extract, remote transfers, downloads...), started as soon as
+ * the resources they need are free, so that tasks without a shared bottleneck run concurrently
+ *
+ * Each task needs a slot of its service (a service runs one task at a time), and a slot of:
+ * - {@link #DISK} for local copy/move,
+ * - {@link #CPU} for compress/extract,
+ * - {@link #HOST_PREFIX}+host for transfers from/to a remote host (SFTP, SMB, XRE, HTTP), whatever the protocol.
+ * Waiting tasks are considered by descending priority, then in submission order; a waiting task reserves its
+ * resources against lower priority ones, while these can still start on other free resources.
+ * The queue is saved to internal storage at each change, and restored held on the next app start
+ * (interrupted transfers then continue from their journal, see {@link it.pgp.xfiles.utils.TransferJournal});
+ * tasks whose params cannot be serialized are kept in memory only.
+ */
+
+public class TaskScheduler {
+
+    public static final String DISK = "disk";
+    public static final String CPU = "cpu";
+    public static final String HOST_PREFIX = "host:";
+
+    // tunables, concurrent tasks per resource
+    public static volatile int diskSlots = 1;
+    public static volatile int cpuSlots = 1;
+    public static volatile int hostSlots = 1; // per host
+
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L; // entries are persisted across process restarts
+
+        public final long id;
+        public final String serviceClass;
+        public final Serializable params;
+        public int priority = 0; // higher first
+        public boolean held = false; // waiting task not to be started till resumed
+
+        transient boolean running = false;
+        transient List<String> resources;
+        transient Deque<Runnable> followUps;
+        public transient volatile long progress, total; // of the running task, as shown by its progress indicator
+
+        Entry(long id, String serviceClass, Serializable params) {
+            this.id = id;
+            this.serviceClass = serviceClass;
+            this.params = params;
+        }
+
+        public boolean isRunning() {
+            return running;
+        }
+
+        public String getLabel() {
+            String s = serviceClass.substring(serviceClass.lastIndexOf('.')+1).replace("Service","");
+            for (String r : resources)
+                if (r.startsWith(HOST_PREFIX)) return s+" ("+r.substring(HOST_PREFIX.length())+")";
+            return s;
+        }
+    }
+
+    private static final List<Entry> entries = new ArrayList<>(); // running and waiting
+    private static final Map<String,Integer> used = new HashMap<>();
+    private static long nextId = 0;
+    private static boolean paused = false;
+    private static Context appContext;
+    private static File queueFile;
+
+    // follow-ups chained by a follow-up being run on this thread are inherited by the task it submits
+    private static final ThreadLocal<Deque<Runnable>> inheritedFollowUps = new ThreadLocal<>();
+
+    public static synchronized void init(Context context) {
+        if (appContext != null) return; // already initialized in this process
+        appContext = context.getApplicationContext();
+        queueFile = new File(appContext.getFilesDir(),"task_queue");
+        load();
+        if (!entries.isEmpty())
+            showToast(entries.size()+" background tasks restored, resume them from the task queue");
+    }
+
+    private static void showToast(String s) {
+        MainActivity.handler.post(()->Toast.makeText(appContext,s,Toast.LENGTH_SHORT).show());
+    }
+
+    /**
+     * Queues a task, to be started by its service as soon as its resources are free. Tasks added to
+     * {@link BaseBackgroundTask#nextAutoTasks} before this call are run after it, if it completes successfully.
+     */
+    public static void submit(Context context, Class<? extends BaseBackgroundService> serviceClass, Serializable params) {
+        init(context);
+        boolean started;
+        synchronized (TaskScheduler.class) {
+            Entry e = new Entry(nextId++,serviceClass.getName(),params);
+            e.resources = resourcesOf(serviceClass,params);
+            e.followUps = inheritedFollowUps.get();
+            if (e.followUps == null) {
+                e.followUps = new ArrayDeque<>(BaseBackgroundTask.nextAutoTasks);
+                BaseBackgroundTask.nextAutoTasks.clear();
+            }
+            else inheritedFollowUps.remove();
+            entries.add(e);
+            persist();
+            dispatch();
+            started = e.running;
+        }
+        if (!started) showToast(paused ? "Task queued, queue is paused" : "Task queued");
+    }
+
+    /**
+     * @return the params of the task just started for serviceClass, null if none
+     */
+    public static synchronized Serializable take(Class<? extends BaseBackgroundService> serviceClass) {
+        Entry e = getRunning(serviceClass);
+        return e == null ? null : e.params;
+    }
+
+    public static synchronized void finished(Class<? extends BaseBackgroundService> serviceClass, boolean success) {
+        Entry e = getRunning(serviceClass);
+        if (e == null) return;
+        entries.remove(e);
+        for (String r : e.resources) used.put(r,used.get(r)-1);
+        persist();
+        if (!e.followUps.isEmpty()) {
+            if (success) {
+                Log.d(TaskScheduler.class.getName(),"Starting next auto task...");
+                Runnable r = e.followUps.pop();
+                Deque<Runnable> rest = e.followUps;
+                new Thread(()->{
+                    inheritedFollowUps.set(rest);
+                    try {r.run();}
+                    finally {inheritedFollowUps.remove();}
+                }).start();
+            }
+            else Log.d(TaskScheduler.class.getName(),"Task failed, discarding next auto tasks...");
+        }
+        dispatch();
+    }
+
+    public static synchronized void progress(Class<? extends BaseBackgroundService> serviceClass, long progress, long total) {
+        Entry e = getRunning(serviceClass);
+        if (e == null) return;
+        e.progress = progress;
+        e.total = total;
+    }
+
+    /**
+     * @return false if no running task, nor waiting one that can be started without user action, can need the
+     * main roothelper instance (SFTP transfers don't use it), that can then be stopped;
+     * held tasks (e.g. restored on app start) and waiting tasks of a paused queue restart it when resumed
+     */
+    public static boolean isRootHelperNeeded() {
+        Set<ForegroundServiceType> active = ProgressIndicator.getActiveTypes();
+        active.remove(ForegroundServiceType.SFTP_TRANSFER);
+        if (!active.isEmpty()) return true;
+        synchronized (TaskScheduler.class) {
+            for (Entry e : entries)
+                if (e.running || (!e.held && !paused)) return true;
+            return false;
+        }
+    }
+
+    /**
+     * XRE hashing and XRE transfers use the same long-term connection to the remote server, so they exclude each other:
+     * a hash is refused while an XRE transfer is running, and waiting XRE transfers are not started till the hash is over
+     * @return false, without acquiring, if an XRE hash or transfer is running
+     */
+    public static synchronized boolean tryAcquireXreHash() {
+        if (getRunning(NonInteractiveXFilesRemoteTransferService.class) != null) return false; // started, maybe not yet initialized
+        return ProgressIndicator.tryAcquire(ForegroundServiceType.XRE_HASH,ForegroundServiceType.XRE_TRANSFER);
+    }
+
+    public static synchronized void releaseXreHash() {
+        ProgressIndicator.release(ForegroundServiceType.XRE_HASH);
+        dispatch();
+    }
+
+    public static synchronized boolean isPaused() {
+        return paused;
+    }
+
+    // running tasks are not affected
+    public static synchronized void setPaused(boolean paused) {
+        TaskScheduler.paused = paused;
+        dispatch();
+    }
+
+    public static synchronized void setHeld(Entry e, boolean held) {
+        if (e.running) return;
+        e.held = held;
+        persist();
+        dispatch();
+    }
+
+    public static synchronized void moveToTop(Entry e) {
+        int max = e.priority;
+        for (Entry x : entries) max = Math.max(max,x.priority);
+        e.priority = max+1;
+        persist();
+        dispatch();
+    }
+
+    // only waiting tasks can be removed, running ones are to be cancelled through their service
+    public static synchronized boolean remove(Entry e) {
+        if (e.running || !entries.remove(e)) return false;
+        persist();
+        return true;
+    }
+
+    /**
+     * @return running tasks, then waiting ones in start order
+     */
+    public static synchronized List<Entry> getEntries() {
+        List<Entry> l = new ArrayList<>(entries);
+        Collections.sort(l,(a,b)->{
+            if (a.running != b.running) return a.running ? -1 : 1;
+            if (a.priority != b.priority) return a.priority > b.priority ? -1 : 1;
+            return Long.compare(a.id,b.id);
+        });
+        return l;
+    }
+
+    private static Entry getRunning(Class<?> serviceClass) {
+        for (Entry e : entries)
+            if (e.running && e.serviceClass.equals(serviceClass.getName())) return e;
+        return null;
+    }
+
+    private static int slots(String resource) {
+        if (resource.equals(DISK)) return diskSlots;
+        if (resource.equals(CPU)) return cpuSlots;
+        if (resource.startsWith(HOST_PREFIX)) return hostSlots;
+        return 1; // service
+    }
+
+    private static void dispatch() {
+        if (paused || appContext == null) return;
+        Set<String> reserved = new HashSet<>(); // by waiting tasks with higher priority
+        for (Entry e : getEntries()) {
+            if (e.running || e.held) continue;
+            // an XRE transfer waits for a running XRE hash, see tryAcquireXreHash
+            boolean free = !(e.serviceClass.equals(NonInteractiveXFilesRemoteTransferService.class.getName()) &&
+                    ProgressIndicator.getActiveTypes().contains(ForegroundServiceType.XRE_HASH));
+            if (free) for (String r : e.resources) {
+                Integer n = used.get(r);
+                if (reserved.contains(r) || (n != null && n >= Math.max(1,slots(r)))) {
+                    free = false;
+                    break;
+                }
+            }
+            if (!free) {
+                reserved.addAll(e.resources);
+                continue;
+            }
+            Intent startIntent;
+            try {
+                startIntent = new Intent(appContext,Class.forName(e.serviceClass));
+            }
+            catch (ClassNotFoundException ex) {
+                entries.remove(e);
+                continue;
+            }
+            startIntent.setAction(BaseBackgroundService.START_ACTION);
+            for (String r : e.resources) {
+                Integer n = used.get(r);
+                used.put(r,n == null ? 1 : n+1);
+            }
+            e.running = true;
+            try {
+                appContext.startService(startIntent);
+            }
+            catch (RuntimeException ex) { // e.g. background start not allowed
+                Log.e(TaskScheduler.class.getName(),"Unable to start "+e.serviceClass,ex);
+                e.running = false;
+                e.held = true;
+                for (String r : e.resources) used.put(r,used.get(r)-1);
+            }
+        }
+    }
+
+    private static String hostOf(BasePathContent p) {
+        if (p instanceof SFTPPathContent) return ((SFTPPathContent)p).authData.domain;
+        if (p instanceof SMBPathContent) return ((SMBPathContent)p).smbAuthData.host;
+        if (p instanceof XREPathContent) return ((XREPathContent)p).serverHost;
+        return null;
+    }
+
+    // for downloads, url is a full url, for uploads only the domain
+    private static String hostOf(String url) {
+        int start = url.indexOf("://");
+        String s = start < 0 ? url : url.substring(start+3);
+        for (char c : new char[]{'/',':','?'}) {
+            int idx = s.indexOf(c);
+            if (idx >= 0) s = s.substring(0,idx);
+        }
+        return s;
+    }
+
+    static List<String> resourcesOf(Class<?> serviceClass, Serializable params) {
+        List<String> r = new ArrayList<>();
+        r.add(serviceClass.getName());
+        if (params instanceof CopyMoveParams) {
+            CopyMoveParams p = (CopyMoveParams) params;
+            String host = hostOf(p.list.parentDir);
+            if (host == null) host = hostOf(p.destPath);
+            r.add(host == null ? DISK : HOST_PREFIX+host);
+        }
+        else if (params instanceof CompressParams || params instanceof ExtractParams) r.add(CPU);
+        else if (params instanceof DownloadParams) r.add(HOST_PREFIX+hostOf(((DownloadParams)params).url));
+        return r;
+    }
+
+    private static void persist() {
+        if (queueFile == null) return;
+        List<byte[]> blobs = new ArrayList<>();
+        for (Entry e : entries) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+                oos.writeObject(e);
+            }
+            catch (IOException ex) {
+                continue; // params not serializable (e.g. lazy file lists), kept in memory only
+            }
+            blobs.add(bos.toByteArray());
+        }
+        try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(queueFile)))) {
+            o.writeInt(blobs.size());
+            for (byte[] b : blobs) {
+                o.writeInt(b.length);
+                o.write(b);
+            }
+        }
+        catch (IOException ex) {
+            Log.e(TaskScheduler.class.getName(),"Unable to save task queue",ex);
+        }
+    }
+
+    private static void load() {
+        if (!queueFile.exists()) return;
+        try (DataInputStream i = new DataInputStream(new BufferedInputStream(new FileInputStream(queueFile)))) {
+            int n = i.readInt();
+            for (int k=0; k<n; k++) {
+                byte[] b = new byte[i.readInt()];
+                i.readFully(b);
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(b))) {
+                    Entry e = (Entry) ois.readObject();
+                    e.resources = resourcesOf(Class.forName(e.serviceClass),e.params);
+                    e.followUps = new ArrayDeque<>();
+                    e.held = true; // not to be restarted without user confirmation
+                    entries.add(e);
+                    nextId = Math.max(nextId,e.id+1);
+                }
+                catch (ClassNotFoundException|ClassCastException|IOException ex) {
+                    Log.e(TaskScheduler.class.getName(),"Discarding unreadable queued task",ex);
+                }
+            }
+        }
+        catch (IOException ex) {
+            Log.e(TaskScheduler.class.getName(),"Unable to load task queue",ex);
+        }
+    }
+}
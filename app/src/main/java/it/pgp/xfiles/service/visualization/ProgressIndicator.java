@@ -5,9 +5,14 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowManager;
 
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.dialogs.TaskQueueDialog;
 import it.pgp.xfiles.enums.ForegroundServiceType;
 import it.pgp.xfiles.utils.Pair;
 
@@ -17,21 +22,50 @@ import it.pgp.xfiles.utils.Pair;
 
 public abstract class ProgressIndicator implements View.OnTouchListener {
 
-    public static final AtomicReference<ForegroundServiceType> busy = new AtomicReference<>(null);
+    // running tasks per type (more services can share a type, e.g. compress and extract)
+    private static final Map<ForegroundServiceType,Integer> active = new EnumMap<>(ForegroundServiceType.class);
 
-    public static boolean acquire(ForegroundServiceType type) {
-        return busy.compareAndSet(null,type);
+    public static synchronized void acquire(ForegroundServiceType type) {
+        Integer n = active.get(type);
+        active.put(type, n == null ? 1 : n+1);
     }
 
-    public static void release() {
-        busy.set(null);
+    /**
+     * For tasks not started by TaskScheduler
+     * @return false, without acquiring, if a task of the same type or of one of the conflicting types is running
+     */
+    public static synchronized boolean tryAcquire(ForegroundServiceType type, ForegroundServiceType... conflicting) {
+        if (active.containsKey(type)) return false;
+        for (ForegroundServiceType t : conflicting)
+            if (active.containsKey(t)) return false;
+        acquire(type);
+        return true;
     }
 
+    public static synchronized void release(ForegroundServiceType type) {
+        Integer n = active.get(type);
+        if (n == null) return;
+        if (n <= 1) active.remove(type);
+        else active.put(type, n-1);
+    }
+
+    public static synchronized Set<ForegroundServiceType> getActiveTypes() {
+        return active.isEmpty() ? EnumSet.noneOf(ForegroundServiceType.class) : EnumSet.copyOf(active.keySet());
+    }
+
+    // vertical positions taken by the ribbons of concurrent tasks, so that they are stacked instead of overlapped
+    private static final Set<Integer> usedSlots = new HashSet<>();
+    protected int slot = -1;
+
     public abstract void setProgress(Pair<Long,Long>... values);
 
     public void destroy() {
         try{ wm.removeView(oView); } catch(Throwable ignored) {}
         try{ wm.removeView(topLeftView); } catch(Throwable ignored) {}
+        synchronized (usedSlots) {
+            if (slot >= 0) usedSlots.remove(slot);
+            slot = -1;
+        }
     }
 
     public final Runnable destroyRef = this::destroy;
@@ -56,9 +90,21 @@ public abstract class ProgressIndicator implements View.OnTouchListener {
     public static final int BASE_RIBBON_DP = 37;
 
     public WindowManager.LayoutParams getDpHeightAdjustedParams(int dp, ViewType v) {
-        WindowManager.LayoutParams params = v.getParams();
-        float pixels = dp * context.getResources().getDisplayMetrics().density;
-        params.height = (int) pixels;
+        WindowManager.LayoutParams base = v.getParams();
+        float density = context.getResources().getDisplayMetrics().density;
+        synchronized (usedSlots) {
+            if (slot < 0) {
+                slot = 0;
+                while (usedSlots.contains(slot)) slot++;
+                usedSlots.add(slot);
+            }
+        }
+        // copy, since the base params are shared by all the indicators
+        WindowManager.LayoutParams params = new WindowManager.LayoutParams(
+                base.width, (int) (dp * density), base.type, base.flags, base.format);
+        params.gravity = base.gravity;
+        params.x = base.x;
+        params.y = base.y + (int) (slot * BASE_RIBBON_DP * 3 * density);
         return params;
     }
 
@@ -116,6 +162,8 @@ public abstract class ProgressIndicator implements View.OnTouchListener {
             if(moving) {
                 return true;
             }
+            // tap on a task ribbon, show all running and waiting tasks
+            if(slot >= 0) TaskQueueDialog.showOverlay(context);
         }
 
         return false;
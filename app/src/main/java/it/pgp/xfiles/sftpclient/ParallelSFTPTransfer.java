@@ -0,0 +1,255 @@
+package it.pgp.xfiles.sftpclient;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.RemoteResourceInfo;
+import net.schmizz.sshj.xfer.TransferListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.enums.FileMode;
+import it.pgp.xfiles.exceptions.InterruptedTransferAsIOException;
+import it.pgp.xfiles.roothelperclient.RootHelperClient;
+import it.pgp.xfiles.utils.pathcontent.LocalPathContent;
+
+/**
+ * Upload or download of several items over parallel SFTP channels of the same SSH session
+ *
+ * Selected items are put in a shared work queue, consumed by one worker per channel; each item is transferred
+ * as a whole (file or directory subtree) by SSHJ on the worker's channel. If there are fewer items than channels,
+ * directories are expanded in advance (destination directory created, children queued) until every channel
+ * can get some work, and their modification times are restored at the end.
+ * Progress from all channels is aggregated in the task's {@link XProgress}; a cancellation or a failure
+ * on any channel stops all of them at the next progress update.
+ * If the server refuses additional channels, the transfer goes on with the ones already opened.
+ */
+
+public class ParallelSFTPTransfer {
+
+    public static final int DEFAULT_CHANNELS = 4;
+    private static final int MAX_EXPANSIONS = 64;
+
+    private static class Item {
+        final String source;
+        final String destDir; // parent of the transferred item at destination
+        final String name;
+        final boolean isDirectory;
+
+        Item(String source, String destDir, String name, boolean isDirectory) {
+            this.source = source;
+            this.destDir = destDir;
+            this.name = name;
+            this.isDirectory = isDirectory;
+        }
+
+        String getDest() {
+            return destDir+"/"+name;
+        }
+    }
+
+    private final XSSHClient sshClient;
+    private final XSFTPClient mainChannel;
+    private final XProgress progress;
+    private final boolean upload;
+    private final int channels;
+
+    private final LinkedList<Item> items = new LinkedList<>();
+    private final List<Item> expandedDirs = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Item> queue = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean aborted = false;
+    private IOException firstError;
+    private final AtomicLong transferredBytes = new AtomicLong();
+
+    // for comparing parallel and sequential throughput (bytes per second), across transfers
+    private static volatile double lastSequentialThroughput = 0;
+    private static volatile String lastStats = "";
+
+    /**
+     * @param upload true for local to remote, false for remote to local
+     */
+    public ParallelSFTPTransfer(XSSHClient sshClient, XSFTPClient mainChannel, XProgress progress, boolean upload, int channels) {
+        this.sshClient = sshClient;
+        this.mainChannel = mainChannel;
+        this.progress = progress;
+        this.upload = upload;
+        this.channels = Math.max(1,channels);
+    }
+
+    public void add(String source, String destDir, String name, boolean isDirectory) {
+        items.add(new Item(source,destDir,name,isDirectory));
+    }
+
+    boolean isAborted() {
+        return aborted || progress.cancelled;
+    }
+
+    void addTransferredBytes(long delta) {
+        transferredBytes.addAndGet(delta);
+    }
+
+    // called by SFTPProvider after sequential transfers
+    public static void recordSequentialTransfer(long bytes, long elapsedMs) {
+        if (bytes > 0 && elapsedMs > 0) lastSequentialThroughput = bytes*1000.0/elapsedMs;
+    }
+
+    public static String getLastStats() {
+        return lastStats;
+    }
+
+    private void expand() throws IOException {
+        int expansions = 0;
+        while (items.size() < channels && expansions < MAX_EXPANSIONS) {
+            Item dir = null;
+            for (Iterator<Item> it = items.iterator(); it.hasNext();) {
+                Item x = it.next();
+                if (x.isDirectory) {
+                    dir = x;
+                    it.remove();
+                    break;
+                }
+            }
+            if (dir == null) return;
+            expansions++;
+            expandedDirs.add(dir);
+            String dest = dir.getDest();
+            if (upload) {
+                mainChannel.mkdirs(dest);
+                for (XFileSystemFile child : new XFileSystemFile(dir.source).getChildren(null))
+                    items.add(new Item(child.toString(),dest,child.getName(),child.isDirectory()));
+            }
+            else {
+                RootHelperClient rhc = MainActivity.requireRootHelperClient();
+                LocalPathContent localDest = new LocalPathContent(dest);
+                BitSet x = rhc.existsIsFileIsDir(localDest,true,true,true);
+                if (!x.get(0)) rhc.createFileOrDirectory(localDest,FileMode.DIRECTORY);
+                else if (!x.get(2)) throw new IOException(dest+" already exists as a file; directory required");
+                for (RemoteResourceInfo child : mainChannel.ls(dir.source))
+                    items.add(new Item(child.getPath(),dest,child.getName(),child.isDirectory()));
+            }
+        }
+    }
+
+    // directories created during expansion got the current time as modification time, as children were added
+    private void restoreExpandedDirsTimes() {
+        for (int k=expandedDirs.size()-1; k>=0; k--) { // children before parents
+            Item dir = expandedDirs.get(k);
+            try {
+                if (upload) {
+                    XFileSystemFile local = new XFileSystemFile(dir.source);
+                    mainChannel.setattr(dir.getDest(),new FileAttributes.Builder()
+                            .withAtimeMtime(local.getLastAccessTime(),local.getLastModifiedTime()).build());
+                }
+                else new XFileSystemFile(dir.getDest()).setLastModifiedTime(mainChannel.mtime(dir.source));
+            }
+            catch (IOException e) {
+                Log.w("ParallelSFTPTransfer","Unable to restore times of "+dir.getDest());
+            }
+        }
+    }
+
+    private void transfer(XSFTPClient channel, Item item) throws IOException {
+        if (upload) channel.put(item.source,item.getDest());
+        else channel.get(item.source,item.destDir+"/"); // ending "/" in order to paste a folder as a child of the destination folder
+    }
+
+    private void fail(IOException e) {
+        synchronized (this) {
+            if (firstError == null) firstError = e;
+        }
+        aborted = true;
+    }
+
+    private void work(XSFTPClient channel) {
+        Item item;
+        while (!isAborted() && (item = queue.poll()) != null) {
+            try {
+                transfer(channel,item);
+            }
+            catch (IOException e) {
+                fail(e);
+            }
+            catch (RuntimeException e) { // unchecked exceptions from SSHJ must not end a worker silently
+                fail(new IOException(e));
+            }
+        }
+    }
+
+    public void run() throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        progress.clearParallel();
+        expand();
+        queue.addAll(items);
+
+        // the main channel is used as well, with a parallel listener for the duration of the transfer
+        List<XSFTPClient> extraChannels = new ArrayList<>();
+        for (int k=1; k<Math.min(channels,items.size()); k++) {
+            try {
+                extraChannels.add(sshClient.newXSFTPClient());
+            }
+            catch (Exception e) {
+                Log.w("ParallelSFTPTransfer","Unable to open SFTP channel "+(k+1)+", going on with "+k+": "+e.getMessage());
+                break;
+            }
+        }
+
+        TransferListener mainListener = mainChannel.xfer.getTransferListener();
+        mainChannel.xfer.setTransferListener(new XParallelTransferListener(progress,this));
+        List<Thread> workers = new ArrayList<>();
+        try {
+            for (XSFTPClient channel : extraChannels) {
+                channel.xfer.setTransferListener(new XParallelTransferListener(progress,this));
+                channel.xfer.setJournal(mainChannel.xfer.journal);
+                Thread t = new Thread(() -> work(channel),"ParallelSFTPTransfer");
+                workers.add(t);
+                t.start();
+            }
+            work(mainChannel);
+            for (Thread t : workers) {
+                try {
+                    t.join();
+                }
+                catch (InterruptedException e) {
+                    aborted = true;
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        finally {
+            mainChannel.xfer.setTransferListener(mainListener);
+            for (XSFTPClient channel : extraChannels) {
+                try {channel.close();} catch (Exception ignored) {}
+            }
+        }
+
+        IOException error;
+        synchronized (this) {
+            error = firstError;
+        }
+        if (error == null && !isAborted()) restoreExpandedDirsTimes();
+
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        double throughput = elapsed > 0 ? transferredBytes.get()*1000.0/elapsed : 0;
+        lastStats = "channels: "+(extraChannels.size()+1)+
+                " items: "+items.size()+
+                " expanded dirs: "+expandedDirs.size()+
+                " bytes: "+transferredBytes.get()+
+                " elapsed ms: "+elapsed+
+                " MB/s: "+String.format("%.2f",throughput/(1024*1024))+
+                (lastSequentialThroughput > 0 ? " speedup vs last sequential transfer: "+String.format("%.2f",throughput/lastSequentialThroughput) : "");
+        Log.d("ParallelSFTPTransfer",lastStats);
+
+        if (error != null) throw error;
+        if (progress.cancelled) throw new InterruptedTransferAsIOException();
+    }
+}
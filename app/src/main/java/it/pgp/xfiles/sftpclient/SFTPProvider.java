@@ -1,6 +1,7 @@
 package it.pgp.xfiles.sftpclient;
 
 import android.os.StrictMode;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
@@ -10,6 +11,7 @@ import net.schmizz.sshj.common.DisconnectReason;
 import net.schmizz.sshj.common.KeyType;
 import net.schmizz.sshj.sftp.FileAttributes;
 import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.RemoteFile;
 import net.schmizz.sshj.sftp.RemoteResourceInfo;
 import net.schmizz.sshj.sftp.SFTPEngine;
 import net.schmizz.sshj.sftp.StatefulSFTPClient;
@@ -26,14 +28,17 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.PublicKey;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
@@ -50,10 +55,14 @@ import it.pgp.xfiles.enums.ProviderType;
 import it.pgp.xfiles.items.FileCreationAdvancedOptions;
 import it.pgp.xfiles.items.SingleStatsItem;
 import it.pgp.xfiles.roothelperclient.HashRequestCodes;
+import it.pgp.xfiles.roothelperclient.resps.batchStats_resp;
 import it.pgp.xfiles.roothelperclient.resps.folderStats_resp;
 import it.pgp.xfiles.service.BaseBackgroundTask;
+import it.pgp.xfiles.utils.Checksums;
+import it.pgp.xfiles.utils.DirListingListener;
 import it.pgp.xfiles.utils.FileOperationHelper;
 import it.pgp.xfiles.utils.GenericDBHelper;
+import it.pgp.xfiles.utils.TransferJournal;
 import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
 import it.pgp.xfiles.utils.dircontent.SftpDirWithContent;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
@@ -495,6 +504,14 @@ public class SFTPProvider implements FileOperationHelper {
         }
     }
 
+    // number of SFTP channels for uploads and downloads, 1 for sequential transfers over the browsing channel
+    public static volatile int parallelChannels = ParallelSFTPTransfer.DEFAULT_CHANNELS;
+
+    // a single regular file gains nothing from more channels
+    private static boolean useParallelTransfer(CopyMoveListPathContent files) {
+        return parallelChannels > 1 && (files.files.size() > 1 || files.files.get(0).isDirectory);
+    }
+
     @Override
     public void copyMoveFilesToDirectory(CopyMoveListPathContent files, BasePathContent dstFolder) throws IOException {
         // needs collaboration of fileopshelper handling operations on files in source folder,
@@ -522,25 +539,50 @@ public class SFTPProvider implements FileOperationHelper {
 
             // count local files via local roothelper or xfilesopshelper and set them in xprogress
 //            long totalLocalFiles = 0;
+            // type and size of all selected items with one batch request, then folder stats only for directories
             long totalLocalSize = 0;
-            for (BrowserItem localItem : files.files) {
-                BasePathContent bpc = files.parentDir.concat(localItem.getFilename());
-                if (MainActivity.xFilesUtils.isDir(bpc)) {
-                    folderStats_resp fsr = MainActivity.xFilesUtils.statFolder(bpc);
+            List<BasePathContent> localPaths = new ArrayList<>(files.files.size());
+            for (BrowserItem localItem : files.files)
+                localPaths.add(files.parentDir.concat(localItem.getFilename()));
+            batchStats_resp localStats = MainActivity.requireRootHelperClient().statBatch(localPaths);
+            for (int k=0; k<localPaths.size(); k++) {
+                if (localStats.isDir(k)) {
+                    folderStats_resp fsr = MainActivity.xFilesUtils.statFolder(localPaths.get(k));
 //                    totalLocalFiles+=fsr.totalFiles;
 //                    totalLocalFiles+=fsr.totalDirs;
                     totalLocalSize+=fsr.totalSize;
                 }
                 else {
 //                    totalLocalFiles++;
-                    totalLocalSize+=MainActivity.xFilesUtils.statFile(bpc).size;
+                    totalLocalSize+=localStats.getSize(k);
                 }
             }
 
             xp.totalFilesSize = totalLocalSize;
             xp.isDetailedProgress = true;
-            for (BrowserItem localItem : files.files)
-                sftpClient.put(files.parentDir.concat(localItem.getFilename()).toString(),dstFolder.dir+"/"+localItem.getFilename());
+            TransferJournal journal = TransferJournal.open(files,dstFolder);
+            sftpClient.xfer.setJournal(journal);
+            try {
+                if (useParallelTransfer(files)) {
+                    ParallelSFTPTransfer transfer = new ParallelSFTPTransfer(
+                            xsshclients.get(((SFTPPathContent)dstFolder).authData.toString()),
+                            sftpClient,xp,true,parallelChannels);
+                    for (int k=0; k<localPaths.size(); k++)
+                        transfer.add(localPaths.get(k).toString(),dstFolder.dir,files.files.get(k).getFilename(),localStats.isDir(k));
+                    transfer.run();
+                }
+                else {
+                    long start = SystemClock.elapsedRealtime();
+                    for (BrowserItem localItem : files.files)
+                        sftpClient.put(files.parentDir.concat(localItem.getFilename()).toString(),dstFolder.dir+"/"+localItem.getFilename());
+                    ParallelSFTPTransfer.recordSequentialTransfer(totalLocalSize,SystemClock.elapsedRealtime()-start);
+                }
+                if (journal != null) journal.finish();
+            }
+            finally {
+                sftpClient.xfer.setJournal(null);
+                if (journal != null) journal.close(); // no-op if finished, else kept for resuming
+            }
         }
         else if (files.parentDir.providerType == ProviderType.SFTP && dstFolder.providerType == ProviderType.LOCAL) {
             // download
@@ -572,28 +614,74 @@ public class SFTPProvider implements FileOperationHelper {
                 xp.isDetailedProgress = true;
             }
 
-            for (BrowserItem remoteItemName : files.files) { // iterator over filenames only
-                // remote dir as local path string
-                // ending "/" in order to paste a folder as a child of the destination folder
-                sftpClient.get(files.parentDir.dir+"/"+remoteItemName.getFilename(),dstFolder.dir+"/");
-            }
-        }
-        else if (files.parentDir.providerType == ProviderType.SFTP && dstFolder.providerType == ProviderType.SFTP) {
-            if (files.copyOrMove==CopyMoveMode.MOVE) {
-                if (((SFTPPathContent)files.parentDir).authData.equals(((SFTPPathContent)dstFolder).authData)) {
-                    XSFTPClient sftpClient = getChannelIfAlreadyExists(((SFTPPathContent)files.parentDir).authData);
-
+            TransferJournal journal = TransferJournal.open(files,dstFolder);
+            sftpClient.xfer.setJournal(journal);
+            try {
+                if (useParallelTransfer(files)) {
+                    ParallelSFTPTransfer transfer = new ParallelSFTPTransfer(xsshClient,sftpClient,xp,false,parallelChannels);
+                    for (BrowserItem remoteItem : files.files)
+                        transfer.add(files.parentDir.dir+"/"+remoteItem.getFilename(),dstFolder.dir,remoteItem.getFilename(),remoteItem.isDirectory);
+                    transfer.run();
+                }
+                else {
+                    long start = SystemClock.elapsedRealtime();
                     for (BrowserItem remoteItemName : files.files) { // iterator over filenames only
                         // remote dir as local path string
-                        sftpClient.rename(files.parentDir.dir+"/"+remoteItemName.getFilename(),dstFolder.dir+"/"+remoteItemName.getFilename());
+                        // ending "/" in order to paste a folder as a child of the destination folder
+                        sftpClient.get(files.parentDir.dir+"/"+remoteItemName.getFilename(),dstFolder.dir+"/");
                     }
+                    ParallelSFTPTransfer.recordSequentialTransfer(totalRemoteSize,SystemClock.elapsedRealtime()-start);
                 }
-                else {
-                    throw new IOException("Unsupported remote-to-remote copy on the same host (only move)");
+                if (journal != null) journal.finish();
+            }
+            finally {
+                sftpClient.xfer.setJournal(null);
+                if (journal != null) journal.close(); // no-op if finished, else kept for resuming
+            }
+        }
+        else if (files.parentDir.providerType == ProviderType.SFTP && dstFolder.providerType == ProviderType.SFTP) {
+            AuthData srcAuthData = ((SFTPPathContent)files.parentDir).authData;
+            AuthData dstAuthData = ((SFTPPathContent)dstFolder).authData;
+            boolean sameHost = srcAuthData.equals(dstAuthData);
+            if (files.copyOrMove==CopyMoveMode.MOVE && sameHost) {
+                XSFTPClient sftpClient = getChannelIfAlreadyExists(srcAuthData);
+
+                for (BrowserItem remoteItemName : files.files) { // iterator over filenames only
+                    // remote dir as local path string
+                    sftpClient.rename(files.parentDir.dir+"/"+remoteItemName.getFilename(),dstFolder.dir+"/"+remoteItemName.getFilename());
                 }
             }
             else {
-                throw new IOException("Unsupported remote-to-remote copy");
+                // copy on the same host, or copy/move across hosts (move as copy, then delete)
+                XSFTPClient srcClient = getChannelIfAlreadyExists(srcAuthData);
+                XSFTPClient dstClient = getChannelIfAlreadyExists(dstAuthData);
+                XSSHClient srcSshClient = xsshclients.get(srcAuthData.toString());
+                if (srcSshClient == null) throw new IOException("Unexpected null: xsshclient");
+
+                XProgress xp = (XProgress) task.mr;
+                xp.clear();
+                long totalRemoteSize = srcSshClient.countTotalSizeInItems(files.getSFTPProgressHelperIterableFilenamesOnly(),files.parentDir.dir);
+                if (totalRemoteSize <= 0) xp.totalFiles = Long.MAX_VALUE;
+                else {
+                    xp.totalFilesSize = totalRemoteSize;
+                    xp.isDetailedProgress = true;
+                }
+
+                SFTPRemoteCopy remoteCopy = new SFTPRemoteCopy(srcClient,dstClient,sameHost?srcSshClient:null,xp);
+                try {
+                    for (BrowserItem remoteItem : files.files)
+                        remoteCopy.copy(files.parentDir.dir,dstFolder.dir,remoteItem.getFilename(),remoteItem.isDirectory,remoteItem.size);
+                }
+                finally {
+                    Log.d(getClass().getName(),remoteCopy.getStats());
+                }
+
+                if (files.copyOrMove==CopyMoveMode.MOVE) {
+                    List<BasePathContent> sources = new ArrayList<>(files.files.size());
+                    for (BrowserItem remoteItem : files.files)
+                        sources.add(files.parentDir.concat(remoteItem.getFilename()));
+                    deleteFilesOrDirectories(sources);
+                }
             }
         }
         else throw new IOException("Unsupported remote transfer");
@@ -787,11 +875,54 @@ public class SFTPProvider implements FileOperationHelper {
     public byte[] hashFile(BasePathContent pathname,
                            HashRequestCodes hashAlgorithm,
                            BitSet dirHashOpts) throws IOException {
-        return new byte[0];
+        return hashFile(pathname,Collections.singletonList(hashAlgorithm),dirHashOpts).get(hashAlgorithm);
+    }
+
+    // max number of outstanding read requests for client-side hashing
+    private static final int HASH_READ_AHEAD_REQUESTS = 16;
+
+    /**
+     * Regular files only (dirHashOpts are ignored). Digests are computed on the remote host if it provides
+     * a suitable command (see {@link XSSHClient#hashRemoteFile}), the remaining ones on client side
+     * over a single pipelined read of the file
+     */
+    @Override
+    public Map<HashRequestCodes,byte[]> hashFile(BasePathContent pathname,
+                                                 Collection<HashRequestCodes> hashAlgorithms,
+                                                 BitSet dirHashOpts) throws IOException {
+        SFTPPathContent g = (SFTPPathContent) pathname;
+        Object channelSftp_ = getChannel(g.authData,null);
+        if (channelSftp_ instanceof FileOpsErrorCodes) throw new IOException(((FileOpsErrorCodes) channelSftp_).name());
+        XSFTPClient sftpClient = (XSFTPClient) channelSftp_;
+        if (sftpClient.stat(g.dir).getType() == net.schmizz.sshj.sftp.FileMode.Type.DIRECTORY)
+            throw new IOException("Directory hashing is not available for SFTP paths");
+
+        Map<HashRequestCodes,byte[]> digests = new EnumMap<>(HashRequestCodes.class);
+        List<HashRequestCodes> clientSide = new ArrayList<>();
+        XSSHClient xsshClient = xsshclients.get(g.authData.toString());
+        for (HashRequestCodes h : hashAlgorithms) {
+            byte[] digest = xsshClient == null ? null : xsshClient.hashRemoteFile(g.dir,h);
+            if (digest != null) digests.put(h,digest);
+            else clientSide.add(h);
+        }
+
+        if (!clientSide.isEmpty()) {
+            Log.d(getClass().getName(),"No remote command for "+clientSide+", hashing "+g.dir+" on client side");
+            try (RemoteFile rf = sftpClient.open(g.dir);
+                 InputStream is = rf.new ReadAheadRemoteFileInputStream(HASH_READ_AHEAD_REQUESTS)) {
+                digests.putAll(Checksums.digest(is,clientSide));
+            }
+        }
+        return digests;
     }
 
     @Override
     public GenericDirWithContent listDirectory(BasePathContent directory) {
+        return listDirectory(directory,null);
+    }
+
+    @Override
+    public GenericDirWithContent listDirectory(BasePathContent directory, DirListingListener listener) {
         SFTPPathContent g = (SFTPPathContent) directory;
 
         // try to get channel
@@ -806,11 +937,14 @@ public class SFTPProvider implements FileOperationHelper {
         XSFTPClient channelSftp = (XSFTPClient) channelSftp_;
 
         // list dir
+        // entries are converted in the ls filter, that is, as soon as each READDIR response batch is decoded,
+        // and nothing is accumulated in the list returned by ls
+        List<BrowserItem> l = new ArrayList<>();
+        List<BrowserItem> chunk = new ArrayList<>();
+        boolean[] cancelled = {false};
         try {
-            List<RemoteResourceInfo> lsContent = channelSftp.ls(g.dir);
-            List<BrowserItem> l = new ArrayList<>();
-
-            for (RemoteResourceInfo entry : lsContent) {
+            channelSftp.ls(g.dir, entry -> {
+                if (cancelled[0]) return false;
                 boolean isLink = false;
                 try {
                     FileAttributes fa = entry.getAttributes();
@@ -819,17 +953,31 @@ public class SFTPProvider implements FileOperationHelper {
                         fa = channelSftp.stat(g.dir+"/"+entry.getName());
                     }
 
-                    l.add(new BrowserItem(entry.getName(),
+                    BrowserItem b = new BrowserItem(entry.getName(),
                             fa.getSize(),
-                            new Date(fa.getMtime()*1000L),
+                            fa.getMtime()*1000L,
                             fa.getType() == net.schmizz.sshj.sftp.FileMode.Type.DIRECTORY,
-                            isLink));
+                            isLink);
+                    l.add(b);
+                    if (listener != null) {
+                        chunk.add(b);
+                        if (chunk.size() == LISTING_CHUNK_SIZE) {
+                            cancelled[0] = !listener.onChunk(new ArrayList<>(chunk)); // listener may keep the chunk
+                            chunk.clear();
+                        }
+                    }
                 }
                 catch(Exception e) {
                     e.printStackTrace();
                     Log.e(getClass().getName(),"skipping inaccessible entry: "+entry.getName());
                 }
-            }
+                return false;
+            });
+
+            if (listener != null && !cancelled[0] && !chunk.isEmpty())
+                cancelled[0] = !listener.onChunk(chunk);
+            if (cancelled[0])
+                return new SftpDirWithContent(g.authData,FileOpsErrorCodes.LISTING_CANCELLED,null);
 
             return new SftpDirWithContent(g.authData,directory.dir,l);
         }
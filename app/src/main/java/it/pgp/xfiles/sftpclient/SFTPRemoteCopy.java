@@ -0,0 +1,152 @@
+package it.pgp.xfiles.sftpclient;
+
+import android.support.annotation.Nullable;
+
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.FileMode;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.RemoteFile;
+import net.schmizz.sshj.sftp.RemoteResourceInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+
+import it.pgp.xfiles.exceptions.InterruptedTransferAsIOException;
+
+/**
+ * Copy of items from one SFTP server to another one, or within the same one
+ *
+ * On the same host, items are copied by the server: with cp over an exec channel if available,
+ * else file by file with the copy-data SFTP extension.
+ * Otherwise, file content is relayed through the device, from a read-ahead stream on the source channel
+ * to a write-behind stream on the destination one: only the two windows of outstanding requests
+ * are buffered in memory, and nothing is written to local storage.
+ */
+
+public class SFTPRemoteCopy {
+
+    private final XSFTPClient src;
+    private final XSFTPClient dst;
+    private final XSSHClient sameHostSsh; // null if source and destination hosts differ
+    private final XProgress progress;
+
+    // stats
+    private int serverCopiedItems = 0;
+    private int copyDataFiles = 0;
+    private int relayedFiles = 0;
+    private long relayedBytes = 0;
+
+    public SFTPRemoteCopy(XSFTPClient src, XSFTPClient dst, @Nullable XSSHClient sameHostSsh, XProgress progress) {
+        this.src = src;
+        this.dst = dst;
+        this.sameHostSsh = sameHostSsh;
+        this.progress = progress;
+    }
+
+    private void checkCancelled() throws IOException {
+        if (progress.cancelled) throw new InterruptedTransferAsIOException();
+    }
+
+    /**
+     * Copies srcDir/name (file or directory) to destDir/name
+     * @param size item size for progress, for regular files only
+     */
+    public void copy(String srcDir, String destDir, String name, boolean isDirectory, long size) throws IOException {
+        checkCancelled();
+        String source = srcDir+"/"+name;
+        if (sameHostSsh != null && (destDir+"/").startsWith(source+"/"))
+            throw new IOException("Cannot copy "+source+" into itself");
+        if (sameHostSsh != null && sameHostSsh.copyOnServer(source,destDir)) {
+            serverCopiedItems++;
+            // no progress from the server, the item is accounted for once completed
+            if (isDirectory && progress.isDetailedProgress) {
+                Map.Entry<String,Boolean> item = new AbstractMap.SimpleEntry<>(name,true);
+                size = Math.max(0,sameHostSsh.countTotalSizeInItems(Collections.singletonList(item),srcDir));
+            }
+            progress.incrementOuterProgressThenPublish(size);
+            progress.publishInnerProgress(size);
+            return;
+        }
+        copyRecursive(source,destDir+"/"+name,src.stat(source));
+    }
+
+    private void copyRecursive(String source, String dest, FileAttributes attrs) throws IOException {
+        checkCancelled();
+        if (attrs.getType() == FileMode.Type.DIRECTORY) {
+            FileAttributes destAttrs = dst.statExistence(dest);
+            if (destAttrs == null) dst.mkdir(dest);
+            else if (destAttrs.getType() != FileMode.Type.DIRECTORY)
+                throw new IOException(dest+" already exists as a file; directory required");
+            for (RemoteResourceInfo child : src.ls(source))
+                copyRecursive(child.getPath(),dest+"/"+child.getName(),child.getAttributes());
+        }
+        else if (attrs.getType() == FileMode.Type.REGULAR) copyFile(source,dest,attrs.getSize());
+        else throw new IOException(source+" is not a regular file or directory");
+
+        dst.setattr(dest,new FileAttributes.Builder()
+                .withPermissions(attrs.getMode().getPermissionsMask())
+                .withAtimeMtime(attrs.getAtime(),attrs.getMtime())
+                .build());
+    }
+
+    private void copyFile(String source, String dest, long size) throws IOException {
+        progress.incrementOuterProgressThenPublish(size);
+        if (sameHostSsh != null && src.engine instanceof XSFTPEngine &&
+                ((XSFTPEngine)src.engine).supportsExtension(XSFTPEngine.COPY_DATA)) {
+            ((XSFTPEngine)src.engine).copyData(source,dest);
+            copyDataFiles++;
+            progress.publishInnerProgress(size);
+            return;
+        }
+
+        int window = Math.max(1,Math.min(XSFTPFileTransfer.window,XSFTPFileTransfer.MAX_WINDOW));
+        try {
+            RemoteFile in = src.open(source);
+            try {
+                RemoteFile out = dst.open(dest,EnumSet.of(OpenMode.WRITE,OpenMode.CREAT,OpenMode.TRUNC));
+                try (InputStream i = in.new ReadAheadRemoteFileInputStream(window);
+                     OutputStream o = out.new RemoteFileOutputStream(0,window)) {
+                    // one packet per read on the source side, and per write on the destination side
+                    byte[] buf = new byte[Math.min(src.engine.getSubsystem().getLocalMaxPacketSize(),
+                            dst.engine.getSubsystem().getRemoteMaxPacketSize() - out.getOutgoingPacketOverhead())];
+                    long transferred = 0;
+                    int n;
+                    while ((n = i.read(buf)) > 0) {
+                        checkCancelled();
+                        o.write(buf,0,n);
+                        transferred += n;
+                        progress.publishInnerProgress(transferred);
+                    }
+                    relayedBytes += transferred;
+                } // closing the output stream waits for the pending acknowledgements
+                finally {
+                    out.close();
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (InterruptedTransferAsIOException e) {
+            // both handles already closed, remove the partial destination file
+            try {
+                dst.rm(dest);
+            }
+            catch (IOException ignored) {}
+            throw e;
+        }
+        relayedFiles++;
+    }
+
+    public String getStats() {
+        return "items copied by cp: "+serverCopiedItems+
+                " files copied by copy-data: "+copyDataFiles+
+                " relayed files: "+relayedFiles+
+                " relayed bytes: "+relayedBytes;
+    }
+}
@@ -0,0 +1,40 @@
+package it.pgp.xfiles.sftpclient;
+
+import net.schmizz.sshj.common.StreamCopier;
+import net.schmizz.sshj.xfer.TransferListener;
+
+import it.pgp.xfiles.exceptions.InterruptedTransferAsIOException;
+
+/**
+ * Transfer listener of one channel in a {@link ParallelSFTPTransfer}, reporting byte deltas
+ * to the shared {@link XProgress}
+ */
+
+public class XParallelTransferListener implements TransferListener {
+
+    private final XProgress progressIndicator;
+    private final ParallelSFTPTransfer transfer;
+
+    XParallelTransferListener(XProgress progressIndicator, ParallelSFTPTransfer transfer) {
+        this.progressIndicator = progressIndicator;
+        this.transfer = transfer;
+    }
+
+    @Override
+    public TransferListener directory(String name) {
+        return this;
+    }
+
+    @Override
+    public StreamCopier.Listener file(String name, long size) {
+        progressIndicator.parallelFileStarted();
+        long[] last = {0};
+        return transferred -> {
+            if (transfer.isAborted()) throw new InterruptedTransferAsIOException(); // another channel failed
+            long delta = transferred - last[0];
+            last[0] = transferred;
+            transfer.addTransferredBytes(delta);
+            progressIndicator.publishParallelProgress(delta,transferred,size);
+        };
+    }
+}
@@ -18,7 +18,7 @@ public class XProgress extends MovingRibbonTwoBars {
     public long totalFiles,currentFiles;
     public long totalSize,currentSize,lastShownSize;
 
-    public boolean cancelled = false;
+    public volatile boolean cancelled = false; // set from the UI thread, read by the transfer one
 
     protected static final long SIZE_THRESHOLD = 1000000;
 
@@ -40,6 +40,8 @@ public class XProgress extends MovingRibbonTwoBars {
 
     public boolean isDetailedProgress = false; // set to true in case of upload
 
+    // setProgress takes generic varargs and, being overridable, cannot be @SafeVarargs; the Pair array is only read
+    @SuppressWarnings("unchecked")
     protected void publish() {
         if(isDetailedProgress)
             setProgress(
@@ -72,6 +74,46 @@ public class XProgress extends MovingRibbonTwoBars {
         publish();
     }
 
+    // parallel transfers: several channels report concurrently, so overall progress is accumulated from byte deltas,
+    // while the inner bar follows the file whose progress has been reported last
+    protected long parallelTransferredSize;
+
+    public synchronized void clearParallel() {
+        parallelTransferredSize = 0;
+        lastShownSize = 0;
+    }
+
+    public synchronized void parallelFileStarted() {
+        if (!isDetailedProgress) currentFiles++;
+    }
+
+    @SuppressWarnings("unchecked") // generic varargs of setProgress, see publish
+    public synchronized void publishParallelProgress(long delta, long fileProgress, long fileSize) throws IOException {
+        if (cancelled) throw new InterruptedTransferAsIOException();
+        parallelTransferredSize += delta;
+        if (parallelTransferredSize - lastShownSize > SIZE_THRESHOLD || fileProgress == fileSize) {
+            lastShownSize = parallelTransferredSize;
+            setProgress(
+                    isDetailedProgress ? new Pair<>(parallelTransferredSize, totalFilesSize) : new Pair<>(currentFiles, totalFiles),
+                    new Pair<>(fileProgress, Math.max(fileSize,1))
+            );
+        }
+    }
+
+    // pipelined single-file transfers (see XSFTPFileTransfer): window of outstanding requests,
+    // and throughput of the last transferred file in bytes per second
+    public volatile int transferWindow;
+    public volatile double transferThroughput;
+
+    public void setTransferStats(int window, long bytes, long elapsedMs) {
+        transferWindow = window;
+        if (elapsedMs > 0) transferThroughput = bytes*1000.0/elapsedMs;
+    }
+
+    public String getTransferStats() {
+        return "window: "+transferWindow+" MB/s: "+String.format("%.2f",transferThroughput/(1024*1024));
+    }
+
     public void cancelByProgressCrash() {
         cancelled = true;
     }
@@ -21,6 +21,7 @@ public class XSFTPClient
 
     public void setProgressIndicator(XProgress progressIndicator) {
         ((XTransferListener)xfer.transferListener).progressIndicator = progressIndicator;
+        xfer.progress = progressIndicator;
     }
 
     public SFTPEngine getSFTPEngine() {
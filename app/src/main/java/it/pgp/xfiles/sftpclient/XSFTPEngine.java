@@ -0,0 +1,83 @@
+package it.pgp.xfiles.sftpclient;
+
+import net.schmizz.sshj.common.SSHException;
+import net.schmizz.sshj.connection.channel.direct.SessionFactory;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.PacketType;
+import net.schmizz.sshj.sftp.SFTPEngine;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SFTP engine exposing the extensions announced by the server, and the "copy-data" extension
+ * (OpenSSH >= 9.0), which copies a file on the server side without transferring its content
+ */
+
+public class XSFTPEngine extends SFTPEngine {
+
+    public static final String COPY_DATA = "copy-data";
+
+    public XSFTPEngine(SessionFactory ssh) throws SSHException {
+        super(ssh);
+    }
+
+    @Override
+    public XSFTPEngine init() throws IOException {
+        super.init();
+        return this;
+    }
+
+    public boolean supportsExtension(String name) {
+        return serverExtensions.containsKey(name);
+    }
+
+    // same request as open, but the raw handle is needed for extended requests
+    private byte[] openHandle(String path, Set<OpenMode> modes) throws IOException {
+        return request(newRequest(PacketType.OPEN)
+                .putString(path,sub.getRemoteCharset())
+                .putUInt32(OpenMode.toMask(modes))
+                .putFileAttributes(FileAttributes.EMPTY))
+                .retrieve(getTimeoutMs(),TimeUnit.MILLISECONDS)
+                .ensurePacketTypeIs(PacketType.HANDLE)
+                .readBytes();
+    }
+
+    private void closeHandle(byte[] handle) throws IOException {
+        request(newRequest(PacketType.CLOSE).putString(handle))
+                .retrieve(getTimeoutMs(),TimeUnit.MILLISECONDS)
+                .ensureStatusPacketIsOK();
+    }
+
+    /**
+     * Server-side copy of a regular file, dest is created or truncated; the caller must check
+     * {@link #supportsExtension} for {@link #COPY_DATA} first
+     */
+    public void copyData(String source, String dest) throws IOException {
+        byte[] readHandle = openHandle(source,EnumSet.of(OpenMode.READ));
+        try {
+            byte[] writeHandle = openHandle(dest,EnumSet.of(OpenMode.WRITE,OpenMode.CREAT,OpenMode.TRUNC));
+            try {
+                // read offset, length (0: up to EOF), write offset
+                // no timeout, the reply is sent only once the whole file has been copied
+                request(newExtendedRequest(COPY_DATA)
+                        .putString(readHandle)
+                        .putUInt64(0)
+                        .putUInt64(0)
+                        .putString(writeHandle)
+                        .putUInt64(0))
+                        .retrieve()
+                        .ensureStatusPacketIsOK();
+            }
+            finally {
+                closeHandle(writeHandle);
+            }
+        }
+        finally {
+            closeHandle(readHandle);
+        }
+    }
+}
@@ -1,17 +1,57 @@
 package it.pgp.xfiles.sftpclient;
 
+import android.os.SystemClock;
+import android.util.Log;
+
+import net.schmizz.sshj.common.StreamCopier;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.FileMode;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.RemoteDirectory;
+import net.schmizz.sshj.sftp.RemoteFile;
+import net.schmizz.sshj.sftp.RemoteResourceInfo;
+import net.schmizz.sshj.sftp.Response;
 import net.schmizz.sshj.sftp.SFTPEngine;
+import net.schmizz.sshj.sftp.SFTPException;
 import net.schmizz.sshj.sftp.SFTPFileTransfer;
 import net.schmizz.sshj.xfer.TransferListener;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.Set;
+
+import it.pgp.xfiles.io.RobustLocalFileOutputStream;
+import it.pgp.xfiles.utils.TransferJournal;
+
+/**
+ * Regular files are transferred with a configurable window of outstanding SFTP requests:
+ * downloads keep {@link #window} reads in flight, and data is written in offset order to the local
+ * roothelper stream; uploads send up to {@link #window} writes before waiting for the oldest acknowledgement.
+ * SSHJ's own transfer code keeps a fixed window of 16 requests, which on high-latency links
+ * caps the throughput of a single file well below the available bandwidth.
+ * Directories are walked here as well (same target resolution as SSHJ), so that with a {@link TransferJournal}
+ * completed files of an interrupted job are skipped, and a partial file is continued from its last checkpoint.
+ */
 
 public class XSFTPFileTransfer extends SFTPFileTransfer {
 
+    public static final int DEFAULT_WINDOW = 64;
+    public static final int MAX_WINDOW = 512;
+
+    // outstanding requests per file transfer, 16 restores SSHJ's behaviour
+    public static volatile int window = DEFAULT_WINDOW;
+
+    private final SFTPEngine engine;
     TransferListener transferListener;
+    XProgress progress; // for transfer stats, if any
+    TransferJournal journal; // for resumable transfers, if any
 
     public XSFTPFileTransfer(SFTPEngine engine) {
         super(engine);
+        this.engine = engine;
         this.transferListener = new XTransferListener();
     }
 
@@ -25,14 +65,249 @@ public class XSFTPFileTransfer extends SFTPFileTransfer {
         this.transferListener = transferListener;
     }
 
+    public void setJournal(TransferJournal journal) {
+        this.journal = journal;
+    }
+
+    private static int getWindow() {
+        return Math.max(1,Math.min(window,MAX_WINDOW));
+    }
+
     // comment upload and download methods to revert to standard Java code for file IO (no roothelper)
     @Override
     public void upload(String source, String dest) throws IOException {
-        upload(new XFileSystemFile(source), dest);
+        upload(transferListener,new XFileSystemFile(source),dest);
     }
 
     @Override
     public void download(String source, String dest) throws IOException {
-        download(source, new XFileSystemFile(dest));
+        String name = source.substring(source.lastIndexOf('/')+1);
+        download(transferListener,source,name,engine.stat(source),new XFileSystemFile(dest));
+    }
+
+    /******************************** upload ********************************/
+
+    private void upload(TransferListener listener, XFileSystemFile local, String dest) throws IOException {
+        if (local.isDirectory()) uploadDir(listener.directory(local.getName()),local,dest);
+        else if (local.isFile()) uploadFile(listener,local,dest);
+        else throw new IOException(local+" is not a file or directory");
+    }
+
+    // same target resolution as SSHJ: into dest, if it is an existing directory with a different name
+    private String prepareDir(XFileSystemFile local, String dest) throws IOException {
+        FileAttributes attrs = statExistence(dest);
+        if (attrs == null) {
+            engine.makeDir(dest);
+            return dest;
+        }
+        if (attrs.getType() != FileMode.Type.DIRECTORY) throw new IOException(dest+" exists but is not a directory");
+        if (dest.substring(dest.lastIndexOf('/')+1).equals(local.getName())) return dest;
+        String adjusted = dest+"/"+local.getName();
+        FileAttributes adjustedAttrs = statExistence(adjusted);
+        if (adjustedAttrs == null) engine.makeDir(adjusted);
+        else if (adjustedAttrs.getType() != FileMode.Type.DIRECTORY) throw new IOException(adjusted+" exists but is not a directory");
+        return adjusted;
+    }
+
+    private void uploadDir(TransferListener listener, XFileSystemFile local, String dest) throws IOException {
+        String adjusted = prepareDir(local,dest);
+        for (XFileSystemFile child : local.getChildren(null))
+            upload(listener,child,adjusted);
+        setRemoteAttributes(local,adjusted);
+    }
+
+    private FileAttributes statExistence(String path) throws IOException {
+        try {
+            return engine.stat(path);
+        }
+        catch (SFTPException e) {
+            if (e.getStatusCode() == Response.StatusCode.NO_SUCH_FILE) return null;
+            throw e;
+        }
+    }
+
+    // same target resolution as SSHJ: into dest if it is an existing directory, else as dest
+    private String getUploadTarget(XFileSystemFile local, String dest) throws IOException {
+        FileAttributes attrs = statExistence(dest);
+        if (attrs != null && attrs.getType() == FileMode.Type.DIRECTORY) return dest+"/"+local.getName();
+        return dest;
+    }
+
+    private TransferJournal.Destination remoteDestination(String path) {
+        return new TransferJournal.Destination() {
+            @Override
+            public long length() throws IOException {
+                FileAttributes attrs = statExistence(path);
+                return attrs == null ? -1 : attrs.getSize();
+            }
+
+            @Override
+            public InputStream openAt(long offset) throws IOException {
+                RemoteFile rf = engine.open(path);
+                return new FilterInputStream(rf.new RemoteFileInputStream(offset)) {
+                    @Override
+                    public void close() throws IOException {
+                        rf.close();
+                    }
+                };
+            }
+        };
+    }
+
+    private void uploadFile(TransferListener listener, XFileSystemFile local, String dest) throws IOException {
+        String target = getUploadTarget(local,dest);
+        long size = local.getLength();
+        long mtime = local.getLastModifiedTime();
+        StreamCopier.Listener l = listener.file(local.getName(),size);
+
+        long offset = 0;
+        if (journal != null) {
+            TransferJournal.Destination d = remoteDestination(target);
+            if (journal.isCompleted(target,size,mtime,d)) {
+                if (l != null) l.reportProgress(size);
+                return;
+            }
+            offset = journal.getResumeOffset(target,size,mtime,d);
+        }
+        TransferJournal.Tracker tracker = journal == null ? null : journal.track(target,size,mtime,offset);
+
+        int w = getWindow();
+        long start = SystemClock.elapsedRealtime();
+        long transferred;
+        Set<OpenMode> modes = offset > 0 ? EnumSet.of(OpenMode.WRITE,OpenMode.CREAT) : EnumSet.of(OpenMode.WRITE,OpenMode.CREAT,OpenMode.TRUNC);
+        RemoteFile rf = engine.open(target,modes);
+        try (InputStream i = local.getInputStream()) {
+            if (offset > 0) {
+                rf.setLength(offset); // anything written after the checkpoint is discarded
+                TransferJournal.skipFully(i,offset);
+            }
+            try (OutputStream o = rf.new RemoteFileOutputStream(offset,w)) {
+                // a write request must fit in one packet to the server
+                transferred = copy(i,o,engine.getSubsystem().getRemoteMaxPacketSize() - rf.getOutgoingPacketOverhead(),l,offset,tracker);
+            } // closing the output stream waits for the pending acknowledgements
+        }
+        finally {
+            rf.close();
+        }
+        onFileTransferred(w,transferred,SystemClock.elapsedRealtime()-start);
+
+        setRemoteAttributes(local,target);
+        if (tracker != null) tracker.completed();
+    }
+
+    private void setRemoteAttributes(XFileSystemFile local, String target) throws IOException {
+        if (getPreserveAttributes())
+            engine.setAttributes(target,new FileAttributes.Builder()
+                    .withPermissions(local.getPermissions())
+                    .withAtimeMtime(local.getLastAccessTime(),local.getLastModifiedTime())
+                    .build());
+    }
+
+    /******************************* download *******************************/
+
+    private void download(TransferListener listener, String source, String name, FileAttributes attrs, XFileSystemFile dest) throws IOException {
+        switch (attrs.getType()) {
+            case DIRECTORY:
+                downloadDir(listener.directory(name),source,name,attrs,dest);
+                break;
+            case REGULAR:
+                downloadFile(listener,source,name,attrs,dest);
+                break;
+            default:
+                throw new IOException(source+" is not a regular file or directory");
+        }
+    }
+
+    private void downloadDir(TransferListener listener, String source, String name, FileAttributes attrs, XFileSystemFile dest) throws IOException {
+        XFileSystemFile local = dest.getTargetDirectory(name);
+        try (RemoteDirectory rd = engine.openDir(source)) {
+            for (RemoteResourceInfo child : rd.scan(null))
+                download(listener,child.getPath(),child.getName(),child.getAttributes(),local);
+        }
+        setLocalAttributes(attrs,local);
+    }
+
+    private void downloadFile(TransferListener listener, String source, String name, FileAttributes attrs, XFileSystemFile dest) throws IOException {
+        XFileSystemFile local = dest.getTargetFile(name);
+        String localPath = local.toString();
+        long size = attrs.getSize();
+        long mtime = attrs.getMtime();
+        StreamCopier.Listener l = listener.file(name,size);
+
+        long offset = 0;
+        OutputStream localStream = null;
+        if (journal != null) {
+            TransferJournal.Destination d = TransferJournal.localFile(localPath);
+            if (journal.isCompleted(localPath,size,mtime,d)) {
+                if (l != null) l.reportProgress(size);
+                return;
+            }
+            offset = journal.getResumeOffset(localPath,size,mtime,d);
+            if (offset > 0) {
+                try {
+                    localStream = new RobustLocalFileOutputStream(localPath,offset);
+                }
+                catch (IOException e) {
+                    offset = 0;
+                }
+            }
+        }
+        if (localStream == null) localStream = local.getOutputStream();
+        TransferJournal.Tracker tracker = journal == null ? null : journal.track(localPath,size,mtime,offset);
+
+        int w = getWindow();
+        long start = SystemClock.elapsedRealtime();
+        long transferred;
+        RemoteFile rf = engine.open(source);
+        // read-ahead stream queues w reads at consecutive offsets, and hands data back in offset order,
+        // re-requesting the missing tail of short reads
+        try (InputStream i = rf.new ReadAheadRemoteFileInputStream(w,offset);
+             OutputStream o = localStream) {
+            // larger reads are cut short by most servers, and would break the sequence of queued offsets
+            transferred = copy(i,o,engine.getSubsystem().getLocalMaxPacketSize(),l,offset,tracker);
+        }
+        finally {
+            rf.close();
+        }
+        onFileTransferred(w,transferred,SystemClock.elapsedRealtime()-start);
+
+        setLocalAttributes(attrs,local);
+        if (tracker != null) tracker.completed();
+    }
+
+    private void setLocalAttributes(FileAttributes attrs, XFileSystemFile local) throws IOException {
+        if (getPreserveAttributes()) {
+            local.setPermissions(attrs.getMode().getPermissionsMask());
+            if (attrs.has(FileAttributes.Flag.ACMODTIME)) {
+                local.setLastAccessedTime(attrs.getAtime());
+                local.setLastModifiedTime(attrs.getMtime());
+            }
+        }
+    }
+
+    /**
+     * @param offset bytes already at destination, for progress
+     * @return bytes copied
+     */
+    private static long copy(InputStream i, OutputStream o, int bufSize, StreamCopier.Listener listener,
+                             long offset, TransferJournal.Tracker tracker) throws IOException {
+        byte[] buf = new byte[bufSize];
+        long transferred = 0;
+        int n;
+        if (listener != null && offset > 0) listener.reportProgress(offset);
+        while ((n = i.read(buf)) > 0) {
+            o.write(buf,0,n);
+            if (tracker != null) tracker.onWritten(buf,0,n,o);
+            transferred += n;
+            if (listener != null) listener.reportProgress(offset+transferred);
+        }
+        o.flush();
+        return transferred;
+    }
+
+    private void onFileTransferred(int w, long bytes, long elapsedMs) {
+        if (progress != null) progress.setTransferStats(w,bytes,elapsedMs);
+        Log.d("XSFTPFileTransfer","window: "+w+" bytes: "+bytes+" elapsed ms: "+elapsedMs+
+                " MB/s: "+String.format("%.2f",elapsedMs > 0 ? bytes*1000.0/elapsedMs/(1024*1024) : 0));
     }
 }
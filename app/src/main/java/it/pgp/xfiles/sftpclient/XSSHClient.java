@@ -7,16 +7,19 @@ import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.common.IOUtils;
 import net.schmizz.sshj.connection.ConnectionException;
 import net.schmizz.sshj.connection.channel.direct.Session;
-import net.schmizz.sshj.sftp.SFTPEngine;
 import net.schmizz.sshj.transport.TransportException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import it.pgp.xfiles.roothelperclient.HashRequestCodes;
 import it.pgp.xfiles.roothelperclient.resps.folderStats_resp;
 import it.pgp.xfiles.utils.Misc;
 
@@ -42,7 +45,7 @@ public class XSSHClient extends SSHClient implements AutoCloseable {
             throws IOException {
         checkConnected();
         checkAuthenticated();
-        return new XSFTPClient(new SFTPEngine(this).init());
+        return new XSFTPClient(new XSFTPEngine(this).init());
     }
 
     /**
@@ -144,16 +147,22 @@ public class XSSHClient extends SSHClient implements AutoCloseable {
         return -1;
     }
 
+    // SFTP path of a Windows host (/C:/example/path or /C/example/path) to Windows path (C:\example\path)
+    private static String toWindowsPath(String path) {
+        String pdwf = path.substring((path.startsWith("/")?1:0),path.length()-((path.endsWith("/")?1:0)));
+        pdwf = pdwf.replace("/","\\");
+        if (pdwf.length()<=1 || pdwf.charAt(1) != ':') pdwf = ""+pdwf.charAt(0)+":"+pdwf.substring(1); // actually the operator should be == for length, <= only to avoid app crash in case of malformed paths
+        //   C:\example\path or C\example\path
+        //   C:\                C               C\
+        return pdwf;
+    }
+
     protected long countTotalSizeInItems_dirMethod(Iterable<Map.Entry<String,Boolean>> filenames, String parentDir) {
         long total = 0;
         long totalFiles = 0;
         if (!filenames.iterator().hasNext()) return total;
         try {
-            String pdwf = parentDir.substring((parentDir.startsWith("/")?1:0),parentDir.length()-((parentDir.endsWith("/")?1:0)));
-            pdwf = pdwf.replace("/","\\");
-            if (pdwf.length()<=1 || pdwf.charAt(1) != ':') pdwf = ""+pdwf.charAt(0)+":"+pdwf.substring(1); // actually the operator should be == for length, <= only to avoid app crash in case of malformed paths
-            //   C:\example\path or C\example\path
-            //   C:\                C               C\
+            String pdwf = toWindowsPath(parentDir);
 
             String changeUnitCommand = pdwf.substring(0,2);
 
@@ -227,6 +236,151 @@ public class XSSHClient extends SSHClient implements AutoCloseable {
         }
     }
 
+    /*
+     * Remote hashing commands, in order of preference: coreutils/b2sum tools, openssl dgst, python hashlib
+     * (also covers CRC32, via zlib), and certutil for Windows hosts.
+     * A command that fails without printing a digest (not found, as status 127 on POSIX shells or 9009 on Windows cmd,
+     * or not supporting the algorithm, as python2 without sha3) is not tried again for the same algorithm in this session
+     */
+    private static final String[] hashMethodNames = {"sum","openssl","python3","python","certutil"};
+    private final Set<String> unavailableHashMethods = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private static String shellQuote(String s) {
+        return "'"+s.replace("'","'\"'\"'")+"'";
+    }
+
+    // null if the method does not support the algorithm
+    private static String buildHashCommand(int method, String path, HashRequestCodes h) {
+        switch (method) {
+            case 0: // coreutils
+                switch (h) {
+                    case md5: return "md5sum -b -- "+shellQuote(path);
+                    case sha1: return "sha1sum -b -- "+shellQuote(path);
+                    case sha224: return "sha224sum -b -- "+shellQuote(path);
+                    case sha256: return "sha256sum -b -- "+shellQuote(path);
+                    case sha384: return "sha384sum -b -- "+shellQuote(path);
+                    case sha512: return "sha512sum -b -- "+shellQuote(path);
+                    case blake2b_256: return "b2sum -b -l 256 -- "+shellQuote(path);
+                    default: return null;
+                }
+            case 1: // openssl
+                String dgst;
+                switch (h) {
+                    case md5: dgst = "md5"; break;
+                    case sha1: dgst = "sha1"; break;
+                    case sha224: dgst = "sha224"; break;
+                    case sha256: dgst = "sha256"; break;
+                    case sha384: dgst = "sha384"; break;
+                    case sha512: dgst = "sha512"; break;
+                    case sha3_224: dgst = "sha3-224"; break;
+                    case sha3_256: dgst = "sha3-256"; break;
+                    case sha3_384: dgst = "sha3-384"; break;
+                    case sha3_512: dgst = "sha3-512"; break;
+                    default: return null;
+                }
+                return "openssl dgst -"+dgst+" -r "+shellQuote(path);
+            case 2: // python hashlib, the path is passed as argument to avoid escaping it into the script
+            case 3:
+                String read = "f=open(sys.argv[1],\"rb\");chunks=iter(lambda:f.read(1<<20),b\"\");";
+                String script;
+                if (h == HashRequestCodes.crc32)
+                    script = "import sys,zlib,functools;"+read+"print(\"%08x\"%(functools.reduce(lambda c,b:zlib.crc32(b,c),chunks,0)&0xffffffff))";
+                else {
+                    String ctor = h == HashRequestCodes.blake2b_256 ? "hashlib.blake2b(digest_size=32)" :
+                            "hashlib.new(\""+h.getLabel().toLowerCase().replace("-","_")+"\")";
+                    script = "import sys,hashlib;"+read+"h="+ctor+";[h.update(b) for b in chunks];print(h.hexdigest())";
+                }
+                return hashMethodNames[method]+" -c '"+script+"' "+shellQuote(path);
+            case 4: // certutil
+                switch (h) {
+                    case md5:
+                    case sha1:
+                    case sha256:
+                    case sha384:
+                    case sha512:
+                        return "certutil -hashfile \""+toWindowsPath(path)+"\" "+h.getLabel();
+                    default: return null;
+                }
+            default:
+                return null;
+        }
+    }
+
+    // first token of a line, or a whole line without whitespace (certutil may space-separate bytes), made of exactly the expected hex digits
+    private static byte[] parseHexDigest(String output, int length) {
+        Pattern hex = Pattern.compile("[0-9a-fA-F]{"+(2*length)+"}");
+        for (String line : output.split("\r?\n")) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            String first = line.split("\\s+")[0];
+            if (first.startsWith("\\")) first = first.substring(1); // escaped filenames in coreutils output
+            if (hex.matcher(first).matches()) return Misc.hexStringToByteArray(first);
+            String compact = line.replaceAll("\\s","");
+            if (hex.matcher(compact).matches()) return Misc.hexStringToByteArray(compact);
+        }
+        return null;
+    }
+
+    /**
+     * Digest of a remote regular file, computed on the remote host with the first available command
+     * @return null if no remote command could compute it (client-side hashing needed)
+     */
+    public byte[] hashRemoteFile(String path, HashRequestCodes h) {
+        for (int method=0; method<hashMethodNames.length; method++) {
+            String key = hashMethodNames[method]+":"+h.name();
+            if (unavailableHashMethods.contains(key)) continue;
+            String command = buildHashCommand(method,path,h);
+            if (command == null) continue;
+            try (Session helperSession = startSession();
+                 Session.Command cmd = helperSession.exec(command);
+                 InputStream is = cmd.getInputStream()) {
+                String output = IOUtils.readFully(is).toString();
+                cmd.join();
+                Integer exitStatus = cmd.getExitStatus();
+                byte[] digest = parseHexDigest(output,h.getLength());
+                if (exitStatus != null && exitStatus == 0 && digest != null) return digest;
+                if (digest == null) {
+                    Log.w("REMOTEHASH",hashMethodNames[method]+" exited with status "+exitStatus+" without a parsable digest, not trying it again for "+h.name()+":\n"+output);
+                    unavailableHashMethods.add(key);
+                }
+            }
+            catch (ConnectionException | TransportException e) {
+                e.printStackTrace();
+                return null;
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    private volatile boolean serverCopyUnavailable = false; // no cp command on the remote host
+
+    /**
+     * Recursive copy of source into destDir on the remote host, preserving modes and times
+     * @return false if the remote host could not do the copy (e.g. no POSIX shell), so that it has to be done via SFTP
+     */
+    public boolean copyOnServer(String source, String destDir) {
+        if (serverCopyUnavailable) return false;
+        // ending "/" in order to copy (or merge) a folder as a child of the destination folder
+        String command = "cp -pR -- "+shellQuote(source)+" "+shellQuote(destDir+"/");
+        try (Session helperSession = startSession();
+             Session.Command cmd = helperSession.exec(command);
+             InputStream es = cmd.getErrorStream()) {
+            String errors = IOUtils.readFully(es).toString();
+            cmd.join();
+            Integer exitStatus = cmd.getExitStatus();
+            if (exitStatus != null && exitStatus == 0) return true;
+            if (exitStatus != null && exitStatus == 127) serverCopyUnavailable = true;
+            Log.w("REMOTECOPY","cp exited with status "+exitStatus+": "+errors);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
     public folderStats_resp statFoldersInPaths(Map.Entry<String,Boolean>... paths) {
         folderStats_resp resp = new folderStats_resp();
 
@@ -6,10 +6,13 @@ import android.support.annotation.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collection;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -25,18 +28,23 @@ import it.pgp.xfiles.io.RobustLocalFileOutputStream;
 import it.pgp.xfiles.items.FileCreationAdvancedOptions;
 import it.pgp.xfiles.items.SingleStatsItem;
 import it.pgp.xfiles.roothelperclient.HashRequestCodes;
+import it.pgp.xfiles.roothelperclient.resps.batchStats_resp;
 import it.pgp.xfiles.roothelperclient.resps.folderStats_resp;
 import it.pgp.xfiles.service.BaseBackgroundTask;
 import it.pgp.xfiles.sftpclient.XProgress;
+import it.pgp.xfiles.utils.DirListingListener;
 import it.pgp.xfiles.utils.FileOperationHelper;
 import it.pgp.xfiles.utils.GenericDBHelper;
+import it.pgp.xfiles.utils.TransferJournal;
 import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
 import it.pgp.xfiles.utils.dircontent.SmbDirWithContent;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 import it.pgp.xfiles.utils.pathcontent.SMBPathContent;
 import jcifs.CIFSContext;
 import jcifs.CIFSException;
+import jcifs.CloseableIterator;
 import jcifs.Configuration;
+import jcifs.SmbResource;
 import jcifs.config.DelegatingConfiguration;
 import jcifs.config.PropertyConfiguration;
 import jcifs.context.BaseContext;
@@ -45,6 +53,7 @@ import jcifs.smb.NtlmPasswordAuthentication;
 import jcifs.smb.SmbFile;
 import jcifs.smb.SmbFileInputStream;
 import jcifs.smb.SmbFileOutputStream;
+import jcifs.smb.SmbRandomAccessFile;
 
 public class SmbProvider implements FileOperationHelper {
 
@@ -134,11 +143,55 @@ public class SmbProvider implements FileOperationHelper {
         return new SmbFile(a+"/"+filename+((isDirectory.length>0 && isDirectory[0])?"/":""),dir.getContext());
     }
 
+    private TransferJournal journal; // for resumable transfers, during copyMoveFilesToDirectory
+
+    private static TransferJournal.Destination smbDestination(SmbFile file) {
+        return new TransferJournal.Destination() {
+            @Override
+            public long length() throws IOException {
+                return file.exists() ? file.length() : -1;
+            }
+
+            @Override
+            public InputStream openAt(long offset) throws IOException {
+                SmbFileInputStream i = new SmbFileInputStream(file);
+                TransferJournal.skipFully(i,offset);
+                return i;
+            }
+        };
+    }
+
     public void downloadSingleFile(SmbFile file, File localPath) throws IOException {
+        String dest = localPath.getAbsolutePath();
+        long size = file.length();
+        long mtime = file.lastModified();
+        long offset = 0;
+        RobustLocalFileOutputStream out = null;
+        if (journal != null) {
+            TransferJournal.Destination d = TransferJournal.localFile(dest);
+            if (journal.isCompleted(dest,size,mtime,d)) {
+                ((XProgress)(task.mr)).incrementOuterProgressThenPublish(size);
+                ((XProgress)(task.mr)).publishInnerProgress(size);
+                return;
+            }
+            offset = journal.getResumeOffset(dest,size,mtime,d);
+            if (offset > 0) {
+                try {
+                    out = new RobustLocalFileOutputStream(dest,offset);
+                }
+                catch (IOException e) {
+                    offset = 0;
+                }
+            }
+        }
+        if (out == null) out = new RobustLocalFileOutputStream(dest);
+        TransferJournal.Tracker tracker = journal == null ? null : journal.track(dest,size,mtime,offset);
+
         try (SmbFileInputStream smbfis = new SmbFileInputStream(file);
-             RobustLocalFileOutputStream fos = new RobustLocalFileOutputStream(localPath.getAbsolutePath())) {
+             RobustLocalFileOutputStream fos = out) {
+            TransferJournal.skipFully(smbfis,offset);
             byte[] b = new byte[1048576];
-            long prg = 0;
+            long prg = offset;
             ((XProgress)(task.mr)).incrementOuterProgressThenPublish(file.getContentLength());
             for(;;) {
                 int readbytes = smbfis.read(b);
@@ -146,28 +199,53 @@ public class SmbProvider implements FileOperationHelper {
                 System.out.println("Read "+readbytes+" bytes");
                 fos.write(b,0,readbytes);
                 System.out.println("Written "+readbytes+" bytes");
+                if (tracker != null) tracker.onWritten(b,0,readbytes,fos);
                 prg+=readbytes;
                 ((XProgress)(task.mr)).publishInnerProgress(prg);
             }
         }
+        if (tracker != null) tracker.completed();
     }
 
     public void uploadSingleFile(File localFile, SmbFile file) throws IOException {
+        String dest = file.getURL().toString();
+        long size = localFile.length();
+        long mtime = localFile.lastModified();
+        long offset = 0;
+        if (journal != null) {
+            TransferJournal.Destination d = smbDestination(file);
+            if (journal.isCompleted(dest,size,mtime,d)) {
+                ((XProgress)(task.mr)).incrementOuterProgressThenPublish(size);
+                ((XProgress)(task.mr)).publishInnerProgress(size);
+                return;
+            }
+            offset = journal.getResumeOffset(dest,size,mtime,d);
+        }
+        TransferJournal.Tracker tracker = journal == null ? null : journal.track(dest,size,mtime,offset);
+
+        if (offset > 0) { // anything written after the checkpoint is discarded
+            try (SmbRandomAccessFile raf = new SmbRandomAccessFile(file,"rw")) {
+                raf.setLength(offset);
+            }
+        }
         try (RobustLocalFileInputStream fis = new RobustLocalFileInputStream(localFile.getAbsolutePath());
-             SmbFileOutputStream smbfos = new SmbFileOutputStream(file)) {
+             SmbFileOutputStream smbfos = new SmbFileOutputStream(file,offset > 0)) {
+            TransferJournal.skipFully(fis,offset);
             byte[] b = new byte[1048576];
-            long prg = 0;
-            ((XProgress)(task.mr)).incrementOuterProgressThenPublish(localFile.length());
+            long prg = offset;
+            ((XProgress)(task.mr)).incrementOuterProgressThenPublish(size);
             for(;;) {
                 int readbytes = fis.read(b);
                 if (readbytes <= 0) break;
                 System.out.println("Read "+readbytes+" bytes");
                 smbfos.write(b,0,readbytes);
                 System.out.println("Written "+readbytes+" bytes");
+                if (tracker != null) tracker.onWritten(b,0,readbytes,smbfos);
                 prg+=readbytes;
                 ((XProgress)(task.mr)).publishInnerProgress(prg);
             }
         }
+        if (tracker != null) tracker.completed();
     }
 
     public void uploadFileOrDirectory(String localPath_, SmbFile remotePath) throws IOException {
@@ -233,38 +311,56 @@ public class SmbProvider implements FileOperationHelper {
             xp.clear();
 
             // count local files via local roothelper or xfilesopshelper and set them in xprogress
+            // type and size of all selected items with one batch request, then folder stats only for directories
             long totalLocalSize = 0;
-            for (BrowserItem localItem : files.files) {
-                BasePathContent bpc = files.parentDir.concat(localItem.getFilename());
-                if (MainActivity.xFilesUtils.isDir(bpc)) {
-                    folderStats_resp fsr = MainActivity.xFilesUtils.statFolder(bpc);
+            List<BasePathContent> localPaths = new ArrayList<>(files.files.size());
+            for (BrowserItem localItem : files.files)
+                localPaths.add(files.parentDir.concat(localItem.getFilename()));
+            batchStats_resp localStats = MainActivity.requireRootHelperClient().statBatch(localPaths);
+            for (int k=0; k<localPaths.size(); k++) {
+                if (localStats.isDir(k)) {
+                    folderStats_resp fsr = MainActivity.xFilesUtils.statFolder(localPaths.get(k));
                     totalLocalSize+=fsr.totalSize;
                 }
                 else {
-                    totalLocalSize+=MainActivity.xFilesUtils.statFile(bpc).size;
+                    totalLocalSize+=localStats.getSize(k);
                 }
             }
 
             xp.totalFilesSize = totalLocalSize;
             xp.isDetailedProgress = true;
 
+            journal = TransferJournal.open(files,dstFolder);
             try (SmbFile dst = ((SMBPathContent) dstFolder).getSmbFile(cSMB,true)){
                 for (BrowserItem localItem : files.files) {
                     String localName = localItem.getFilename();
                     uploadFileOrDirectory(files.parentDir.concat(localName).dir, smbfileConcat(dst,localName, localItem.isDirectory));
                 }
+                if (journal != null) journal.finish();
+            }
+            finally {
+                if (journal != null) journal.close(); // no-op if finished, else kept for resuming
+                journal = null;
             }
         }
         else if (files.parentDir.providerType == ProviderType.SMB && dstFolder.providerType == ProviderType.LOCAL) { // download
             CIFSContext cSMB = getChannel(((SMBPathContent)files.parentDir).smbAuthData);
             ((XProgress)(task.mr)).totalFiles = Long.MAX_VALUE; // FIXME external progress disabled for now
-            for (BrowserItem remoteItemName : files.files) { // iterator over filenames only
-                // remote dir as local path string
-                // ending "/" in order to paste a folder as a child of the destination folder
-                try(SmbFile src = ((SMBPathContent)files.parentDir).getSmbFile(cSMB,true)){
-                    String remoteName = remoteItemName.getFilename();
-                    downloadFileOrDirectory(smbfileConcat(src,remoteName),dstFolder.dir+"/"+remoteName);
+            journal = TransferJournal.open(files,dstFolder);
+            try {
+                for (BrowserItem remoteItemName : files.files) { // iterator over filenames only
+                    // remote dir as local path string
+                    // ending "/" in order to paste a folder as a child of the destination folder
+                    try(SmbFile src = ((SMBPathContent)files.parentDir).getSmbFile(cSMB,true)){
+                        String remoteName = remoteItemName.getFilename();
+                        downloadFileOrDirectory(smbfileConcat(src,remoteName),dstFolder.dir+"/"+remoteName);
+                    }
                 }
+                if (journal != null) journal.finish();
+            }
+            finally {
+                if (journal != null) journal.close(); // no-op if finished, else kept for resuming
+                journal = null;
             }
         }
         else if (files.parentDir.providerType == ProviderType.SFTP && dstFolder.providerType == ProviderType.SFTP) {
@@ -315,22 +411,49 @@ public class SmbProvider implements FileOperationHelper {
         return new byte[0];
     }
 
+    @Override
+    public Map<HashRequestCodes,byte[]> hashFile(BasePathContent pathname,
+                                                 Collection<HashRequestCodes> hashAlgorithms,
+                                                 BitSet dirHashOpts) throws IOException {
+        Map<HashRequestCodes,byte[]> digests = new EnumMap<>(HashRequestCodes.class);
+        for (HashRequestCodes h : hashAlgorithms) digests.put(h,hashFile(pathname,h,dirHashOpts));
+        return digests;
+    }
+
     @Override
     public GenericDirWithContent listDirectory(BasePathContent directory) {
+        return listDirectory(directory,null);
+    }
+
+    @Override
+    public GenericDirWithContent listDirectory(BasePathContent directory, DirListingListener listener) {
         SMBPathContent g = (SMBPathContent) directory;
         CIFSContext cSMB = getChannel(g.smbAuthData);
 
         try {
             SmbFile dirToList = g.getSmbFile(cSMB,true);
             List<BrowserItem> l = new ArrayList<>();
-            for (SmbFile f : dirToList.listFiles()) {
-                l.add(new BrowserItem(
-                        f.getName(),
-                        f.getContentLengthLong(),
-                        new Date(f.getLastModified()),
-                        f.isDirectory(),
-                        false) // TODO get link info
-                );
+            List<BrowserItem> chunk = new ArrayList<>();
+            // children() iterates over the server's directory enumeration responses without collecting them first (unlike listFiles)
+            try (CloseableIterator<SmbResource> it = dirToList.children()) {
+                while (it.hasNext()) {
+                    SmbFile f = (SmbFile) it.next();
+                    BrowserItem b = new BrowserItem(
+                            f.getName(),
+                            f.getContentLengthLong(),
+                            f.getLastModified(),
+                            f.isDirectory(),
+                            false); // TODO get link info
+                    l.add(b);
+                    if (listener != null) {
+                        chunk.add(b);
+                        if (chunk.size() == LISTING_CHUNK_SIZE || !it.hasNext()) {
+                            if (!listener.onChunk(chunk))
+                                return new SmbDirWithContent(g.smbAuthData,FileOpsErrorCodes.LISTING_CANCELLED);
+                            chunk = new ArrayList<>();
+                        }
+                    }
+                }
             }
 
             return new SmbDirWithContent(g.smbAuthData,directory.dir,l);
@@ -0,0 +1,395 @@
+package it.pgp.xfiles.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.roothelperclient.resps.ls_listing;
+
+/**
+ * Compact in-memory tree of an archive's entries (replaces the nested-HashMap ArchiveVMap)
+ *
+ * Every path component is a node identified by an int; node attributes live in flat primitive arrays,
+ * and path segments are interned, so that repeated directory names are stored once.
+ * Once built, nodes are renumbered in breadth-first order with the children of each node
+ * stored contiguously and sorted by name, so that:
+ * - child lookup is a binary search in the children range of the parent, and path lookup is O(depth)
+ * - listing a directory is a scan of its children range
+ * - subtree traversal uses an int stack of nodes, without any per-node allocation
+ *
+ * Node 0 is the archive root. Directory nodes which are not stored explicitly in the archive
+ * have no entry index (-1), and are reported as directories with size 0 and date 0, as in ArchiveVMap.
+ */
+
+public class ArchiveIndex {
+
+    public static final int ROOT = 0;
+    public static final int NO_ENTRY = -1;
+
+    private static final byte FLAG_DIR = 1;
+
+    private int nodeCount;
+    private String[] names;
+    private int[] parents;
+    private int[] entryIdxs; // position in the archive entries list, NO_ENTRY if not stored in the archive
+    private long[] sizes;
+    private long[] dates; // milliseconds
+    private byte[] flags;
+
+    // available once built
+    private int[] childStart, childEnd;
+
+    // build-time only, released by seal()
+    private int[] firstChild, nextSibling;
+    private int[] lookupTable; // open addressing, (parent,name) -> node+1, 0 is empty slot
+    private Map<String,String> segments;
+    private long segmentBytes;
+
+    private ArchiveIndex(int initialCapacity) {
+        names = new String[initialCapacity];
+        parents = new int[initialCapacity];
+        entryIdxs = new int[initialCapacity];
+        sizes = new long[initialCapacity];
+        dates = new long[initialCapacity];
+        flags = new byte[initialCapacity];
+        firstChild = new int[initialCapacity];
+        nextSibling = new int[initialCapacity];
+        lookupTable = new int[Integer.highestOneBit(initialCapacity)*4];
+        segments = new HashMap<>();
+
+        // root node
+        names[0] = "";
+        parents[0] = -1;
+        entryIdxs[0] = NO_ENTRY;
+        flags[0] = FLAG_DIR;
+        firstChild[0] = -1;
+        nextSibling[0] = -1;
+        nodeCount = 1;
+    }
+
+    /**
+     * Builds the index from a decoded roothelper archive listing
+     * (entries with '!' permission marker are not indexed, but still count for entry indexes)
+     */
+    public static ArchiveIndex fromListing(ls_listing listing) {
+        ArchiveIndex idx = new ArchiveIndex(Math.max(16,listing.count*2));
+        for (int i=0; i<listing.count; i++) {
+            if (listing.isUnlisted(i)) continue;
+            // old vmap semantics: only 'd' (not 'L') marks a directory entry
+            boolean isDir = listing.isDirectory(i) && !listing.isLink(i);
+            idx.add(listing.getName(i), i, listing.sizes[i], listing.dates[i]*1000L, isDir);
+        }
+        idx.seal();
+        return idx;
+    }
+
+    /******************** build ********************/
+
+    private void add(String path, int entryIdx, long size, long dateMillis, boolean isDir) {
+        int node = ROOT;
+        int len = path.length();
+        int start = 0;
+        while (start < len) {
+            int end = path.indexOf('/',start);
+            if (end < 0) end = len;
+            if (end > start) // skip empty segments (leading, trailing or double slashes)
+                node = getOrCreateChild(node, intern(path.substring(start,end)));
+            start = end+1;
+        }
+        if (node == ROOT) return;
+        entryIdxs[node] = entryIdx;
+        sizes[node] = size;
+        dates[node] = dateMillis;
+        flags[node] = isDir ? FLAG_DIR : 0;
+    }
+
+    private String intern(String s) {
+        String x = segments.get(s);
+        if (x == null) {
+            segments.put(s,s);
+            x = s;
+        }
+        return x;
+    }
+
+    private static int hash(int parent, String name) {
+        int h = parent*0x9E3779B1 + name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private int getOrCreateChild(int parent, String name) {
+        int mask = lookupTable.length-1;
+        int slot = hash(parent,name) & mask;
+        for(;;) {
+            int x = lookupTable[slot];
+            if (x == 0) break;
+            int n = x-1;
+            if (parents[n] == parent && names[n].equals(name)) return n;
+            slot = (slot+1) & mask;
+        }
+
+        int n = nodeCount++;
+        ensureCapacity(nodeCount);
+        names[n] = name;
+        parents[n] = parent;
+        entryIdxs[n] = NO_ENTRY;
+        flags[n] = FLAG_DIR; // until an explicit entry says otherwise
+        nextSibling[n] = firstChild[parent];
+        firstChild[parent] = n;
+        firstChild[n] = -1;
+
+        if (nodeCount*2 > lookupTable.length) rehash();
+        else lookupTable[slot] = n+1;
+        return n;
+    }
+
+    private void rehash() {
+        lookupTable = new int[lookupTable.length*2];
+        int mask = lookupTable.length-1;
+        for (int n=1; n<nodeCount; n++) {
+            int slot = hash(parents[n],names[n]) & mask;
+            while (lookupTable[slot] != 0) slot = (slot+1) & mask;
+            lookupTable[slot] = n+1;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= names.length) return;
+        int newCap = Math.max(capacity, names.length*2);
+        names = Arrays.copyOf(names,newCap);
+        parents = Arrays.copyOf(parents,newCap);
+        entryIdxs = Arrays.copyOf(entryIdxs,newCap);
+        sizes = Arrays.copyOf(sizes,newCap);
+        dates = Arrays.copyOf(dates,newCap);
+        flags = Arrays.copyOf(flags,newCap);
+        firstChild = Arrays.copyOf(firstChild,newCap);
+        nextSibling = Arrays.copyOf(nextSibling,newCap);
+    }
+
+    // renumber nodes in BFS order with sorted contiguous children, then trim arrays and drop build-time structures
+    private void seal() {
+        int n = nodeCount;
+        int[] order = new int[n]; // new id -> old id
+        int[] newIds = new int[n]; // old id -> new id
+        int[] cStart = new int[n];
+        int[] cEnd = new int[n];
+
+        order[0] = ROOT;
+        int tail = 1;
+        List<Integer> children = new ArrayList<>();
+        for (int head=0; head<tail; head++) {
+            int old = order[head];
+            children.clear();
+            for (int c=firstChild[old]; c>=0; c=nextSibling[c]) children.add(c);
+            final String[] nm = names;
+            Collections.sort(children, (a,b) -> nm[a].compareTo(nm[b]));
+            cStart[head] = tail;
+            for (int c : children) order[tail++] = c;
+            cEnd[head] = tail;
+        }
+        for (int i=0; i<n; i++) newIds[order[i]] = i;
+
+        String[] names_ = new String[n];
+        int[] parents_ = new int[n];
+        int[] entryIdxs_ = new int[n];
+        long[] sizes_ = new long[n];
+        long[] dates_ = new long[n];
+        byte[] flags_ = new byte[n];
+        for (int i=0; i<n; i++) {
+            int old = order[i];
+            names_[i] = names[old];
+            parents_[i] = old==ROOT ? -1 : newIds[parents[old]];
+            entryIdxs_[i] = entryIdxs[old];
+            sizes_[i] = sizes[old];
+            dates_[i] = dates[old];
+            flags_[i] = flags[old];
+        }
+        names = names_;
+        parents = parents_;
+        entryIdxs = entryIdxs_;
+        sizes = sizes_;
+        dates = dates_;
+        flags = flags_;
+        childStart = cStart;
+        childEnd = cEnd;
+
+        for (String seg : segments.keySet()) segmentBytes += 40 + 2L*seg.length();
+        firstChild = null;
+        nextSibling = null;
+        lookupTable = null;
+        segments = null;
+    }
+
+    /******************** queries ********************/
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    // rough estimate of retained heap, used for bounding the archive cache
+    public long getEstimatedBytes() {
+        // per node: 2 longs, 4 ints, 1 byte, 1 reference; interned segments are counted once
+        return 16L + nodeCount*(8L*2 + 4L*4 + 1 + 4) + segmentBytes;
+    }
+
+    public int findChild(int parent, String name) {
+        int lo = childStart[parent], hi = childEnd[parent]-1;
+        while (lo <= hi) {
+            int mid = (lo+hi) >>> 1;
+            int c = names[mid].compareTo(name);
+            if (c < 0) lo = mid+1;
+            else if (c > 0) hi = mid-1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the node for the given in-archive path ("" or "/" for the root), or -1 if not present
+     */
+    public int lookup(String inArchivePath) {
+        int node = ROOT;
+        if (inArchivePath == null) return node;
+        int len = inArchivePath.length();
+        int start = 0;
+        while (start < len) {
+            int end = inArchivePath.indexOf('/',start);
+            if (end < 0) end = len;
+            if (end > start) {
+                node = findChild(node, inArchivePath.substring(start,end));
+                if (node < 0) return -1;
+            }
+            start = end+1;
+        }
+        return node;
+    }
+
+    public String getName(int node) {
+        return names[node];
+    }
+
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    public String getPath(int node) {
+        if (node == ROOT) return "";
+        StringBuilder sb = new StringBuilder(names[node]);
+        for (int p=parents[node]; p!=ROOT; p=parents[p])
+            sb.insert(0,'/').insert(0,names[p]);
+        return sb.toString();
+    }
+
+    public int getEntryIndex(int node) {
+        return entryIdxs[node];
+    }
+
+    public boolean hasEntry(int node) {
+        return entryIdxs[node] != NO_ENTRY;
+    }
+
+    public boolean isDir(int node) {
+        return (flags[node] & FLAG_DIR) != 0;
+    }
+
+    public long getSize(int node) {
+        return sizes[node];
+    }
+
+    public long getDateMillis(int node) {
+        return dates[node];
+    }
+
+    public int childrenStart(int node) {
+        return childStart[node];
+    }
+
+    public int childrenEnd(int node) {
+        return childEnd[node];
+    }
+
+    public BrowserItem toBrowserItem(int node, String displayName) {
+        return new BrowserItem(displayName, sizes[node], dates[node], isDir(node), false);
+    }
+
+    public List<BrowserItem> listChildren(int node) {
+        List<BrowserItem> content = new ArrayList<>(childEnd[node]-childStart[node]);
+        for (int c=childStart[node]; c<childEnd[node]; c++)
+            content.add(toBrowserItem(c,names[c]));
+        return content;
+    }
+
+    /**
+     * Depth-first iterator over the node ids of a subtree, the subtree root included
+     * (same coverage as iterating node properties with VMapSubTreeIterable)
+     */
+    public class SubTreeIterator {
+        private int[] stack = new int[32];
+        private int top = 0;
+
+        SubTreeIterator(int node) {
+            if (node >= 0) stack[top++] = node;
+        }
+
+        public boolean hasNext() {
+            return top > 0;
+        }
+
+        public int next() {
+            int n = stack[--top];
+            int s = childStart[n], e = childEnd[n];
+            if (top+e-s > stack.length) stack = Arrays.copyOf(stack, Math.max(stack.length*2, top+e-s));
+            for (int c=e-1; c>=s; c--) stack[top++] = c; // children popped in name order
+            return n;
+        }
+    }
+
+    public SubTreeIterator subTree(int node) {
+        return new SubTreeIterator(node);
+    }
+
+    public SubTreeIterator subTree(String inArchivePath) {
+        return new SubTreeIterator(lookup(inArchivePath));
+    }
+
+    // whole archive, excluding the root node (same coverage as VMapFullTreeIterable)
+    public SubTreeIterator fullTree() {
+        SubTreeIterator it = new SubTreeIterator(ROOT);
+        it.next();
+        return it;
+    }
+
+    // entry indexes of all explicitly stored entries under inArchivePath, the path itself included
+    public List<Integer> getEntries(String inArchivePath) {
+        List<Integer> entries = new ArrayList<>();
+        SubTreeIterator it = subTree(inArchivePath);
+        while (it.hasNext()) {
+            int n = it.next();
+            if (hasEntry(n)) entries.add(entryIdxs[n]);
+        }
+        return entries;
+    }
+
+    /**
+     * @param recursive if true, match names over the whole archive, and report matches by full in-archive path,
+     *                  else only among the children of the archive root
+     * @param results receives matches, returns false to stop the search
+     */
+    public void findInArchive(Predicate<String> matcher, boolean recursive, Predicate<BrowserItem> results) {
+        if (recursive) {
+            SubTreeIterator it = fullTree();
+            while (it.hasNext()) {
+                int n = it.next();
+                if (matcher.test(names[n]) && !results.test(toBrowserItem(n,getPath(n)))) return;
+            }
+        }
+        else {
+            for (int n=childStart[ROOT]; n<childEnd[ROOT]; n++)
+                if (matcher.test(names[n]) && !results.test(toBrowserItem(n,names[n]))) return;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package it.pgp.xfiles.utils;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.pgp.xfiles.enums.ProviderType;
+import it.pgp.xfiles.roothelperclient.HashRequestCodes;
+import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+
+/**
+ * Bounded parallel hashing of many paths
+ *
+ * Each provider gets its own worker pool, sized by {@link #getConcurrencyCap}: one worker per core for internal storage,
+ * fewer on removable storage (where parallel random reads only add seeks), and a single worker for XRE paths,
+ * since remote hash requests share the long-term TLS session of each host.
+ * Results are reported as soon as each path is done, together with its index in the submitted list,
+ * so that callers can keep a deterministic result order.
+ */
+
+public class ChecksumScheduler {
+
+    public static final int MAX_REMOVABLE_STORAGE_WORKERS = 2;
+
+    public interface HashJob {
+        // null on error
+        Map<HashRequestCodes,byte[]> hash(BasePathContent path) throws IOException;
+    }
+
+    public interface ResultListener {
+        // called on worker threads; exactly one of digests and error is non-null
+        void onResult(int index, @Nullable Map<HashRequestCodes,byte[]> digests, @Nullable Exception error);
+    }
+
+    private final HashJob job;
+    private final ResultListener listener;
+    private final Map<ProviderType,ExecutorService> executors = new EnumMap<>(ProviderType.class);
+    private volatile boolean cancelled = false;
+
+    // stats
+    private long startedAt;
+    private final AtomicInteger completedFiles = new AtomicInteger();
+    private final AtomicInteger failedFiles = new AtomicInteger();
+    private final AtomicLong completedBytes = new AtomicLong();
+    private int totalFiles = 0;
+
+    public ChecksumScheduler(HashJob job, ResultListener listener) {
+        this.job = job;
+        this.listener = listener;
+    }
+
+    public static int getConcurrencyCap(BasePathContent path) {
+        switch (path.providerType) {
+            case LOCAL:
+                int cores = Math.max(1,Runtime.getRuntime().availableProcessors());
+                return isRemovableStorage(path.dir) ? Math.min(cores,MAX_REMOVABLE_STORAGE_WORKERS) : cores;
+            default:
+                return 1;
+        }
+    }
+
+    // SD cards and USB drives are mounted under /storage, except for the emulated internal storage
+    private static boolean isRemovableStorage(String dir) {
+        return (dir.startsWith("/storage/") && !dir.startsWith("/storage/emulated/") && !dir.startsWith("/storage/self/"))
+                || dir.startsWith("/mnt/media_rw/");
+    }
+
+    private synchronized ExecutorService getExecutor(BasePathContent path) {
+        ExecutorService executor = executors.get(path.providerType);
+        if (executor == null) {
+            int n = getConcurrencyCap(path);
+            executor = new ThreadPoolExecutor(n,n,0L,TimeUnit.MILLISECONDS,new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                },"ChecksumScheduler-"+path.providerType.name());
+                t.setDaemon(true);
+                return t;
+            });
+            executors.put(path.providerType,executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Hashes all paths, blocking until every one of them has been reported, or until {@link #cancel} is called
+     * @param sizes sizes of paths, for throughput counters only
+     */
+    public void run(List<BasePathContent> paths, long[] sizes) throws InterruptedException {
+        totalFiles = paths.size();
+        startedAt = SystemClock.elapsedRealtime();
+        CountDownLatch done = new CountDownLatch(paths.size());
+        for (int k=0; k<paths.size() && !cancelled; k++) {
+            final int index = k;
+            final BasePathContent path = paths.get(k);
+            ExecutorService executor = getExecutor(path);
+            if (executor.isShutdown()) break; // cancelled meanwhile
+            executor.execute(() -> {
+                try {
+                    if (cancelled) return;
+                    Map<HashRequestCodes,byte[]> digests = null;
+                    Exception error = null;
+                    try {
+                        digests = job.hash(path);
+                        if (digests == null) error = new IOException("Unable to hash "+path);
+                    }
+                    catch (Exception e) {
+                        error = e;
+                    }
+                    if (cancelled) return;
+                    if (error == null) {
+                        completedFiles.incrementAndGet();
+                        completedBytes.addAndGet(sizes[index]);
+                    }
+                    else failedFiles.incrementAndGet();
+                    listener.onResult(index,error == null ? digests : null,error);
+                }
+                finally {
+                    done.countDown();
+                }
+            });
+        }
+        try {
+            // on cancel, dropped paths never count down
+            while (!done.await(200,TimeUnit.MILLISECONDS))
+                if (cancelled) break;
+        }
+        finally {
+            shutdown();
+            Log.d("ChecksumScheduler",getStats());
+        }
+    }
+
+    // pending paths are dropped, running requests are left to complete but not reported
+    public void cancel() {
+        cancelled = true;
+        shutdown();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private synchronized void shutdown() {
+        for (ExecutorService executor : executors.values()) executor.shutdownNow();
+        executors.clear();
+    }
+
+    public int getCompletedFiles() {
+        return completedFiles.get() + failedFiles.get();
+    }
+
+    public double getFilesPerSecond() {
+        long elapsed = SystemClock.elapsedRealtime() - startedAt;
+        return elapsed <= 0 ? 0 : getCompletedFiles()*1000.0/elapsed;
+    }
+
+    public double getMBPerSecond() {
+        long elapsed = SystemClock.elapsedRealtime() - startedAt;
+        return elapsed <= 0 ? 0 : completedBytes.get()*1000.0/elapsed/(1024*1024);
+    }
+
+    public String getStats() {
+        return "files: "+getCompletedFiles()+"/"+totalFiles+
+                " failed: "+failedFiles.get()+
+                " files/s: "+String.format("%.1f",getFilesPerSecond())+
+                " MB/s: "+String.format("%.1f",getMBPerSecond());
+    }
+}
@@ -2,16 +2,25 @@ package it.pgp.xfiles.utils;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
 import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.zip.CRC32;
-import java.util.zip.Checksum;
+
+import it.pgp.xfiles.roothelperclient.HashRequestCodes;
 
 /**
  * Created by pgp on 28/09/16
@@ -23,97 +32,162 @@ public class Checksums {
         Security.addProvider(new BouncyCastleProvider());
     }
 
-    // TODO byte[] or hexstring output
-    public static long crc32(Object filepath) throws IOException {
-        InputStream inputStream;
-        if (filepath instanceof File) {
-            inputStream = new BufferedInputStream(new FileInputStream((File)filepath));
+    /*
+     * Android already registers a stripped-down provider named "BC", so the addProvider above may be a no-op;
+     * SHA-3 and BLAKE2b are therefore always taken from this instance, while MD5/SHA-1/SHA-2 use the platform
+     * provider (native implementations on recent Android versions)
+     */
+    private static final Provider bc = new BouncyCastleProvider();
+
+    public static final int READ_BUFFER_SIZE = 1024*1024;
+
+    // CRC32 with the same interface as the other algorithms (big-endian 4-byte digest)
+    private static class CRC32Digest extends MessageDigest {
+        private final CRC32 crc = new CRC32();
+
+        CRC32Digest() {
+            super("CRC32");
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            crc.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            crc.update(input,offset,len);
+        }
+
+        @Override
+        protected int engineGetDigestLength() {
+            return 4;
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            long v = crc.getValue();
+            crc.reset();
+            return new byte[]{(byte)(v>>>24),(byte)(v>>>16),(byte)(v>>>8),(byte)v};
         }
-        else if (filepath instanceof String) {
-            inputStream = new BufferedInputStream(new FileInputStream((String)filepath));
+
+        @Override
+        protected void engineReset() {
+            crc.reset();
         }
-        else {
-            throw new IOException("Neither file object nor filepath string");
+    }
+
+    public static MessageDigest newDigest(HashRequestCodes h) throws NoSuchAlgorithmException {
+        switch (h) {
+            case crc32: return new CRC32Digest();
+            case md5: return MessageDigest.getInstance("MD5");
+            case sha1: return MessageDigest.getInstance("SHA-1");
+            case sha224: return MessageDigest.getInstance("SHA-224",bc);
+            case sha256: return MessageDigest.getInstance("SHA-256");
+            case sha384: return MessageDigest.getInstance("SHA-384");
+            case sha512: return MessageDigest.getInstance("SHA-512");
+            case sha3_224: return MessageDigest.getInstance("SHA3-224",bc);
+            case sha3_256: return MessageDigest.getInstance("SHA3-256",bc);
+            case sha3_384: return MessageDigest.getInstance("SHA3-384",bc);
+            case sha3_512: return MessageDigest.getInstance("SHA3-512",bc);
+            case blake2b_256: return MessageDigest.getInstance("BLAKE2B-256",bc);
+            default: throw new NoSuchAlgorithmException(h.getLabel());
         }
+    }
+
+    private static List<MessageDigest> newDigests(List<HashRequestCodes> algorithms) throws IOException {
+        List<MessageDigest> digests = new ArrayList<>(algorithms.size());
+        try {
+            for (HashRequestCodes h : algorithms) digests.add(newDigest(h));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        return digests;
+    }
 
-        Checksum crc = new CRC32();
+    private static Map<HashRequestCodes,byte[]> collect(List<HashRequestCodes> algorithms, List<MessageDigest> digests) {
+        Map<HashRequestCodes,byte[]> m = new EnumMap<>(HashRequestCodes.class);
+        for (int k=0; k<algorithms.size(); k++) m.put(algorithms.get(k),digests.get(k).digest());
+        return m;
+    }
 
-        int cnt;
-        while ((cnt = inputStream.read()) != -1) {
-            crc.update(cnt);
+    /**
+     * Several digests of a regular file, read once through its FileChannel with a large buffer
+     *
+     * The buffer is a heap one on purpose: the channel fills it with a single copy,
+     * while updating more than one MessageDigest from a direct buffer would copy it once per digest
+     */
+    public static Map<HashRequestCodes,byte[]> digest(File file, Collection<HashRequestCodes> algorithms) throws IOException {
+        List<HashRequestCodes> algos = new ArrayList<>(algorithms);
+        List<MessageDigest> digests = newDigests(algos);
+        try (FileInputStream fis = new FileInputStream(file);
+             FileChannel fc = fis.getChannel()) {
+            long size = fc.size();
+            ByteBuffer buffer = ByteBuffer.allocate((int)Math.max(1,Math.min(READ_BUFFER_SIZE,size)));
+            byte[] array = buffer.array();
+            while (fc.read(buffer) != -1) {
+                for (MessageDigest d : digests) d.update(array,0,buffer.position());
+                buffer.clear();
+            }
         }
+        return collect(algos,digests);
+    }
 
-        return crc.getValue();
+    // same as above, for providers exposing only a stream
+    public static Map<HashRequestCodes,byte[]> digest(InputStream inputStream, Collection<HashRequestCodes> algorithms) throws IOException {
+        List<HashRequestCodes> algos = new ArrayList<>(algorithms);
+        List<MessageDigest> digests = newDigests(algos);
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int n;
+        while ((n = inputStream.read(buffer)) != -1)
+            for (MessageDigest d : digests) d.update(buffer,0,n);
+        return collect(algos,digests);
+    }
+
+    public static byte[] digest(File file, HashRequestCodes algorithm) throws IOException {
+        return digest(file,Collections.singletonList(algorithm)).get(algorithm);
+    }
+
+    // TODO byte[] or hexstring output
+    public static long crc32(Object filepath) throws IOException {
+        File file;
+        if (filepath instanceof File) file = (File) filepath;
+        else if (filepath instanceof String) file = new File((String)filepath);
+        else throw new IOException("Neither file object nor filepath string");
+
+        byte[] d = digest(file,HashRequestCodes.crc32);
+        return ((d[0]&0xFFL)<<24) | ((d[1]&0xFFL)<<16) | ((d[2]&0xFFL)<<8) | (d[3]&0xFFL);
     }
 
     public static byte[] sha1(String filepath) throws NoSuchAlgorithmException,IOException {
         return sha1(new File(filepath));
     }
     public static byte[] sha1(File file) throws NoSuchAlgorithmException,IOException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-1");
-        InputStream fis = new FileInputStream(file);
-        int n = 0;
-        byte[] buffer = new byte[8192];
-        while (n != -1) {
-            n = fis.read(buffer);
-            if (n > 0) {
-                digest.update(buffer, 0, n);
-            }
-        }
-        return digest.digest();
+        return digest(file,HashRequestCodes.sha1);
     }
 
     public static byte[] sha256(File file) throws NoSuchAlgorithmException,IOException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        InputStream fis = new FileInputStream(file);
-        int n = 0;
-        byte[] buffer = new byte[8192];
-        while (n != -1) {
-            n = fis.read(buffer);
-            if (n > 0) {
-                digest.update(buffer, 0, n);
-            }
-        }
-        return digest.digest();
+        return digest(file,HashRequestCodes.sha256);
     }
 
     public static byte[] sha512(File file) throws NoSuchAlgorithmException,IOException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-512");
-        InputStream fis = new FileInputStream(file);
-        int n = 0;
-        byte[] buffer = new byte[8192];
-        while (n != -1) {
-            n = fis.read(buffer);
-            if (n > 0) {
-                digest.update(buffer, 0, n);
-            }
-        }
-        return digest.digest();
+        return digest(file,HashRequestCodes.sha512);
     }
 
     public static byte[] md5(File file) throws NoSuchAlgorithmException,IOException {
-        MessageDigest digest = MessageDigest.getInstance("MD5");
-        InputStream fis = new FileInputStream(file);
-        int n = 0;
-        byte[] buffer = new byte[8192];
-        while (n != -1) {
-            n = fis.read(buffer);
-            if (n > 0) {
-                digest.update(buffer, 0, n);
-            }
-        }
-        return digest.digest();
+        return digest(file,HashRequestCodes.md5);
     }
 
     public static byte[] stdDigest(File file, String algorithm) throws NoSuchAlgorithmException,IOException {
         MessageDigest digest = MessageDigest.getInstance(algorithm);
-        InputStream fis = new FileInputStream(file);
-        int n = 0;
-        byte[] buffer = new byte[8192];
-        while (n != -1) {
-            n = fis.read(buffer);
-            if (n > 0) {
-                digest.update(buffer, 0, n);
+        try (FileInputStream fis = new FileInputStream(file);
+             FileChannel fc = fis.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            while (fc.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
             }
         }
         return digest.digest();
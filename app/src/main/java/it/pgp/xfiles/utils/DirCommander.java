@@ -1,5 +1,6 @@
 package it.pgp.xfiles.utils;
 
+import android.support.annotation.Nullable;
 import android.widget.Toast;
 
 import java.util.ArrayList;
@@ -35,13 +36,29 @@ public class DirCommander {
     }
 
     private GenericDirWithContent validateDirAccess(BasePathContent dir) {
+        return validateDirAccess(dir,null,false);
+    }
+
+    private GenericDirWithContent validateDirAccess(BasePathContent dir, @Nullable DirListingListener listener) {
+        return validateDirAccess(dir,listener,true);
+    }
+
+    // with non-null listener, entries are also streamed to it in chunks while listing (not for archives, already indexed in memory)
+    // with useCache, a still valid cached listing is returned as a whole without listing (listener is not invoked);
+    // explicit refreshes bypass the cache lookup, but still store the new listing
+    private GenericDirWithContent validateDirAccess(BasePathContent dir, @Nullable DirListingListener listener, boolean useCache) {
         FileOperationHelper helper = MainActivity.mainActivity.getFileOpsHelper(dir.providerType);
         switch (dir.providerType) {
             case LOCAL:
             case XFILES_REMOTE:
             case SFTP:
             case SMB:
-                return helper.listDirectory(dir);
+                DirListingCache cache = DirListingCache.forProvider(dir.providerType);
+                if (useCache) {
+                    GenericDirWithContent cached = cache.get(dir,helper);
+                    if (cached != null) return cached;
+                }
+                return cache.listAndStore(dir,helper,listener,false);
             case LOCAL_WITHIN_ARCHIVE:
                 return helper.listArchive(dir);
             default: // URL_DOWNLOAD is not a goDir label
@@ -96,15 +113,19 @@ public class DirCommander {
 
 
     public GenericDirWithContent goBack(int previousPosition) {
+        return goBack(previousPosition,null);
+    }
+
+    public GenericDirWithContent goBack(int previousPosition, @Nullable DirListingListener listener) {
         GenericDirWithContent cwd;
         // asks for previous dir in command; commander object updates its state and returns previous dir
         if (recentDirs == null || recentDirs.size()==0) // guard block
             throw new RuntimeException("Commander not initialized correctly");
 
         if (currentIndex==0) // no previous dir (assume you cannot delete the folder you're in), also do not set previous positions
-           return validateDirAccess(recentDirs.get(0));
+           return validateDirAccess(recentDirs.get(0),listener);
 
-        cwd = validateDirAccess(recentDirs.get(currentIndex-1));
+        cwd = validateDirAccess(recentDirs.get(currentIndex-1),listener);
         if (cwd == null || cwd.errorCode != null)
             return new GenericDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_GO_BACK);
         cwd.listViewPosition = previousListViewPositions.get(currentIndex-1);
@@ -183,10 +204,14 @@ public class DirCommander {
     }
 
     public GenericDirWithContent goAhead(int previousPosition) {
+        return goAhead(previousPosition,null);
+    }
+
+    public GenericDirWithContent goAhead(int previousPosition, @Nullable DirListingListener listener) {
         if (recentDirs.size()==currentIndex+1) // cannot go ahead, already last item of commander
-            return validateDirAccess(recentDirs.get(currentIndex));
+            return validateDirAccess(recentDirs.get(currentIndex),listener);
 
-        GenericDirWithContent cwd = validateDirAccess(recentDirs.get(currentIndex+1));
+        GenericDirWithContent cwd = validateDirAccess(recentDirs.get(currentIndex+1),listener);
 
         if (cwd == null || cwd.errorCode != null) // cannot go ahead (dir not found, IO error)
             return new GenericDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_GO_AHEAD);
@@ -200,11 +225,15 @@ public class DirCommander {
     }
 
     public GenericDirWithContent setDir(BasePathContent dir, int previousPosition) {
+        return setDir(dir,previousPosition,null);
+    }
+
+    public GenericDirWithContent setDir(BasePathContent dir, int previousPosition, @Nullable DirListingListener listener) {
         GenericDirWithContent cwd;
         if (recentDirs.size()<currentIndex+1) // guard block
             throw new RuntimeException("Commander error");
 
-        cwd = validateDirAccess(dir);
+        cwd = validateDirAccess(dir,listener);
         if (cwd.errorCode != null)
             return cwd;
 
@@ -0,0 +1,350 @@
+package it.pgp.xfiles.utils;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.CopyMoveListPathContent;
+import it.pgp.xfiles.enums.CopyMoveMode;
+import it.pgp.xfiles.enums.ProviderType;
+import it.pgp.xfiles.items.SingleStatsItem;
+import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
+import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+
+/**
+ * Per-provider LRU cache of directory listings, used by {@link DirCommander} for back/ahead/goDir navigation
+ *
+ * Revalidation costs at most one stat of the listed directory:
+ * - LOCAL: the directory mtime is checked on every lookup (ttl 0); listings taken within
+ *   {@link #MTIME_GRANULARITY_MS} of the directory's last modification are not cached at all,
+ *   since a later change in the same second would leave the mtime unchanged
+ * - XFILES_REMOTE, SFTP, SMB: a listing is served without any round trip within the provider ttl,
+ *   after that the directory mtime is checked (SMB has no stat, so its entries simply expire);
+ *   in order not to delay uncached listings with a stat round trip, their mtime is taken from the cached listing
+ *   of the parent directory, if any, else the entry expires after the ttl as well
+ * Archive listings are not cached here, archive indexes are already cached in RootHelperClient
+ *
+ * Since an mtime check cannot see changes made by this app in the same second, file operations
+ * must invalidate the affected directories explicitly through the static invalidate* hooks.
+ */
+
+public class DirListingCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 32;
+    public static final int DEFAULT_MAX_ITEMS = 200000; // total BrowserItems retained per provider
+    public static final long DEFAULT_REMOTE_TTL_MS = 15000;
+    public static final long MTIME_GRANULARITY_MS = 2000; // covers 1-second mtimes plus rounding (FAT, remote hosts)
+
+    private static final Map<ProviderType,DirListingCache> caches = new EnumMap<>(ProviderType.class);
+
+    public static synchronized DirListingCache forProvider(ProviderType providerType) {
+        DirListingCache cache = caches.get(providerType);
+        if (cache == null) {
+            cache = new DirListingCache(providerType,
+                    providerType==ProviderType.LOCAL?0:DEFAULT_REMOTE_TTL_MS,
+                    DEFAULT_MAX_ENTRIES,DEFAULT_MAX_ITEMS);
+            caches.put(providerType,cache);
+        }
+        return cache;
+    }
+
+    public static boolean isCacheable(ProviderType providerType) {
+        switch (providerType) {
+            case LOCAL:
+            case XFILES_REMOTE:
+            case SFTP:
+            case SMB:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /*****************************************************************
+     * Invalidation hooks, to be called after operations modifying directory content
+     *****************************************************************/
+
+    // content of dir has changed (file created, deleted or renamed within it)
+    public static void invalidate(BasePathContent dir) {
+        if (dir == null || !isCacheable(dir.providerType)) return;
+        forProvider(dir.providerType).remove(dir);
+    }
+
+    // dir itself has been removed, moved or overwritten: drop it and all its cached descendants
+    public static void invalidateTree(BasePathContent dir) {
+        if (dir == null || !isCacheable(dir.providerType)) return;
+        forProvider(dir.providerType).removeSubTree(dir);
+    }
+
+    // for delete/rename/move sources: the parents' content changes, and the paths themselves may be directories
+    public static void invalidateParentsOf(Collection<? extends BasePathContent> paths) {
+        if (paths == null) return;
+        for (BasePathContent path : paths) invalidateParentOf(path);
+    }
+
+    public static void invalidateParentOf(BasePathContent path) {
+        if (path == null) return;
+        invalidateTree(path);
+        invalidate(path.getParent());
+    }
+
+    // also after failed or cancelled transfers, since they may have been partially completed
+    public static void invalidateCopyMove(CopyMoveListPathContent list, BasePathContent destPath) {
+        invalidateTree(destPath); // copied directories may merge into existing subdirectories
+        if (list == null || list.parentDir == null || list.copyOrMove != CopyMoveMode.MOVE) return;
+        invalidate(list.parentDir);
+        for (BrowserItem b : list.files) invalidateTree(list.parentDir.concat(b.filename));
+    }
+
+    public static synchronized void clearAll() {
+        for (DirListingCache cache : caches.values()) cache.clear();
+    }
+
+    /*****************************************************************/
+
+    private static class Entry {
+        final GenericDirWithContent listing; // content is private to the cache, never handed out directly
+        final long mtime; // -1 if the provider cannot stat directories
+        long validatedAt;
+        boolean prefetched; // stored by DirPrefetcher and not yet served
+
+        Entry(GenericDirWithContent listing, long mtime, long validatedAt) {
+            this.listing = listing;
+            this.mtime = mtime;
+            this.validatedAt = validatedAt;
+        }
+    }
+
+    public final ProviderType providerType;
+    private final LinkedHashMap<BasePathContent,Entry> entries = new LinkedHashMap<>(16,0.75f,true); // least recent first
+    private volatile long ttlMs;
+    private int maxEntries;
+    private int maxItems;
+    private int currentItems = 0;
+
+    // stats
+    private long hits = 0;
+    private long misses = 0;
+    private long revalidations = 0; // stats issued on lookup
+    private long staleEntries = 0; // entries dropped because the directory mtime changed
+    private long invalidations = 0; // entries dropped by invalidation hooks
+    private long evictions = 0;
+    private long prefetchStored = 0;
+    private long prefetchHits = 0; // prefetched entries served at least once
+
+    public DirListingCache(ProviderType providerType, long ttlMs, int maxEntries, int maxItems) {
+        this.providerType = providerType;
+        this.ttlMs = ttlMs;
+        this.maxEntries = maxEntries;
+        this.maxItems = maxItems;
+    }
+
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    public void setTtlMs(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    public synchronized void setLimits(int maxEntries, int maxItems) {
+        this.maxEntries = maxEntries;
+        this.maxItems = maxItems;
+        trimToSize(null);
+    }
+
+    // directory mtime in millis, -1 if not available
+    public static long statMtime(BasePathContent dir, FileOperationHelper helper) {
+        try {
+            SingleStatsItem stats = helper.statFile(dir);
+            if (stats == null || stats.modificationTime == null) return -1;
+            return stats.modificationTime.getTime();
+        }
+        catch (IOException|RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return a copy of the cached listing for dir (with fresh, unchecked items) if still valid, null otherwise
+     */
+    public GenericDirWithContent get(BasePathContent dir, FileOperationHelper helper) {
+        Entry e;
+        synchronized (this) {
+            e = entries.get(dir);
+            if (e == null) {
+                misses++;
+                return null;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - e.validatedAt >= ttlMs) {
+            // stat outside the lock, it may be a network round trip
+            long mtime = e.mtime < 0 ? -1 : statMtime(dir,helper);
+            synchronized (this) {
+                revalidations++;
+                if (mtime < 0 || mtime != e.mtime) {
+                    if (entries.get(dir) == e) removeEntry(dir);
+                    staleEntries++;
+                    misses++;
+                    return null;
+                }
+                e.validatedAt = now;
+            }
+        }
+
+        synchronized (this) {
+            hits++;
+            if (e.prefetched) {
+                e.prefetched = false;
+                prefetchHits++;
+            }
+        }
+        List<BrowserItem> src = e.listing.content;
+        List<BrowserItem> content = new ArrayList<>(src.size());
+        for (BrowserItem item : src) content.add(new BrowserItem(item));
+        return e.listing.withContent(content);
+    }
+
+    /**
+     * Lists dir through helper and stores the result if successful and not redirected
+     * @param listener optional, to receive chunks while listing (and to cancel it)
+     * @param prefetched true if listed in background by {@link DirPrefetcher}, for prefetch hit ratio
+     */
+    public GenericDirWithContent listAndStore(BasePathContent dir, FileOperationHelper helper, @Nullable DirListingListener listener, boolean prefetched) {
+        BasePathContent requested = dir.getCopy(); // listDirectory may update dir on redirect
+        long listedAt = System.currentTimeMillis();
+        // sampled before listing, so that concurrent changes make the entry stale
+        long mtime = providerType == ProviderType.LOCAL ? statMtime(dir,helper) : mtimeInParentListing(dir);
+        GenericDirWithContent dwc = listener==null?helper.listDirectory(dir):helper.listDirectory(dir,listener);
+        if (requested.equals(dir)) put(requested,dwc,mtime,listedAt,prefetched);
+        return dwc;
+    }
+
+    // mtime of dir as shown in the cached listing of its parent, -1 if not available
+    private synchronized long mtimeInParentListing(BasePathContent dir) {
+        BasePathContent parent = dir.getParent();
+        Entry p = parent == null ? null : entries.get(parent);
+        if (p == null) return -1;
+        String name = dir.getName();
+        for (BrowserItem item : p.listing.content)
+            if (item.isDirectory && item.filename.equals(name)) return item.dateMillis;
+        return -1;
+    }
+
+    public void put(BasePathContent dir, GenericDirWithContent listing, long mtime, long listedAt) {
+        put(dir,listing,mtime,listedAt,false);
+    }
+
+    /**
+     * Stores a successful listing of dir
+     * @param mtime directory mtime sampled BEFORE listing (so that concurrent changes make the entry stale), -1 if not available
+     * @param listedAt time at which listing started
+     */
+    public void put(BasePathContent dir, GenericDirWithContent listing, long mtime, long listedAt, boolean prefetched) {
+        if (listing == null || listing.errorCode != null || listing.content == null) return;
+        // redirected listing (e.g. symlinks resolved by roothelper), don't key it by the requested path
+        if (listing.dir != null && !listing.dir.equals(dir.dir)) return;
+        if (mtime < 0 && ttlMs == 0) return; // no way to revalidate
+        if (providerType == ProviderType.LOCAL && mtime >= listedAt - MTIME_GRANULARITY_MS) return; // racy mtime
+
+        List<BrowserItem> content = new ArrayList<>(listing.content.size());
+        for (BrowserItem item : listing.content) content.add(new BrowserItem(item));
+        Entry e = new Entry(listing.withContent(content),mtime,listedAt);
+        e.prefetched = prefetched;
+
+        BasePathContent key = dir.getCopy();
+        synchronized (this) {
+            Entry old = entries.put(key,e);
+            if (old != null) currentItems -= old.listing.content.size();
+            currentItems += content.size();
+            if (prefetched) prefetchStored++;
+            trimToSize(key);
+        }
+    }
+
+    public synchronized void remove(BasePathContent dir) {
+        if (removeEntry(dir)) invalidations++;
+    }
+
+    public synchronized void removeSubTree(BasePathContent dir) {
+        Iterator<Map.Entry<BasePathContent,Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<BasePathContent,Entry> x = it.next();
+            if (dir.isParentOrSameOf(x.getKey())) {
+                currentItems -= x.getValue().listing.content.size();
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentItems = 0;
+    }
+
+    // no revalidation, and no effect on LRU order
+    public synchronized boolean contains(BasePathContent dir) {
+        return entries.containsKey(dir);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private boolean removeEntry(BasePathContent dir) {
+        Entry old = entries.remove(dir);
+        if (old == null) return false;
+        currentItems -= old.listing.content.size();
+        return true;
+    }
+
+    private void trimToSize(BasePathContent keep) {
+        Iterator<Map.Entry<BasePathContent,Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || currentItems > maxItems) && it.hasNext()) {
+            Map.Entry<BasePathContent,Entry> x = it.next();
+            if (x.getKey().equals(keep)) continue;
+            currentItems -= x.getValue().listing.content.size();
+            it.remove();
+            evictions++;
+            Log.d("DirListingCache","Evicted "+x.getKey()+" ("+x.getValue().listing.content.size()+" items)");
+        }
+    }
+
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : ((double)hits)/total;
+    }
+
+    // fraction of prefetched listings that have actually been used
+    public synchronized double getPrefetchHitRatio() {
+        return prefetchStored == 0 ? 0 : ((double)prefetchHits)/prefetchStored;
+    }
+
+    public synchronized String getStats() {
+        return providerType.name()+
+                " entries: "+entries.size()+"/"+maxEntries+
+                " items: "+currentItems+"/"+maxItems+
+                " hits: "+hits+
+                " misses: "+misses+
+                " revalidations: "+revalidations+
+                " stale: "+staleEntries+
+                " invalidations: "+invalidations+
+                " evictions: "+evictions+
+                " hit ratio: "+String.format("%.2f",getHitRatio())+
+                " prefetched: "+prefetchStored+
+                " prefetch hits: "+prefetchHits+
+                " prefetch hit ratio: "+String.format("%.2f",getPrefetchHitRatio());
+    }
+}
@@ -0,0 +1,19 @@
+package it.pgp.xfiles.utils;
+
+import java.util.List;
+
+import it.pgp.xfiles.BrowserItem;
+
+/**
+ * Receives directory entries in chunks while a streamed listing is still in progress
+ * (see {@link FileOperationHelper#listDirectory(it.pgp.xfiles.utils.pathcontent.BasePathContent, DirListingListener)})
+ */
+
+public interface DirListingListener {
+    /**
+     * Called on the listing thread, once per chunk of at most {@link FileOperationHelper#LISTING_CHUNK_SIZE} entries,
+     * in provider order. The chunk list is not used by the provider after this call.
+     * @return false to stop listing (the listing then returns {@link it.pgp.xfiles.enums.FileOpsErrorCodes#LISTING_CANCELLED})
+     */
+    boolean onChunk(List<BrowserItem> chunk);
+}
@@ -0,0 +1,201 @@
+package it.pgp.xfiles.utils;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.enums.FileOpsErrorCodes;
+import it.pgp.xfiles.enums.ProviderType;
+import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
+import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+
+/**
+ * Background prefetch of likely-next directories into {@link DirListingCache}
+ *
+ * After a successful listing, the parent and up to {@link #maxChildren} child directories are listed
+ * on one low-priority thread per provider, so at most one prefetch per provider is in flight
+ * (a single SFTP channel, the XRE fast client, one local roothelper connection).
+ * Children are ranked by recent visits first, then by directory size, which grows with the number of entries.
+ *
+ * Any new navigation cancels the whole batch: queued prefetches are dropped, and a running one
+ * is stopped at the next chunk through its {@link DirListingListener}.
+ */
+
+public class DirPrefetcher {
+
+    public static final int DEFAULT_MAX_CHILDREN = 3;
+    private static final int MAX_VISITED = 64; // per provider
+
+    public static volatile boolean enabled = true;
+    public static volatile int maxChildren = DEFAULT_MAX_CHILDREN;
+
+    private static final AtomicInteger generation = new AtomicInteger();
+    private static final Map<ProviderType,ThreadPoolExecutor> executors = new EnumMap<>(ProviderType.class);
+    // recently visited directories, least recent first
+    private static final Map<ProviderType,LinkedHashMap<BasePathContent,Boolean>> visited = new EnumMap<>(ProviderType.class);
+
+    // stats
+    private static final AtomicLong scheduled = new AtomicLong();
+    private static final AtomicLong completed = new AtomicLong();
+    private static final AtomicLong cancelled = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+
+    private static synchronized ThreadPoolExecutor getExecutor(ProviderType providerType) {
+        ThreadPoolExecutor executor = executors.get(providerType);
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(1,1,0L,TimeUnit.MILLISECONDS,new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                },"DirPrefetcher-"+providerType.name());
+                t.setDaemon(true);
+                return t;
+            });
+            executors.put(providerType,executor);
+        }
+        return executor;
+    }
+
+    private static synchronized void recordVisit(BasePathContent dir) {
+        LinkedHashMap<BasePathContent,Boolean> m = visited.get(dir.providerType);
+        if (m == null) {
+            m = new LinkedHashMap<>(16,0.75f,true);
+            visited.put(dir.providerType,m);
+        }
+        m.put(dir.getCopy(),true);
+        Iterator<BasePathContent> it = m.keySet().iterator();
+        while (m.size() > MAX_VISITED && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    // rank of dir among recent visits, higher is more recent, -1 if not visited
+    private static synchronized int visitRank(BasePathContent dir) {
+        LinkedHashMap<BasePathContent,Boolean> m = visited.get(dir.providerType);
+        if (m == null) return -1;
+        int i = 0;
+        for (BasePathContent p : m.keySet()) {
+            if (p.equals(dir)) return i;
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Drops queued prefetches and stops the running ones
+     * @return the new batch generation
+     */
+    public static int cancelAll() {
+        int gen = generation.incrementAndGet();
+        synchronized (DirPrefetcher.class) {
+            for (ThreadPoolExecutor executor : executors.values()) {
+                cancelled.addAndGet(executor.getQueue().size());
+                executor.getQueue().clear();
+            }
+        }
+        return gen;
+    }
+
+    /**
+     * To be called once dir has been listed successfully; content is only read here, before returning,
+     * so it can be handed to the UI right after
+     */
+    public static void onListingSettled(BasePathContent dir, GenericDirWithContent dwc) {
+        if (!enabled || dir == null || dwc == null || dwc.errorCode != null || dwc.content == null) return;
+        if (!DirListingCache.isCacheable(dir.providerType)) return;
+        recordVisit(dir);
+        int gen = cancelAll();
+
+        DirListingCache cache = DirListingCache.forProvider(dir.providerType);
+        List<BasePathContent> candidates = new ArrayList<>();
+        BasePathContent parent = dir.getParent();
+        if (parent != null && !parent.equals(dir) && !cache.contains(parent)) candidates.add(parent);
+        for (BasePathContent child : selectChildren(dir,dwc.content))
+            if (!cache.contains(child)) candidates.add(child);
+
+        ThreadPoolExecutor executor = getExecutor(dir.providerType);
+        for (BasePathContent p : candidates) {
+            scheduled.incrementAndGet();
+            executor.execute(() -> prefetch(p,gen));
+        }
+    }
+
+    private static List<BasePathContent> selectChildren(BasePathContent dir, List<BrowserItem> content) {
+        int n = maxChildren;
+        if (n <= 0) return Collections.emptyList();
+        List<BrowserItem> dirs = new ArrayList<>();
+        for (BrowserItem b : content) if (b.isDirectory) dirs.add(b);
+
+        int[] ranks = new int[dirs.size()];
+        List<Integer> order = new ArrayList<>(dirs.size());
+        for (int i=0; i<dirs.size(); i++) {
+            ranks[i] = visitRank(dir.concat(dirs.get(i).filename));
+            order.add(i);
+        }
+        Collections.sort(order,(i,j) -> {
+            if (ranks[i] != ranks[j]) return Integer.compare(ranks[j],ranks[i]);
+            return Long.compare(dirs.get(j).size,dirs.get(i).size);
+        });
+
+        List<BasePathContent> children = new ArrayList<>(Math.min(n,order.size()));
+        for (int i=0; i<order.size() && i<n; i++)
+            children.add(dir.concat(dirs.get(order.get(i)).filename));
+        return children;
+    }
+
+    private static void prefetch(BasePathContent dir, int gen) {
+        if (gen != generation.get()) {
+            cancelled.incrementAndGet();
+            return;
+        }
+        MainActivity activity = MainActivity.mainActivity;
+        if (activity == null) return;
+        DirListingCache cache = DirListingCache.forProvider(dir.providerType);
+        if (cache.contains(dir)) return; // already listed in the meantime
+        try {
+            FileOperationHelper helper = activity.getFileOpsHelper(dir.providerType);
+            GenericDirWithContent dwc = cache.listAndStore(dir,helper,chunk -> gen == generation.get(),true);
+            if (dwc.errorCode == null) completed.incrementAndGet();
+            else if (dwc.errorCode == FileOpsErrorCodes.LISTING_CANCELLED) cancelled.incrementAndGet();
+            else failed.incrementAndGet();
+        }
+        catch (Exception e) {
+            failed.incrementAndGet();
+            Log.d("DirPrefetcher","Prefetch of "+dir+" failed: "+e.getMessage());
+        }
+    }
+
+    // prefetch hit ratios are kept by the listing caches, since a hit is detected on lookup
+    public static double getPrefetchHitRatio(ProviderType providerType) {
+        return DirListingCache.forProvider(providerType).getPrefetchHitRatio();
+    }
+
+    public static String getStats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("scheduled: ").append(scheduled.get())
+                .append(" completed: ").append(completed.get())
+                .append(" cancelled: ").append(cancelled.get())
+                .append(" failed: ").append(failed.get());
+        synchronized (DirPrefetcher.class) {
+            for (ProviderType p : executors.keySet())
+                sb.append(" ").append(p.name()).append(" prefetch hit ratio: ")
+                        .append(String.format("%.2f",getPrefetchHitRatio(p)));
+        }
+        return sb.toString();
+    }
+}
@@ -4,8 +4,10 @@ import android.support.annotation.Nullable;
 
 import java.io.IOException;
 import java.util.BitSet;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import it.pgp.xfiles.CopyMoveListPathContent;
 import it.pgp.xfiles.enums.FileMode;
@@ -25,6 +27,7 @@ import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 public interface FileOperationHelper {
     // constants
     String ALREADY_EXIST = "A file or directory with the same name already exists";
+    int LISTING_CHUNK_SIZE = 512;
 
     // TODO change return value of every method to boolean or int and remove IOException
     void createFileOrDirectory(BasePathContent filePath, FileMode fileOrDirectory, FileCreationAdvancedOptions... fileOptions) throws IOException;
@@ -44,7 +47,15 @@ public interface FileOperationHelper {
                     HashRequestCodes hashAlgorithm,
                     BitSet dirHashOpts) throws IOException;
 
+    // several digests of the same path, reading it only once where possible; null on error
+    Map<HashRequestCodes,byte[]> hashFile(BasePathContent pathname,
+                                          Collection<HashRequestCodes> hashAlgorithms,
+                                          BitSet dirHashOpts) throws IOException;
+
     GenericDirWithContent listDirectory(BasePathContent directory);
+    // streamed listing: entries are also delivered to the listener in chunks as soon as they are received,
+    // the returned object is the same as with listDirectory(directory), with all the entries or an error code
+    GenericDirWithContent listDirectory(BasePathContent directory, DirListingListener listener);
     GenericDirWithContent listArchive(BasePathContent archivePath);
 
     int compressToArchive(BasePathContent srcDirectory,
@@ -0,0 +1,155 @@
+package it.pgp.xfiles.utils;
+
+import android.util.Log;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache for archives' in-memory indexes, bounded by estimated retained memory instead of entry count
+ *
+ * Entries are keyed by archive path and carry the archive modification time they were built from;
+ * a lookup with a different modification time is a miss, and drops the stale entry.
+ * Lookup, promotion and insertion are O(1) (access-ordered LinkedHashMap), eviction pops least recently used
+ * entries until the total estimated size fits in the budget again. The most recently inserted entry is never evicted,
+ * even if alone it exceeds the budget (a listed archive must stay available for find and extract operations).
+ */
+
+public class LRUSizedCache<T,U> {
+
+    public interface Weigher<U> {
+        long weigh(U value); // estimated retained bytes
+    }
+
+    private static class Entry<U> {
+        final U value;
+        final Date modified;
+        final long bytes;
+
+        Entry(U value, Date modified, long bytes) {
+            this.value = value;
+            this.modified = modified;
+            this.bytes = bytes;
+        }
+    }
+
+    private final LinkedHashMap<T,Entry<U>> entries = new LinkedHashMap<>(16,0.75f,true); // least recent first
+    private final Weigher<U> weigher;
+    private long maxBytes;
+    private long currentBytes = 0;
+
+    // stats
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    public LRUSizedCache(long maxBytes, Weigher<U> weigher) {
+        this.maxBytes = maxBytes;
+        this.weigher = weigher;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize(null);
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    /*
+    Return values:
+        - true/false if file has/has not been modified since last entries reading
+        - null if not present in cache
+     */
+    public synchronized Boolean hasBeenModified(T archivePath, Date modifiedDate) {
+        Entry<U> e = entries.get(archivePath);
+        if (e == null) return null;
+        return !e.modified.equals(modifiedDate);
+    }
+
+    /*
+    Returns the cached index for archivePath if it has been built from an archive with the same modification time,
+    else returns null and invalidates that entry
+    If modifiedDate is null (find within archive), any existing entry is returned
+    To be used by client in conjunction with setLatest
+     */
+    public synchronized U getByPath(T archivePath, Date modifiedDate) {
+        Entry<U> e = entries.get(archivePath); // also brings the entry on top
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        if (modifiedDate != null && !e.modified.equals(modifiedDate)) {
+            remove(archivePath);
+            invalidations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.value;
+    }
+
+    // unconditionally get by path (for extraction from within archive)
+    public synchronized U getByPath(T archivePath) {
+        return getByPath(archivePath,null);
+    }
+
+    // unconditionally set latest
+    // assumed to be called after a full archive entries retrieval
+    public synchronized void setLatest(T archivePath, U vMap, Date modifiedDate) {
+        Entry<U> e = new Entry<>(vMap,modifiedDate,weigher.weigh(vMap));
+        Entry<U> old = entries.put(archivePath,e);
+        if (old != null) currentBytes -= old.bytes;
+        currentBytes += e.bytes;
+        trimToSize(archivePath);
+    }
+
+    public synchronized void remove(T archivePath) {
+        Entry<U> old = entries.remove(archivePath);
+        if (old != null) currentBytes -= old.bytes;
+    }
+
+    private void trimToSize(T keep) {
+        Iterator<Map.Entry<T,Entry<U>>> it = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Map.Entry<T,Entry<U>> x = it.next();
+            if (x.getKey().equals(keep)) continue;
+            currentBytes -= x.getValue().bytes;
+            it.remove();
+            evictions++;
+            Log.d("LRUSizedCache","Evicted "+x.getKey()+" ("+x.getValue().bytes+" bytes)");
+        }
+    }
+
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : ((double)hits)/total;
+    }
+
+    public synchronized String getStats() {
+        return "entries: "+entries.size()+
+                " bytes: "+currentBytes+"/"+maxBytes+
+                " hits: "+hits+
+                " misses: "+misses+
+                " evictions: "+evictions+
+                " invalidations: "+invalidations+
+                " hit ratio: "+String.format("%.2f",getHitRatio());
+    }
+}
@@ -49,6 +49,14 @@ public class Misc {
         return new String(hexChars);
     }
 
+    // inverse of toHexString, case insensitive
+    public static byte[] hexStringToByteArray(String s) {
+        byte[] bytes = new byte[s.length() / 2];
+        for (int j = 0; j < bytes.length; j++)
+            bytes[j] = (byte) ((Character.digit(s.charAt(j * 2), 16) << 4) + Character.digit(s.charAt(j * 2 + 1), 16));
+        return bytes;
+    }
+
     public static long castBytesToUnsignedNumber(byte[] b, Integer cut_) {
         long value = 0;
         int cut = b.length;
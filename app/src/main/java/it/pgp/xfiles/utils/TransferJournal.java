@@ -0,0 +1,354 @@
+package it.pgp.xfiles.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.CopyMoveListPathContent;
+import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+
+/**
+ * Persistent state of a file transfer job, for resuming it after an interruption
+ *
+ * A job is identified by its source items and destination folder, so pasting the same selection again
+ * into the same folder resumes it. The journal is an append-only text file, with one line per record:
+ * completed files, and byte offset checkpoints of files being transferred, recorded every {@link #CHECKPOINT_INTERVAL}
+ * bytes once the written data has been flushed to the destination; both with the source size and modification time.
+ * On resume, completed files are skipped if their source size and modification time are unchanged and their destination
+ * still has the expected size, and a partial file is continued from its last checkpoint if the source size and
+ * modification time are unchanged, the destination is at least that long,
+ * and the {@link #TAIL_LENGTH} bytes before the checkpoint still have the recorded CRC32; otherwise it is transferred again.
+ * The journal is deleted once the job completes.
+ */
+
+public class TransferJournal {
+
+    public static final long CHECKPOINT_INTERVAL = 32*1024*1024;
+    public static final int TAIL_LENGTH = 64*1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static File journalsDir;
+
+    public static void init(Context context) {
+        journalsDir = new File(context.getFilesDir(),"transfer_journals");
+    }
+
+    /**
+     * Access to a destination file, for verifying it before resuming
+     */
+    public interface Destination {
+        // -1 if it does not exist
+        long length() throws IOException;
+        InputStream openAt(long offset) throws IOException;
+    }
+
+    // local file, resumable only if accessible in-app, since roothelper file streams cannot append
+    public static Destination localFile(String path) {
+        File f = new File(path);
+        return new Destination() {
+            @Override
+            public long length() {
+                return f.isFile() ? f.length() : -1;
+            }
+
+            @Override
+            public InputStream openAt(long offset) throws IOException {
+                FileInputStream i = new FileInputStream(f);
+                i.getChannel().position(offset);
+                return i;
+            }
+        };
+    }
+
+    public static void skipFully(InputStream i, long n) throws IOException {
+        while (n > 0) {
+            long skipped = i.skip(n);
+            if (skipped <= 0) throw new EOFException("Unable to skip to resume offset");
+            n -= skipped;
+        }
+    }
+
+    private static class Checkpoint {
+        final long sourceSize;
+        final long sourceMtime;
+        final long offset; // for completed files, the destination size
+        final long tailCrc;
+
+        Checkpoint(long sourceSize, long sourceMtime, long offset, long tailCrc) {
+            this.sourceSize = sourceSize;
+            this.sourceMtime = sourceMtime;
+            this.offset = offset;
+            this.tailCrc = tailCrc;
+        }
+
+        boolean sameSource(long sourceSize, long sourceMtime) {
+            return this.sourceSize == sourceSize && this.sourceMtime == sourceMtime;
+        }
+    }
+
+    private final File file;
+    private final Map<String,Checkpoint> completed = new HashMap<>(); // destination path -> source stamp and size
+    private final Map<String,Checkpoint> checkpoints = new HashMap<>();
+    private Writer w;
+
+    // stats
+    private int skippedFiles = 0;
+    private int resumedFiles = 0;
+    private long skippedBytes = 0;
+
+    private TransferJournal(File file) {
+        this.file = file;
+    }
+
+    private static String getJobId(CopyMoveListPathContent files, BasePathContent dstFolder) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update((files.parentDir.toString()+"\n"+dstFolder.toString()).getBytes(UTF8));
+            for (BrowserItem b : files.files) md.update(("\n"+b.getFilename()).getBytes(UTF8));
+            return Misc.toHexString(md.digest());
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static File getJournalFile(CopyMoveListPathContent files, BasePathContent dstFolder) {
+        return journalsDir == null ? null : new File(journalsDir,getJobId(files,dstFolder));
+    }
+
+    public static boolean exists(CopyMoveListPathContent files, BasePathContent dstFolder) {
+        File f = getJournalFile(files,dstFolder);
+        return f != null && f.isFile();
+    }
+
+    // resume declined: the job will start from zero if repeated
+    public static void discard(CopyMoveListPathContent files, BasePathContent dstFolder) {
+        File f = getJournalFile(files,dstFolder);
+        if (f != null && f.isFile() && !f.delete()) Log.w("TransferJournal","Unable to delete journal "+f);
+    }
+
+    /**
+     * Opens the journal of a job, loading the records of a previous run if any
+     * @return null if journals are not available (no record is kept, transfers start from zero)
+     */
+    public static TransferJournal open(CopyMoveListPathContent files, BasePathContent dstFolder) {
+        File f = getJournalFile(files,dstFolder);
+        if (f == null) return null;
+        TransferJournal j = new TransferJournal(f);
+        try {
+            if (f.isFile()) j.load();
+            else if (!journalsDir.isDirectory() && !journalsDir.mkdirs()) return null;
+            j.w = new OutputStreamWriter(new FileOutputStream(f,true),UTF8);
+            return j;
+        }
+        catch (IOException e) {
+            Log.e("TransferJournal","Unable to open journal "+f,e);
+            return null;
+        }
+    }
+
+    // records: C <sourceSize> <sourceMtime> <size> <dest>, O <sourceSize> <sourceMtime> <offset> <tailCrc> <dest>;
+    // a truncated last line is ignored
+    private void load() throws IOException {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file),UTF8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                try {
+                    String[] fields = line.split("\t",line.startsWith("C") ? 5 : 6);
+                    if (fields[0].equals("C") && fields.length == 5) {
+                        completed.put(fields[4],new Checkpoint(Long.parseLong(fields[1]),Long.parseLong(fields[2]),Long.parseLong(fields[3]),0));
+                        checkpoints.remove(fields[4]);
+                    }
+                    else if (fields[0].equals("O") && fields.length == 6)
+                        checkpoints.put(fields[5],new Checkpoint(Long.parseLong(fields[1]),Long.parseLong(fields[2]),Long.parseLong(fields[3]),Long.parseLong(fields[4])));
+                }
+                catch (NumberFormatException ignored) {}
+            }
+        }
+    }
+
+    private synchronized void append(String record) throws IOException {
+        if (w == null) return; // closed
+        w.write(record);
+        w.write('\n');
+        w.flush();
+    }
+
+    private static long crcOf(byte[] b, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(b,off,len);
+        return crc.getValue();
+    }
+
+    /**
+     * @return true if dest has already been transferred completely in a previous run, from the same source version
+     */
+    public boolean isCompleted(String dest, long sourceSize, long sourceMtime, Destination d) {
+        Checkpoint c;
+        synchronized (this) {
+            c = completed.get(dest);
+        }
+        if (c == null) return false;
+        try {
+            if (c.sameSource(sourceSize,sourceMtime) && d.length() == c.offset) {
+                synchronized (this) {
+                    skippedFiles++;
+                    skippedBytes += c.offset;
+                }
+                return true;
+            }
+        }
+        catch (IOException ignored) {}
+        synchronized (this) {
+            completed.remove(dest);
+        }
+        return false;
+    }
+
+    /**
+     * @return the offset from which dest can be continued, 0 if it has to be transferred from the beginning
+     */
+    public long getResumeOffset(String dest, long sourceSize, long sourceMtime, Destination d) {
+        Checkpoint c;
+        synchronized (this) {
+            c = checkpoints.get(dest);
+        }
+        if (c == null || !c.sameSource(sourceSize,sourceMtime) || c.offset <= 0 || c.offset > sourceSize) return 0;
+        try {
+            if (d.length() < c.offset) return 0;
+            int tailLength = (int) Math.min(TAIL_LENGTH,c.offset);
+            byte[] tail = new byte[tailLength];
+            try (InputStream i = d.openAt(c.offset - tailLength)) {
+                int n = 0;
+                while (n < tailLength) {
+                    int r = i.read(tail,n,tailLength-n);
+                    if (r <= 0) return 0;
+                    n += r;
+                }
+            }
+            if (crcOf(tail,0,tailLength) != c.tailCrc) {
+                Log.w("TransferJournal","Tail of "+dest+" changed since last checkpoint, transferring it again");
+                return 0;
+            }
+        }
+        catch (IOException e) {
+            return 0;
+        }
+        synchronized (this) {
+            resumedFiles++;
+            skippedBytes += c.offset;
+        }
+        return c.offset;
+    }
+
+    public Tracker track(String dest, long sourceSize, long sourceMtime, long offset) {
+        return new Tracker(dest,sourceSize,sourceMtime,offset);
+    }
+
+    public synchronized void markCompleted(String dest, long sourceSize, long sourceMtime, long size) throws IOException {
+        checkpoints.remove(dest);
+        completed.put(dest,new Checkpoint(sourceSize,sourceMtime,size,0));
+        append("C\t"+sourceSize+"\t"+sourceMtime+"\t"+size+"\t"+dest);
+    }
+
+    /**
+     * Progress of one destination file: keeps the last {@link #TAIL_LENGTH} written bytes,
+     * and records a checkpoint every {@link #CHECKPOINT_INTERVAL} bytes
+     */
+    public class Tracker {
+        private final String dest;
+        private final long sourceSize;
+        private final long sourceMtime;
+        private long position;
+        private long nextCheckpoint;
+        private final byte[] tail = new byte[TAIL_LENGTH]; // circular
+        private int tailFill = 0;
+
+        Tracker(String dest, long sourceSize, long sourceMtime, long offset) {
+            this.dest = dest;
+            this.sourceSize = sourceSize;
+            this.sourceMtime = sourceMtime;
+            this.position = offset;
+            this.nextCheckpoint = offset + CHECKPOINT_INTERVAL;
+        }
+
+        // to be called after b has been written to o
+        public void onWritten(byte[] b, int off, int len, OutputStream o) throws IOException {
+            for (int k=Math.max(0,len-TAIL_LENGTH); k<len; ) {
+                int p = (int) ((position + k) % TAIL_LENGTH);
+                int n = Math.min(len-k,TAIL_LENGTH-p);
+                System.arraycopy(b,off+k,tail,p,n);
+                k += n;
+            }
+            position += len;
+            tailFill = (int) Math.min(TAIL_LENGTH,tailFill+(long)len);
+            if (position >= nextCheckpoint && position < sourceSize) {
+                o.flush(); // data must be at destination before being recorded
+                checkpoint();
+                nextCheckpoint = position + CHECKPOINT_INTERVAL;
+            }
+        }
+
+        private void checkpoint() throws IOException {
+            // tail is complete here, since checkpoints are at least TAIL_LENGTH bytes apart
+            if (tailFill < TAIL_LENGTH) return;
+            int p = (int) (position % TAIL_LENGTH); // oldest byte
+            CRC32 crc = new CRC32();
+            crc.update(tail,p,TAIL_LENGTH-p);
+            crc.update(tail,0,p);
+            synchronized (TransferJournal.this) {
+                checkpoints.put(dest,new Checkpoint(sourceSize,sourceMtime,position,crc.getValue()));
+                append("O\t"+sourceSize+"\t"+sourceMtime+"\t"+position+"\t"+crc.getValue()+"\t"+dest);
+            }
+        }
+
+        public void completed() throws IOException {
+            markCompleted(dest,sourceSize,sourceMtime,position);
+        }
+    }
+
+    /**
+     * Job completed: the journal is no longer needed
+     */
+    public synchronized void finish() {
+        close();
+        Log.d("TransferJournal","Job completed, "+getStats());
+        if (!file.delete()) Log.w("TransferJournal","Unable to delete journal "+file);
+    }
+
+    /**
+     * Job interrupted: the journal is kept for resuming
+     */
+    public synchronized void close() {
+        if (w == null) return;
+        try {
+            w.close();
+        }
+        catch (IOException ignored) {}
+        w = null;
+    }
+
+    public synchronized String getStats() {
+        return "skipped files: "+skippedFiles+
+                " resumed files: "+resumedFiles+
+                " bytes not transferred again: "+skippedBytes;
+    }
+}
@@ -12,9 +12,11 @@ import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import it.pgp.Native;
 import it.pgp.xfiles.BrowserItem;
@@ -282,31 +284,39 @@ public class XFilesUtils implements FileOperationHelper {
         return f.exists() && f.isDirectory();
     }
 
+    // regular local files readable by the app can be hashed in-app when the roothelper server is not available
+    private static boolean canHashInApp(BasePathContent pathname) {
+        if (pathname.providerType != ProviderType.LOCAL) return false;
+        File f = new File(pathname.dir);
+        return f.isFile() && f.canRead();
+    }
+
+    @Override
+    public Map<HashRequestCodes,byte[]> hashFile(BasePathContent pathname,
+                                                 Collection<HashRequestCodes> hashAlgorithms,
+                                                 BitSet dirHashOpts) throws IOException {
+        try {
+            refreshRHClient();
+        }
+        catch (IOException e) {
+            if (!canHashInApp(pathname)) throw e;
+            return Checksums.digest(new File(pathname.dir),hashAlgorithms);
+        }
+        return rhc.hashFile(pathname,hashAlgorithms,dirHashOpts);
+    }
+
     @Override
     public byte[] hashFile(BasePathContent pathname,
                            HashRequestCodes hashAlgorithm,
                            BitSet dirHashOpts) throws IOException {
-        refreshRHClient();
+        try {
+            refreshRHClient();
+        }
+        catch (IOException e) {
+            if (!canHashInApp(pathname)) throw e;
+            return Checksums.digest(new File(pathname.dir),hashAlgorithm);
+        }
         return rhc.hashFile(pathname,hashAlgorithm,dirHashOpts);
-//        File f = new File(pathname.dir);
-//        byte[] digest = null;
-//        try {
-//            switch (hashAlgorithm) {
-//                case md5:
-//                    digest = Checksums.md5(f);
-//                    break;
-//                case sha1:
-//                    digest = Checksums.sha1(f);
-//                    break;
-//                default:
-//                    Log.e(XFilesUtils.class.getName(), "Not implemented");
-//            }
-//        }
-//        catch (NoSuchAlgorithmException n) {
-//            n.printStackTrace();
-//        }
-//
-//        return digest;
     }
 
     public static final LocalPathContent dataApp = new LocalPathContent("/data/app");
@@ -346,19 +356,31 @@ public class XFilesUtils implements FileOperationHelper {
 
     @Override
     public GenericDirWithContent listDirectory(BasePathContent directory) {
+        return listDirectory(directory,null);
+    }
+
+    @Override
+    public GenericDirWithContent listDirectory(BasePathContent directory, DirListingListener listener) {
         if(directory instanceof XREPathContent) {
             try {refreshRHClient();}
             catch(IOException e) {return new GenericDirWithContent(FileOpsErrorCodes.ROOTHELPER_INIT_ERROR);}
-            return rhc.listDirectory(directory);
+            return listener==null?rhc.listDirectory(directory):rhc.listDirectory(directory,listener);
         }
         File[] content = new File(directory.dir).listFiles();
         if(content == null) {
             if(directory.equals(dataApp)) return listDataAppWithoutRoot();
             return new LocalDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS); // TODO specialize error code (enum to be created) in callers from dir commander
         }
-        ArrayList<BrowserItem> l = new ArrayList<>();
+        ArrayList<BrowserItem> l = new ArrayList<>(content.length);
+        // names come all at once, but per-entry stats are the expensive part, so deliver chunks while stat-ing
+        int chunkStart = 0;
         for(File f : content) {
             l.add(new BrowserItem(f.getName(),f.length(),new Date(f.lastModified()),f.isDirectory(), Native.isSymLink(f.getAbsolutePath())>0)); // getCanonicalPath not enough to fully determine symlink attribute (files in symlinked folders), and Files.isSymbolicLink is available only with minAPI >= 26
+            if(listener != null && (l.size()-chunkStart == LISTING_CHUNK_SIZE || l.size() == content.length)) {
+                if(!listener.onChunk(new ArrayList<>(l.subList(chunkStart,l.size()))))
+                    return new LocalDirWithContent(FileOpsErrorCodes.LISTING_CANCELLED);
+                chunkStart = l.size();
+            }
         }
         return new LocalDirWithContent(directory.dir, l);
     }
@@ -405,7 +427,9 @@ public class XFilesUtils implements FileOperationHelper {
         File f = new File(file.dir);
         if (!f.exists()) return -1;
         if (modificationDate == null) return 0;
-        return f.setLastModified(modificationDate.getTime())?0:-1;
+        if (!f.setLastModified(modificationDate.getTime())) return -1;
+        DirListingCache.invalidate(file.getParent()); // attributes shown in the parent listing
+        return 0;
     }
 
     @Override
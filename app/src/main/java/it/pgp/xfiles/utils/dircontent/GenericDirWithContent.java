@@ -14,7 +14,7 @@ import it.pgp.xfiles.enums.ProviderType;
  * NOT all the archive entries in case of archive - the VMap caching must be done at FileOpsHelper/RootHelperClient level)
  */
 
-public class GenericDirWithContent {
+public class GenericDirWithContent implements Cloneable {
     public ProviderType providerType;
     /*
     content of dir for providerType:
@@ -42,4 +42,16 @@ public class GenericDirWithContent {
     public GenericDirWithContent(FileOpsErrorCodes errorCode) {
         this.errorCode = errorCode;
     }
+
+    // shallow copy with replaced content, keeps subclass type and fields (used for serving cached listings)
+    public GenericDirWithContent withContent(List<BrowserItem> content) {
+        try {
+            GenericDirWithContent copy = (GenericDirWithContent) super.clone();
+            copy.content = content;
+            return copy;
+        }
+        catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Guard block");
+        }
+    }
 }